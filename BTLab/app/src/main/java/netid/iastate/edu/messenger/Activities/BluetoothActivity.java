@@ -8,11 +8,13 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.Handler;
-import android.os.Message;
 import android.speech.RecognizerIntent;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.os.Bundle;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
@@ -22,51 +24,82 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import netid.iastate.edu.messenger.Interfaces.ChatEventListener;
+import netid.iastate.edu.messenger.Models.ChatHistory;
 import netid.iastate.edu.messenger.Models.ChatModel;
+import netid.iastate.edu.messenger.Models.ChatRecord;
+import netid.iastate.edu.messenger.Models.PooledCharBuffer;
 import netid.iastate.edu.messenger.R;
 
+import static android.content.ContentValues.TAG;
+
 public class BluetoothActivity extends AppCompatActivity {
 
     /** text view that displays the status of the BT connection */
     private TextView status;
     /** Button user clicks in order to show BT devices to connect to */
     private Button btnConnect;
-    /** list that is populated with the two people chatting back and forth */
-    private ListView listView;
+    /** list that is populated with the people chatting back and forth, only the rows on screen have views */
+    private RecyclerView chatList;
+    /** lays chatList out top to bottom and tells which rows are on screen */
+    private LinearLayoutManager chatLayout;
     /** dialog used for showing BT device options to choose from to the user */
     private Dialog dialog;
     /** this is where the user enters their message into */
     private EditText inputField;
-    /** Array adapter for putting chat messages sent and received into the list view */
-    private ArrayAdapter<String> chatAdapter;
-    /** array list of messages sent and received */
-    private ArrayList<String> chatMessages;
+    /** adapter for putting chat messages sent and received into the chat list, it shows chatMessages and is told of every change to it */
+    private ChatAdapter chatAdapter;
+    /** the messages sent and received that are paged in from chatHistory, at most WINDOW_SIZE of them */
+    private ArrayList<ChatRecord> chatMessages;
+    /** set while a page is on its way to the chat list, so scrolling does not ask for the same page again */
+    private boolean paging = false;
+    /** every message sent and received, kept on disk, only used on historyExecutor and null until it has been opened */
+    private ChatHistory chatHistory;
+    /** opens, reads and writes chatHistory in the order the main thread asks, so the disk never holds up the UI */
+    private ExecutorService historyExecutor;
+    /** the number of messages in chatHistory as far as the main thread has been told */
+    private long historySize = 0;
+    /** the index in chatHistory of the first message in chatMessages */
+    private long windowStart = 0;
     /** the devices BT adapter used for BT connections */
     private BluetoothAdapter bluetoothAdapter;
 
-    //these final variables are used in handleMessage of the Handler to see why the handler was used and perform the resulting action of the call
-    public static final int MESSAGE_STATE_CHANGE = 1;
-    public static final int MESSAGE_READ = 2;
-    public static final int MESSAGE_WRITE = 3;
-    public static final int MESSAGE_DEVICE_OBJECT = 4;
-    public static final int MESSAGE_TOAST = 5;
-
-    /** static variable used to get the device name attribute of the connectingDevice */
-    public static final String DEVICE_OBJECT = "device_name";
-
     /** request code used for startActivityForResult and onActivityResult */
     private static final int SPEECH_REQUEST_CODE = 0;
     /** request code used for startActivityForResult and onActivityResult */
     private static final int REQUEST_ENABLE_BLUETOOTH = 1;
+    /** the most messages held in chatMessages, older and newer ones are paged in from chatHistory as the list is scrolled */
+    private static final int WINDOW_SIZE = 200;
+    /** the number of messages paged in at a time */
+    private static final int PAGE_SIZE = 50;
+    /** how close to either end of the window the list is scrolled before the next page is read */
+    private static final int PAGE_AHEAD = 10;
+    /** the directory inside the app's files directory that holds the chat history */
+    private static final String HISTORY_DIRECTORY = "history";
+    /** how messages are encoded on the wire, UTF-8 rather than the platform default charset */
+    private static final Charset WIRE_CHARSET = Charset.forName("UTF-8");
 
     /** this class performs the connections, reads, and writes for the BT messaging */
     private ChatModel chatModel;
-    /** this is the device that is being talked to */
-    private BluetoothDevice connectingDevice;
+    /** our messages that are not delivered yet, by the future chatModel.offer() returned */
+    private final HashMap<Future<Boolean>, NewMessage> sentRows = new HashMap<>();
+    /** the messages received in the current batch of chat events, saved together once the batch is finished */
+    private final ArrayList<NewMessage> unsaved = new ArrayList<>();
+    /** the names of the devices that are being talked to, by the peer id the chatModel gave them */
+    private final SparseArray<String> peerNames = new SparseArray<>();
     /** array adapter that helps display previously discovered devices in a list to the user when they have clicked on the connect button */
     private ArrayAdapter<String> discoveredDevicesAdapter;
 
@@ -92,10 +125,38 @@ public class BluetoothActivity extends AppCompatActivity {
             }
         });
 
-        //set chat adapter
+        //set chat adapter, which starts empty until the newest page of the history has been read
         chatMessages = new ArrayList<>();
-        chatAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, chatMessages);
-        listView.setAdapter(chatAdapter);
+        chatAdapter = new ChatAdapter(chatMessages);
+        chatLayout = new LinearLayoutManager(this);
+        chatList.setLayoutManager(chatLayout);
+        chatList.setAdapter(chatAdapter);
+        chatAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                // a new message keeps the list at the bottom if it was showing the bottom, which the layout has not moved from yet
+                if (!paging && positionStart + itemCount == chatAdapter.getItemCount() && !chatList.canScrollVertically(1)) {
+                    chatList.scrollToPosition(chatAdapter.getItemCount() - 1);
+                }
+            }
+        });
+        openHistory();
+
+        //page older and newer messages in as the list is scrolled towards either end of the window
+        chatList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (paging) {
+                    return;
+                }
+                if (dy < 0 && windowStart > 0 && chatLayout.findFirstVisibleItemPosition() <= PAGE_AHEAD) {
+                    pageOlder();
+                } else if (dy > 0 && windowStart + chatMessages.size() < historySize
+                        && chatLayout.findLastVisibleItemPosition() >= chatAdapter.getItemCount() - 1 - PAGE_AHEAD) {
+                    pageNewer();
+                }
+            }
+        });
     }
 
     /**
@@ -114,58 +175,359 @@ public class BluetoothActivity extends AppCompatActivity {
 
 
     /**
-     * This handler is used when Messages are sent to it. It checks if the BT connection state has
-     * changed, if a write just happened from this device, if a read just happened from this device,
-     * a connection just happened to another BT device, and if a Toast should be displayed to the user
+     * This listener is called by the chatModel once a frame with everything that happened since the last one.
+     * It checks if the BT connection state has changed, if one of our messages got further, if a message was
+     * received, if a device joined or left the chat, and if a Toast should be displayed to the user. The chat
+     * list is only shown the new messages once the whole batch has been taken in and saved.
      */
-    private Handler handler = new Handler(new Handler.Callback() {
+    private final ChatEventListener chatListener = new ChatEventListener() {
+        @Override
+        public void onStateChanged(int state) {
+            switch (state) {
+                case ChatModel.STATE_CONNECTED:
+                    setStatus("Connected to: " + joinPeerNames());
+                    // more devices can join up to the radio's limit
+                    btnConnect.setEnabled(peerNames.size() < ChatModel.MAX_PEERS);
+                    break;
+                case ChatModel.STATE_CONNECTING:
+                    setStatus("Connecting...");
+                    btnConnect.setEnabled(false);
+                    break;
+                case ChatModel.STATE_LISTEN:
+                case ChatModel.STATE_NONE:
+                    setStatus("Not connected");
+                    btnConnect.setEnabled(true);
+                    break;
+            }
+        }
+
+        @Override
+        public void onPeerConnected(int peerId, String name) {
+            peerNames.put(peerId, name);
+            Toast.makeText(getApplicationContext(), "Connected to " + name, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onPeerLost(int peerId, String name) {
+            peerNames.remove(peerId);
+        }
+
+        @Override
+        public void onMessageReceived(int peerId, String author, PooledCharBuffer text) {
+            // a relayed message names the device that wrote it, otherwise the peer it came from did
+            unsaved.add(new NewMessage(author != null ? author : peerNames.get(peerId), text));
+        }
+
+        @Override
+        public void onDelivery(Future<Boolean> message, int status, int peerId) {
+            NewMessage sent = sentRows.get(message);
+            if (sent == null) {
+                return;//already delivered or failed, a late "sent" is not news
+            }
+            sent.status = status;
+            saveStatus(sent, status);
+            // a message that is still being saved gets its row with the latest status once it is
+            if (sent.saved && sent.index >= windowStart && sent.index < windowStart + chatMessages.size()) {
+                int row = (int) (sent.index - windowStart);
+                chatMessages.set(row, chatMessages.get(row).withStatus(status));
+                chatAdapter.notifyItemChanged(row);
+            }
+            if (status != ChatModel.DELIVERY_SENT) {
+                sentRows.remove(message);
+            }
+        }
+
+        @Override
+        public void onToast(String text) {
+            Toast.makeText(getApplicationContext(), text, Toast.LENGTH_SHORT).show();
+        }
 
         @Override
-        public boolean handleMessage(Message msg) {
-            switch (msg.what) {
-                case MESSAGE_STATE_CHANGE:
-                    switch (msg.arg1) {
-                        case ChatModel.STATE_CONNECTED:
-                            setStatus("Connected to: " + connectingDevice.getName());
-                            btnConnect.setEnabled(false);
-                            break;
-                        case ChatModel.STATE_CONNECTING:
-                            setStatus("Connecting...");
-                            btnConnect.setEnabled(false);
-                            break;
-                        case ChatModel.STATE_LISTEN:
-                        case ChatModel.STATE_NONE:
-                            setStatus("Not connected");
-                            break;
+        public void onBatchFinished() {
+            // however many messages came in this frame, they are saved together and added to the list at once
+            if (!unsaved.isEmpty()) {
+                saveMessages(new ArrayList<>(unsaved));
+                unsaved.clear();
+            }
+        }
+    };
+
+    /**
+     * Open the chat history on historyExecutor and show its newest page, or give up on the activity if it cannot be opened
+     */
+    private void openHistory() {
+        historyExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ChatHistoryThread");
+            }
+        });
+        final File directory = new File(getFilesDir(), HISTORY_DIRECTORY);
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ChatRecord> newest;
+                try {
+                    //the history lives on disk so it survives the activity, opening it may have to repair it
+                    chatHistory = new ChatHistory(directory);
+                    newest = chatHistory.read(Math.max(0, chatHistory.size() - PAGE_SIZE), PAGE_SIZE);
+                } catch (IOException e) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(BluetoothActivity.this, "Could not open the chat history!", Toast.LENGTH_SHORT).show();
+                            finish();
+                        }
+                    });
+                    return;
+                }
+                final long size = chatHistory.size();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        historySize = size;
+                        windowStart = size - newest.size();
+                        chatMessages.addAll(newest);
+                        chatAdapter.notifyItemRangeInserted(0, newest.size());
                     }
-                    break;
-                case MESSAGE_WRITE:
-                    byte[] writeBuf = (byte[]) msg.obj;
+                });
+            }
+        });
+    }
 
-                    String writeMessage = new String(writeBuf);
-                    chatMessages.add("Me: " + writeMessage);
-                    chatAdapter.notifyDataSetChanged();
-                    break;
-                case MESSAGE_READ:
-                    byte[] readBuf = (byte[]) msg.obj;
+    /**
+     * Store messages in the chat history on historyExecutor, then add them to chatMessages if the window holds
+     * the newest messages
+     *
+     * @param messages the messages, in the order they were sent or received
+     */
+    private void saveMessages(final List<NewMessage> messages) {
+        if (historyExecutor.isShutdown()) {
+            releaseReceived(messages);//the activity has been destroyed, events reported before the chatModel stopped are dropped
+            return;
+        }
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                for (NewMessage message : messages) {
+                    PooledCharBuffer received = message.received;
+                    message.received = null;
+                    try {
+                        if (chatHistory == null) {
+                            continue;//it could not be opened and the activity is finishing
+                        }
+                        // a received message is stored straight from the chatModel's buffer
+                        message.index = chatHistory.append(message.outgoing, message.author,
+                                received != null ? received.getBuffer() : message.text, ChatHistory.STATUS_NONE);
+                        if (received != null) {
+                            message.text = received.getBuffer().toString();//for its row
+                        }
+                    } catch (IOException e) {
+                        failed = true;
+                    } finally {
+                        if (received != null) {
+                            received.release();//the buffer goes back to the chatModel's pool once stored
+                        }
+                    }
+                }
+                if (chatHistory == null) {
+                    return;
+                }
+                final boolean showFailure = failed;
+                final long size = chatHistory.size();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (showFailure) {
+                            Toast.makeText(BluetoothActivity.this, "Could not save the message!", Toast.LENGTH_SHORT).show();
+                        }
+                        onMessagesSaved(messages, size);
+                    }
+                });
+            }
+        });
+    }
 
-                    String readMessage = new String(readBuf, 0, msg.arg1);
-                    chatMessages.add(connectingDevice.getName() + ":  " + readMessage);
-                    chatAdapter.notifyDataSetChanged();
-                    break;
-                case MESSAGE_DEVICE_OBJECT:
-                    connectingDevice = msg.getData().getParcelable(DEVICE_OBJECT);
-                    Toast.makeText(getApplicationContext(), "Connected to " + connectingDevice.getName(),
-                            Toast.LENGTH_SHORT).show();
-                    break;
-                case MESSAGE_TOAST:
-                    Toast.makeText(getApplicationContext(), msg.getData().getString("toast"),
-                            Toast.LENGTH_SHORT).show();
-                    break;
+    /**
+     * Give the decoded text of received messages that will never be stored back to the chatModel's pool
+     *
+     * @param messages the messages
+     */
+    private static void releaseReceived(List<NewMessage> messages) {
+        for (NewMessage message : messages) {
+            if (message.received != null) {
+                message.received.release();
+                message.received = null;
+            }
+        }
+    }
+
+    /**
+     * Show messages that have just been stored, if the window follows the newest messages
+     *
+     * @param messages the messages that were stored
+     * @param size     the number of messages in the chat history afterwards
+     */
+    private void onMessagesSaved(List<NewMessage> messages, long size) {
+        boolean following = windowStart + chatMessages.size() == historySize;
+        historySize = size;
+        int shown = chatMessages.size();
+        for (NewMessage message : messages) {
+            message.saved = true;
+            if (following && message.index >= 0) {
+                // the window follows the newest message, the oldest rows make room for it
+                chatMessages.add(new ChatRecord(message.index, message.timeMillis, message.outgoing, message.author,
+                        message.text, message.status));
             }
-            return false;
         }
-    });
+        // only the new rows are bound, however long the window is
+        if (chatMessages.size() > shown) {
+            chatAdapter.notifyItemRangeInserted(shown, chatMessages.size() - shown);
+        }
+        int trimmed = trimOldest();
+        if (trimmed > 0) {
+            chatAdapter.notifyItemRangeRemoved(0, trimmed);
+        }
+    }
+
+    /**
+     * Store the delivery status of one of our messages on historyExecutor, once the message itself has been stored
+     *
+     * @param message the message
+     * @param status  the delivery status
+     */
+    private void saveStatus(final NewMessage message, final int status) {
+        if (historyExecutor.isShutdown()) {
+            return;//the activity has been destroyed, the chat history is closed or about to be
+        }
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // the message was saved by an earlier task on this thread, unless that failed
+                if (chatHistory != null && message.index >= 0) {
+                    chatHistory.setStatus(message.index, status);
+                }
+            }
+        });
+    }
+
+    /**
+     * Read messages from the chat history on historyExecutor
+     *
+     * @param from     the index of the first message to read
+     * @param limit    the most messages to read
+     * @param callback called on the main thread with the messages, or an empty list if they could not be read
+     */
+    private void readHistory(final long from, final int limit, final HistoryCallback callback) {
+        if (historyExecutor.isShutdown()) {
+            return;
+        }
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (chatHistory == null) {
+                    return;//it could not be opened and the activity is finishing
+                }
+                List<ChatRecord> read;
+                boolean failed = false;
+                try {
+                    read = chatHistory.read(from, limit);
+                } catch (IOException e) {
+                    read = new ArrayList<>();
+                    failed = true;
+                }
+                final List<ChatRecord> records = read;
+                final boolean showFailure = failed;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (showFailure) {
+                            Toast.makeText(BluetoothActivity.this, "Could not read the chat history!", Toast.LENGTH_SHORT).show();
+                        }
+                        callback.onRead(records);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Page in the messages before the window, dropping the newest ones if the window gets too big
+     */
+    private void pageOlder() {
+        final long from = Math.max(0, windowStart - PAGE_SIZE);
+        final long start = windowStart;
+        paging = true;
+        readHistory(from, (int) (start - from), new HistoryCallback() {
+            @Override
+            public void onRead(List<ChatRecord> older) {
+                if (older.isEmpty() || windowStart != start) {
+                    paging = false;//nothing there, or the window moved on while the page was read
+                    return;
+                }
+                List<ChatRecord> before = new ArrayList<>(chatMessages);
+                chatMessages.addAll(0, older);
+                windowStart = from;
+                if (chatMessages.size() > WINDOW_SIZE) {
+                    chatMessages.subList(WINDOW_SIZE, chatMessages.size()).clear();
+                }
+                chatAdapter.onWindowShifted(before);
+                paging = false;
+            }
+        });
+    }
+
+    /**
+     * Page in the messages after the window, dropping the oldest ones if the window gets too big
+     */
+    private void pageNewer() {
+        final long from = windowStart + chatMessages.size();
+        paging = true;
+        readHistory(from, PAGE_SIZE, new HistoryCallback() {
+            @Override
+            public void onRead(List<ChatRecord> newer) {
+                if (newer.isEmpty() || windowStart + chatMessages.size() != from) {
+                    paging = false;//nothing there, or the window moved on while the page was read
+                    return;
+                }
+                List<ChatRecord> before = new ArrayList<>(chatMessages);
+                chatMessages.addAll(newer);
+                trimOldest();
+                chatAdapter.onWindowShifted(before);//paging is still set, so the new rows at the bottom don't pull the list down to them
+                paging = false;
+            }
+        });
+    }
+
+    /**
+     * Drop the oldest rows until the window fits in WINDOW_SIZE
+     *
+     * @return the number of rows dropped from the top of the window
+     */
+    private int trimOldest() {
+        int excess = chatMessages.size() - WINDOW_SIZE;
+        if (excess <= 0) {
+            return 0;
+        }
+        chatMessages.subList(0, excess).clear();
+        windowStart += excess;
+        return excess;
+    }
+
+    /**
+     * @return the names of all connected devices separated by commas
+     */
+    private String joinPeerNames() {
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < peerNames.size(); i++) {
+            if (i > 0) {
+                names.append(", ");
+            }
+            names.append(peerNames.valueAt(i));
+        }
+        return names.toString();
+    }
 
     /**
      * Creates a dialog with a list of discovered bluetooth devices.
@@ -274,7 +636,7 @@ public class BluetoothActivity extends AppCompatActivity {
     private void findViewsByIds() {
         status = findViewById(R.id.status);
         btnConnect = findViewById(R.id.btn_connect);
-        listView = findViewById(R.id.list);
+        chatList = findViewById(R.id.list);
         inputField = findViewById(R.id.input_layout);
     }
 
@@ -298,7 +660,9 @@ public class BluetoothActivity extends AppCompatActivity {
         switch (requestCode) {
             case REQUEST_ENABLE_BLUETOOTH:
                 if (resultCode == Activity.RESULT_OK) {
-                    chatModel = new ChatModel(handler);
+                    if (chatModel == null) {
+                        chatModel = new ChatModel(chatListener);
+                    }
                 } else {
                     Toast.makeText(this, "Bluetooth still disabled, turn off application!", Toast.LENGTH_SHORT).show();
                     finish();
@@ -320,15 +684,23 @@ public class BluetoothActivity extends AppCompatActivity {
      * @param message the message to send
      */
     private void sendMessage(String message) {
-        //check to see if the chat model is still connected to another device
-        if (chatModel.getState() != ChatModel.STATE_CONNECTED) {
+        //check to see if anyone is still in the chat, a peer that is reconnecting gets the message once it is back
+        if (chatModel.getPeerIds().length == 0) {
             Toast.makeText(this, "Connection was lost!", Toast.LENGTH_SHORT).show();
             return;
         }
-        //if there is a message to send, then send it
+        //if there is a message to send, then send it to everyone in the chat
         if (message.length() > 0) {
-            byte[] send = message.getBytes();
-            chatModel.write(send);
+            byte[] send = message.getBytes(WIRE_CHARSET);
+            Future<Boolean> sent = chatModel.offer(send);
+            if (sent == null) {
+                Toast.makeText(this, "Still sending, try again in a moment", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            // shown once it is saved, onDelivery() updates the row as the message gets through
+            NewMessage saving = new NewMessage(message);
+            sentRows.put(sent, saving);
+            saveMessages(Collections.singletonList(saving));
         }
     }
 
@@ -339,9 +711,9 @@ public class BluetoothActivity extends AppCompatActivity {
         if (!bluetoothAdapter.isEnabled()) {
             Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
             startActivityForResult(enableIntent, REQUEST_ENABLE_BLUETOOTH);
-        } else {
-            //BT is enabled on the device, so create a new chatModel instance
-            chatModel = new ChatModel(handler);
+        } else if (chatModel == null) {
+            //BT is enabled on the device, so create a chatModel instance, kept until the activity is destroyed so its threads are only started once
+            chatModel = new ChatModel(chatListener);
         }
     }
 
@@ -359,9 +731,28 @@ public class BluetoothActivity extends AppCompatActivity {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        //: if we have a chat model, then stop it
+        //: if we have a chat model, then stop it and its threads for good
         if(chatModel != null){
-            chatModel.stop();
+            chatModel.shutdown();
+        }
+        releaseReceived(unsaved);//taken in by a frame that never finished its batch
+        unsaved.clear();
+        if (historyExecutor != null) {
+            // closed after every message and status that was queued has been saved
+            historyExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (chatHistory == null) {
+                        return;
+                    }
+                    try {
+                        chatHistory.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not save the chat history", e);
+                    }
+                }
+            });
+            historyExecutor.shutdown();
         }
 
     }
@@ -386,4 +777,59 @@ public class BluetoothActivity extends AppCompatActivity {
             }
         }
     };
-}
\ No newline at end of file
+
+    /**
+     * Called on the main thread with messages read from the chat history
+     */
+    private interface HistoryCallback {
+        /**
+         * @param records the messages read, empty if there were none or they could not be read
+         */
+        void onRead(List<ChatRecord> records);
+    }
+
+    /**
+     * A message sent or received that is on its way into the chat history
+     */
+    private static class NewMessage {
+        /** true for a message written on this device */
+        final boolean outgoing;
+        /** the name of the device that wrote a received message, null for an outgoing one */
+        final String author;
+        /** the message text, set on historyExecutor for a received message once it has been stored */
+        String text;
+        /** the decoded text of a received message until it has been stored, only used on historyExecutor after that */
+        PooledCharBuffer received;
+        /** when the message was sent or received, in ms since the epoch */
+        final long timeMillis = System.currentTimeMillis();
+        /** the index in chatHistory, set on historyExecutor when it is saved and read on the main thread once saved is set, -1 if it could not be */
+        long index = -1;
+        /** set on the main thread once the message has been saved, or has failed to be */
+        boolean saved = false;
+        /** the latest delivery status of an outgoing message, only used on the main thread */
+        int status = ChatHistory.STATUS_NONE;
+
+        /**
+         * Constructor for a message written on this device
+         *
+         * @param text the message text
+         */
+        NewMessage(String text) {
+            this.outgoing = true;
+            this.author = null;
+            this.text = text;
+        }
+
+        /**
+         * Constructor for a received message
+         *
+         * @param author   the name of the device that wrote the message
+         * @param received the decoded message text, released once it has been stored
+         */
+        NewMessage(String author, PooledCharBuffer received) {
+            this.outgoing = false;
+            this.author = author;
+            this.received = received;
+        }
+    }
+}
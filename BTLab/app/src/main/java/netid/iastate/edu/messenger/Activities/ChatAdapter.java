@@ -0,0 +1,139 @@
+package netid.iastate.edu.messenger.Activities;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.List;
+
+import netid.iastate.edu.messenger.Models.ChatModel;
+import netid.iastate.edu.messenger.Models.ChatRecord;
+import netid.iastate.edu.messenger.R;
+
+/**
+ * Shows chat messages in a RecyclerView, with one row layout for our messages and one for received ones.
+ * The adapter shows the activity's list of messages as it is rather than a copy, and the activity says which
+ * rows it changed, so appending a batch of messages binds only the new rows. Only a page read in while
+ * scrolling, which shifts the whole window, is diffed against the rows on screen.
+ */
+public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHolder> {
+    /** view type of a message written on this device */
+    private static final int VIEW_TYPE_LOCAL = 0;
+    /** view type of a message received from another device */
+    private static final int VIEW_TYPE_REMOTE = 1;
+
+    /** the messages shown, owned by the activity and only changed on the main thread */
+    private final List<ChatRecord> messages;
+
+    /**
+     * Constructor
+     *
+     * @param messages the messages to show, the adapter must be told of every change made to them
+     */
+    public ChatAdapter(List<ChatRecord> messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Show messages after the window has shifted, the rows that were inserted, removed or changed are
+     * worked out from the rows that were on screen
+     *
+     * @param before a copy of the messages as they were before the window shifted
+     */
+    public void onWindowShifted(final List<ChatRecord> before) {
+        DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return before.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return messages.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return before.get(oldPosition).getIndex() == messages.get(newPosition).getIndex();
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                // the text of a message never changes, only its status
+                return before.get(oldPosition).getStatus() == messages.get(newPosition).getStatus();
+            }
+        }, false).dispatchUpdatesTo(this);
+    }
+
+    @Override
+    public int getItemCount() {
+        return messages.size();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return messages.get(position).isOutgoing() ? VIEW_TYPE_LOCAL : VIEW_TYPE_REMOTE;
+    }
+
+    @Override
+    public MessageViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        int layout = viewType == VIEW_TYPE_LOCAL ? R.layout.item_message_local : R.layout.item_message_remote;
+        return new MessageViewHolder(LayoutInflater.from(parent.getContext()).inflate(layout, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(MessageViewHolder holder, int position) {
+        ChatRecord record = messages.get(position);
+        holder.text.setText(record.getText());
+        if (holder.author != null) {
+            holder.author.setText(record.getAuthor());
+        }
+        if (holder.status != null) {
+            holder.status.setText(deliveryLabel(record.getStatus()));
+        }
+    }
+
+    /**
+     * @param status one of the ChatModel.DELIVERY_ values, or ChatHistory.STATUS_NONE
+     * @return the string resource shown under one of our messages for the status
+     */
+    private static int deliveryLabel(int status) {
+        switch (status) {
+            case ChatModel.DELIVERY_SENT:
+                return R.string.status_sent;
+            case ChatModel.DELIVERY_DELIVERED:
+                return R.string.status_delivered;
+            case ChatModel.DELIVERY_FAILED:
+                return R.string.status_failed;
+            default:
+                return R.string.status_sending;
+        }
+    }
+
+    /**
+     * Holds the views of one message row
+     */
+    static class MessageViewHolder extends RecyclerView.ViewHolder {
+        /** the name of the device that wrote the message, null in a row for our own messages */
+        private final TextView author;
+        /** the message text */
+        private final TextView text;
+        /** how far the message has got, null in a row for received messages */
+        private final TextView status;
+
+        /**
+         * Constructor
+         *
+         * @param itemView the row, inflated from item_message_local or item_message_remote
+         */
+        MessageViewHolder(View itemView) {
+            super(itemView);
+            author = itemView.findViewById(R.id.message_author);
+            text = itemView.findViewById(R.id.message_text);
+            status = itemView.findViewById(R.id.message_status);
+        }
+    }
+}
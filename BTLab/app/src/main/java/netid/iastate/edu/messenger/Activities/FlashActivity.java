@@ -10,35 +10,33 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-
+import netid.iastate.edu.messenger.Interfaces.ColorSchedule;
+import netid.iastate.edu.messenger.Interfaces.PlaybackCallback;
 import netid.iastate.edu.messenger.Interfaces.SensorUpdateCallback;
 import netid.iastate.edu.messenger.Models.FlashModel;
+import netid.iastate.edu.messenger.Models.FlashPlayer;
 import netid.iastate.edu.messenger.R;
 
-public class FlashActivity extends AppCompatActivity implements SensorUpdateCallback {
+public class FlashActivity extends AppCompatActivity implements SensorUpdateCallback, PlaybackCallback {
 
     /** an instance of the FlashModel class so that we can send and decode messages with it */
     private FlashModel flashModel;
 
-    /** initial refresh rate of the handler */
-    private int REFRESH_RATE = -1;
-    /** the handler that gets used every so often to change the display background color for a certain amount of time */
-    private Handler mHandler;
-    /** holds the colors to be displayed/used within the handler */
-    private ArrayList<Integer> encodedMessage = new ArrayList<>();
-    /** used to keep track of the position within the encodedMessage array list */
-    private int messageCounter = 0;
-    /** keeps track of the message encodings received ("DOT", "DASH", "END_CHARACTER") */
-    private ArrayList<String> messageReceived = new ArrayList<>();
-
-    /** used to mark the current system time of a color change */
-    private long rStartTime = 0;
-    /** when a message has been detected as done with its transmission, this is set to true to keep the light sensor from sensing other values that wont matter */
-    private Boolean endOfMessage = false;
+    /** how long the start of message marker is held before the first unit, to give the user time to get the device into position */
+    private static final int LEAD_IN_TIME = 2000;
+    /** shows the encoded message on the activity's background, timing each color change against the display's vsync */
+    private FlashPlayer flashPlayer;
+
+    /** lets the user pick how long one time unit of the encoded message is shown for, in ms */
+    private Spinner unitSpinner;
+    /** lets the user pick how the message is encoded, the position is the FlashSchedule mode */
+    private Spinner modeSpinner;
+    /** shows the shortest unit time this device can receive and the unit of the last received message */
+    private TextView unitInfoTextView;
     /** used to keep track of the activity's linear layout so that the background can be set to different colors when need be */
     private LinearLayout activityLayout;
     /** the textView that is used to display the received message */
@@ -50,8 +48,11 @@ public class FlashActivity extends AppCompatActivity implements SensorUpdateCall
         setContentView(R.layout.activity_flash);
         activityLayout = findViewById(R.id.activity_flash);//gets the layout reference so the background color can be set when need be within changeScreenColor()
         messageReceivedTextView = findViewById(R.id.flashMessage);//gets the textView that is used to display the received message
+        unitSpinner = findViewById(R.id.unitSpinner);//gets the spinner used to choose the sender's unit time
+        modeSpinner = findViewById(R.id.modeSpinner);//gets the spinner used to choose the encoding
+        unitInfoTextView = findViewById(R.id.unitInfo);
 
-        mHandler = new Handler();//initialize the handler that will be used within this class
+        flashPlayer = new FlashPlayer(activityLayout, new Handler(), this);//initialize the player that flashes encoded messages on the background
         flashModel = new FlashModel(this.getApplicationContext(), this);//initialize the flashModel that will be called in this activity
     }
 
@@ -65,6 +66,7 @@ public class FlashActivity extends AppCompatActivity implements SensorUpdateCall
     protected void onPause() {
         super.onPause();
         flashModel.stop();//unregister the light sensor listener
+        flashPlayer.stop();//stop any transmission, the vsync callbacks stop while the activity is hidden
     }
 
     /**
@@ -77,17 +79,12 @@ public class FlashActivity extends AppCompatActivity implements SensorUpdateCall
         String messageToSend = toSend.getText().toString();
         if (!messageToSend.equals("")) {//if the user has entered a message, then go ahead
 
-            //start transmission process
-            messageCounter = 0;
-            REFRESH_RATE = -1;
-
-            // - encode the message and store it in a already defined global variable
-            encodedMessage = flashModel.encodeMessage(messageToSend);
-
+            // - encode the message
+            ColorSchedule encodedMessage = flashModel.encodeMessage(messageToSend, modeSpinner.getSelectedItemPosition());
 
-
-            // - start the handler
-            mHandler.post(startTimer);
+            // - start the transmission, this replaces any transmission that is still running
+            int unitMillis = Integer.parseInt(unitSpinner.getSelectedItem().toString());
+            flashPlayer.play(encodedMessage, unitMillis, LEAD_IN_TIME);
         }
     }
 
@@ -126,54 +123,23 @@ public class FlashActivity extends AppCompatActivity implements SensorUpdateCall
     }
 
     @Override
-    public void update(String value) {
-        // - Finish this method's implementation, Make sure you think about what exactly is suppose to happen in here and how you can make sure it happens
-        //This method is called whenever a new screen color has been sensed, with that information
-        // you can retrieve the screen color pattern seen, the character it represents, and therefore
-        // the character received to be appended to the messageReceivedTextView
-
-        String prevColor = "";
-
-        if (!endOfMessage) {//if the end of the message hasn't yet been detected, then see what color has been sensed from the light sensor
-            // - if value = "RED", initialize the messageReceived arrayList and clear the messageReceivedTextView
-            if(value.equals("RED")){
-                messageReceived = new ArrayList<String>();
-                messageReceivedTextView.setText("");
-                prevColor = "RED";
-                Toast.makeText(getApplicationContext(), "red", Toast.LENGTH_SHORT).show();
-            }
-            // - if value = "BLACK", get the current time and store it into rStartTime
-            if(value.equals("BLACK")){
-                rStartTime = System.currentTimeMillis();
-                prevColor = "BLACK";
-                Toast.makeText(getApplicationContext(), "black", Toast.LENGTH_SHORT).show();
-            }
-            // - if value = "WHITE", find the total time that the screen was black, and add FlashModel.DOT, .DASH, or .END_CHARACTER accordingly to messageReceived arrayList
-            if(value.equals("WHITE")){
-
-                long time = System.currentTimeMillis() - rStartTime;
-                Toast.makeText(getApplicationContext(),"time "+time, Toast.LENGTH_SHORT).show();
-                if (time > 500 && time < 700) {
-                    messageReceived.add(flashModel.DASH);
-                    Toast.makeText(getApplicationContext(),"Dash", Toast.LENGTH_SHORT).show();
-                } else if (time > 200 && time < 450) {
-                    messageReceived.add(flashModel.DOT);
-                    Toast.makeText(getApplicationContext(),"Dot", Toast.LENGTH_SHORT).show();
-                } else if (time > 800 && time < 1000) {
-                    messageReceived.add(flashModel.END_CHARACTER);
-                    char y = flashModel.decodeCharacterPattern(messageReceived);
-                    Toast.makeText(getApplicationContext(),y, Toast.LENGTH_SHORT).show();
-                    messageReceivedTextView.append(Character.toString(y));
-
-
-                }
-
-
-
-            }
+    public void onMessageStarted() {
+        messageReceivedTextView.setText("");//a new message is starting, clear the previous one
+    }
 
-        }
+    @Override
+    public void onCharacterDecoded(char c) {
+        messageReceivedTextView.append(Character.toString(c));
+        showUnitInfo();
+    }
 
+    /**
+     * Show the shortest unit time this device's light sensor can keep up with, so the sender can pick it
+     */
+    private void showUnitInfo() {
+        unitInfoTextView.setText(getString(R.string.format_unit_time,
+                flashModel.getRecommendedUnitMillis(), flashModel.getReceivedUnitMillis()) + "\n"
+                + getString(R.string.format_contrast, flashModel.getContrast(), FlashModel.MIN_MULTI_LEVEL_CONTRAST));
     }
 
     @Override
@@ -182,36 +148,11 @@ public class FlashActivity extends AppCompatActivity implements SensorUpdateCall
         valueText.setText(getString(R.string.format_light_val, value));//displays the current light sensor value on the UI
     }
 
-    /**
-     * Creates a Runnable startTimer to change the screen background color every so often
-     */
-    private Runnable startTimer = new Runnable() {
-        public void run() {
-            changeScreenColor();
-            if (REFRESH_RATE == -1) {
-                //the initial post delayed is longer to give the user time to get the device into position aligned with the other device's light sensor
-                mHandler.postDelayed(this, 2000);
-                REFRESH_RATE = 300;//after the initial post delayed of 2 seconds, set the time that the screen is on for each color to 300ms
-            } else {//enters this if statement every time besides the first time
-                mHandler.postDelayed(this, REFRESH_RATE);
-            }
-        }
-    };
-
-    /**
-     * This method is used for changing the color of the screen.
-     */
-    private void changeScreenColor() {
-        // - iterate through the encodedMessage arrayList using messageCounter as the index.
-        // If the end of encodedMessage arrayList has not been reached, then set the background color to the current messageCounter index and then increment the counter
-        // If the end of encodedMessage arrayList has been reached, then remove callbacks from the handler and reset the REFRESH_RATE to -1
-        if(encodedMessage.size() > messageCounter){
-            activityLayout.setBackgroundColor(encodedMessage.get(messageCounter));
-            messageCounter++;
-        }else {
-            mHandler.removeCallbacks(startTimer);
-            REFRESH_RATE = -1;
-        }
+    @Override
+    public void onPlaybackFinished(FlashPlayer player) {
+        //report how closely the color changes kept to their schedule
+        Toast.makeText(getApplicationContext(), getString(R.string.format_timing_error,
+                player.getMaxErrorMillis(), player.getMeanErrorMillis()), Toast.LENGTH_SHORT).show();
     }
 
     /**
@@ -0,0 +1,49 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This interface is a single stream connection to a remote device, created by a ChatTransport
+ */
+public interface ChatConnection extends Closeable {
+    /**
+     * Open an outgoing connection, blocking until it is established. Connections returned by
+     * ChatServer.accept() are already open and do nothing here.
+     *
+     * @throws IOException if the remote device could not be reached
+     */
+    void connect() throws IOException;
+
+    /**
+     * @return the stream of bytes coming from the remote device
+     * @throws IOException if the connection is not open
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return the stream of bytes going to the remote device
+     * @throws IOException if the connection is not open
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return the transport specific address of the remote device, which can be passed back to ChatTransport.createConnection()
+     */
+    String getRemoteAddress();
+
+    /**
+     * @return a name for the remote device that can be shown to the user
+     */
+    String getRemoteName();
+
+    /**
+     * Close the connection, threads blocked in connect() or on either stream get an IOException
+     *
+     * @throws IOException if the connection could not be closed
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,66 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+import java.util.concurrent.Future;
+
+import netid.iastate.edu.messenger.Models.PooledCharBuffer;
+
+/**
+ * This interface is used by the ChatModel to report what is happening on its connections back to the UI.
+ * Every method is called on the main thread, in the order the events happened. Events are handed over
+ * in batches once per frame, and onBatchFinished() is called after each batch so the screen only needs
+ * to be updated once however many events arrived.
+ */
+public interface ChatEventListener {
+    /**
+     * This method is called when the state of the chat changes
+     *
+     * @param state one of the ChatModel.STATE_ values
+     */
+    void onStateChanged(int state);
+
+    /**
+     * This method is called when a device joins the chat, not when a device that dropped out reconnects
+     *
+     * @param peerId the id the ChatModel gave the device, used by every other event about it
+     * @param name   the name of the device
+     */
+    void onPeerConnected(int peerId, String name);
+
+    /**
+     * This method is called when the ChatModel gives up on reconnecting a device
+     *
+     * @param peerId the id of the device
+     * @param name   the name of the device
+     */
+    void onPeerLost(int peerId, String name);
+
+    /**
+     * This method is called for every chat message received, in the order each peer sent them
+     *
+     * @param peerId the id of the peer the message came from
+     * @param author the name of the device that wrote a relayed message, or null if the peer wrote it
+     * @param text   the decoded message text, which must be released once it has been read
+     */
+    void onMessageReceived(int peerId, String author, PooledCharBuffer text);
+
+    /**
+     * This method is called as one of our messages gets through
+     *
+     * @param message the future ChatModel.offer() returned for the message
+     * @param status  one of the ChatModel.DELIVERY_ values
+     * @param peerId  the id of the peer it was sent to, or ChatModel.ALL_PEERS if it went to every peer
+     */
+    void onDelivery(Future<Boolean> message, int status, int peerId);
+
+    /**
+     * This method is called when the ChatModel has something short to tell the user
+     *
+     * @param text the text to show
+     */
+    void onToast(String text);
+
+    /**
+     * This method is called after every batch of events, once all of them have been handed over
+     */
+    void onBatchFinished();
+}
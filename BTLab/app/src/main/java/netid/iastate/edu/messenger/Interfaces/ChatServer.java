@@ -0,0 +1,25 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This interface is the listening side of a ChatTransport
+ */
+public interface ChatServer extends Closeable {
+    /**
+     * Block until a remote device connects
+     *
+     * @return the open connection to the remote device
+     * @throws IOException if the server fails or is closed while waiting
+     */
+    ChatConnection accept() throws IOException;
+
+    /**
+     * Stop listening, a thread blocked in accept() gets an IOException
+     *
+     * @throws IOException if the server could not be closed
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,32 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+import java.io.IOException;
+
+/**
+ * This interface is what the ChatModel uses to reach other devices. The Bluetooth RFCOMM implementation
+ * is used by the app, the in memory and TCP implementations let the same ChatModel run on a plain JVM.
+ */
+public interface ChatTransport {
+    /**
+     * Start listening for incoming connections
+     *
+     * @return the server that incoming connections are accepted from
+     * @throws IOException if the transport cannot listen
+     */
+    ChatServer listen() throws IOException;
+
+    /**
+     * Create an outgoing connection to the given address. The connection is not opened until
+     * ChatConnection.connect() is called, so that it can be closed from another thread while connecting.
+     *
+     * @param address the transport specific address of the remote device
+     * @return the unopened connection
+     * @throws IOException if the connection cannot be created
+     */
+    ChatConnection createConnection(String address) throws IOException;
+
+    /**
+     * @return a name for this device that can be shown to the users of other devices
+     */
+    String getLocalName();
+}
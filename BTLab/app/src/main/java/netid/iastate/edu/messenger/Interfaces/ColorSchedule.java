@@ -0,0 +1,25 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+/**
+ * This interface is a flash transmission as a sequence of runs, each run being one screen color held for a
+ * whole number of time units. It is read like an iterator: call next() and, while it returns true, show
+ * getColor() for getDurationUnits() units.
+ */
+public interface ColorSchedule {
+    /**
+     * Advance to the next run
+     *
+     * @return true if there is another run, false once the transmission is finished
+     */
+    boolean next();
+
+    /**
+     * @return the screen color of the current run
+     */
+    int getColor();
+
+    /**
+     * @return how many time units the current run lasts
+     */
+    int getDurationUnits();
+}
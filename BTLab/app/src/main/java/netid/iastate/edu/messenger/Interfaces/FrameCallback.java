@@ -0,0 +1,19 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+/**
+ * This interface is used by the FrameDecoder to hand complete chat frames back to the class reading the stream
+ */
+public interface FrameCallback {
+    /**
+     * This method is called once for every complete frame that has been rebuilt from the stream.
+     * The buffer is only valid for the duration of this call, it will be reused for the next frame
+     * so copy out anything that needs to be kept.
+     *
+     * @param type    the type byte of the frame, one of the ChatFrame.TYPE_ values
+     * @param seq     the sequence number of the frame, or ChatFrame.NO_SEQ
+     * @param buffer  the array holding the frame payload
+     * @param offset  the index of the first payload byte within buffer
+     * @param length  the number of payload bytes
+     */
+    void onFrame(byte type, int seq, byte[] buffer, int offset, int length);
+}
@@ -0,0 +1,15 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+import netid.iastate.edu.messenger.Models.FlashPlayer;
+
+/**
+ * This interface is used by the FlashPlayer to tell the FlashActivity when a transmission has finished
+ */
+public interface PlaybackCallback {
+    /**
+     * This method is called on the main thread once the last run of a transmission has been shown for its full duration
+     *
+     * @param player the player that finished, its timing statistics describe the transmission that just ended
+     */
+    void onPlaybackFinished(FlashPlayer player);
+}
@@ -12,7 +12,17 @@ public interface SensorUpdateCallback {
      */
     void onColorSensed(String color);
 
-    void update(String value);
+    /**
+     * This method is called when the start of a new flash message has been received
+     */
+    void onMessageStarted();
+
+    /**
+     * This method is called every time a character of the message being received has been decoded
+     *
+     * @param c the decoded character, or '*' if the received pattern was not a known character
+     */
+    void onCharacterDecoded(char c);
 
     /**
      * This method is used to constantly return the sensed value from the FlashModel to the
@@ -0,0 +1,36 @@
+package netid.iastate.edu.messenger.Interfaces;
+
+import java.io.IOException;
+
+import netid.iastate.edu.messenger.Models.OutgoingFrame;
+import netid.iastate.edu.messenger.Models.WriteRequest;
+
+/**
+ * This interface is used by the FrameWriter to report back on queued writes once they have reached the socket
+ */
+public interface WriteCallback {
+    /**
+     * This method is called after the bytes of a queued request have been written and flushed. For a
+     * request queued on several writers it is called once, by whichever finishes it last, as long as
+     * at least one of them flushed it.
+     *
+     * @param request the request that was sent
+     */
+    void onWritten(WriteRequest request);
+
+    /**
+     * This method is called every time a numbered frame has been flushed, including when it is sent again.
+     * Its request is not completed by the writer, that waits for the peer to acknowledge it.
+     *
+     * @param frame the frame that was sent, its send time has already been updated
+     */
+    void onSent(OutgoingFrame frame);
+
+    /**
+     * This method is called once when the output stream fails. Every request that was still
+     * queued has already been completed as failed when this is called.
+     *
+     * @param e the exception thrown by the output stream
+     */
+    void onWriteFailed(IOException e);
+}
@@ -0,0 +1,143 @@
+package netid.iastate.edu.messenger.Models;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import netid.iastate.edu.messenger.Interfaces.ChatConnection;
+import netid.iastate.edu.messenger.Interfaces.ChatServer;
+import netid.iastate.edu.messenger.Interfaces.ChatTransport;
+
+/**
+ * ChatTransport over insecure Bluetooth RFCOMM sockets, addresses are Bluetooth MAC addresses
+ */
+public class BluetoothTransport implements ChatTransport {
+    private static final String APP_NAME = "388MessengerApp";
+    private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    /** the devices BT adapter used for BT connections */
+    private final BluetoothAdapter bluetoothAdapter;
+
+    /**
+     * Constructor
+     *
+     * @param bluetoothAdapter the device's Bluetooth adapter
+     */
+    public BluetoothTransport(BluetoothAdapter bluetoothAdapter) {
+        this.bluetoothAdapter = bluetoothAdapter;
+    }
+
+    @Override
+    public ChatServer listen() throws IOException {
+        // create a insecure listening BT socket
+        return new BluetoothServer(bluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord(APP_NAME, MY_UUID));
+    }
+
+    @Override
+    public ChatConnection createConnection(String address) throws IOException {
+        BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
+        return new BluetoothConnection(device.createInsecureRfcommSocketToServiceRecord(MY_UUID), device, false);
+    }
+
+    @Override
+    public String getLocalName() {
+        String name = bluetoothAdapter.getName();
+        return name != null ? name : bluetoothAdapter.getAddress();
+    }
+
+    /**
+     * Wraps a listening RFCOMM socket
+     */
+    private class BluetoothServer implements ChatServer {
+        /** the listening bluetooth socket */
+        private final BluetoothServerSocket serverSocket;
+
+        /**
+         * Constructor
+         *
+         * @param serverSocket the listening bluetooth socket
+         */
+        BluetoothServer(BluetoothServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public ChatConnection accept() throws IOException {
+            BluetoothSocket socket = serverSocket.accept();
+            return new BluetoothConnection(socket, socket.getRemoteDevice(), true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Wraps a connected or connecting RFCOMM socket
+     */
+    private class BluetoothConnection implements ChatConnection {
+        /** The bluetooth socket to the remote device */
+        private final BluetoothSocket socket;
+        /** The remote device */
+        private final BluetoothDevice device;
+        /** true once the socket has been connected */
+        private boolean open;
+
+        /**
+         * Constructor
+         *
+         * @param socket the bluetooth socket to the remote device
+         * @param device the remote device
+         * @param open   true if the socket came from accept() and is already connected
+         */
+        BluetoothConnection(BluetoothSocket socket, BluetoothDevice device, boolean open) {
+            this.socket = socket;
+            this.device = device;
+            this.open = open;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (open) {
+                return;
+            }
+            // Always cancel the bluetooth adapter discovery because it will slow down a connection
+            bluetoothAdapter.cancelDiscovery();
+            socket.connect();
+            open = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return device.getAddress();
+        }
+
+        @Override
+        public String getRemoteName() {
+            String name = device.getName();
+            return name != null ? name : device.getAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
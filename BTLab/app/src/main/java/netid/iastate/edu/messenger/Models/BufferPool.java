@@ -0,0 +1,61 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * A fixed ring of equally sized PooledBuffers. The read path takes a buffer with acquire(), fills it and
+ * passes it on, and the consumer releases it once decoded. Buffers are reused in ring order so that once
+ * the pool is warm a read allocates nothing. If every slab is still held by a consumer, or a request is
+ * larger than a slab, a one off buffer is allocated instead so data is never overwritten.
+ */
+public class BufferPool {
+    /** the buffers owned by this pool */
+    private final PooledBuffer[] slabs;
+    /** the size of each slab */
+    private final int slabSize;
+    /** where the next search for a free slab starts, only a hint so it does not need to be synchronized */
+    private int cursor = 0;
+
+    /**
+     * Constructor
+     *
+     * @param slabCount the number of buffers in the ring
+     * @param slabSize  the size of each buffer in bytes
+     */
+    public BufferPool(int slabCount, int slabSize) {
+        this.slabSize = slabSize;
+        slabs = new PooledBuffer[slabCount];
+        for (int i = 0; i < slabCount; i++) {
+            slabs[i] = new PooledBuffer(this, slabSize);
+        }
+    }
+
+    /**
+     * Take a buffer that can hold at least the given number of bytes. The caller owns one reference to it.
+     *
+     * @param minCapacity the number of bytes the caller is going to put into the buffer
+     * @return an empty buffer with a reference count of 1
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        if (minCapacity <= slabSize) {
+            int start = cursor;
+            for (int i = 0; i < slabs.length; i++) {
+                int index = (start + i) % slabs.length;
+                if (slabs[index].tryClaim()) {
+                    cursor = (index + 1) % slabs.length;
+                    return slabs[index];
+                }
+            }
+        }
+
+        // the ring is exhausted or the request is too big, fall back to a one off buffer
+        PooledBuffer buffer = new PooledBuffer(null, Math.max(minCapacity, slabSize));
+        buffer.tryClaim();
+        return buffer;
+    }
+
+    /**
+     * @return the size of each slab in the ring
+     */
+    public int getSlabSize() {
+        return slabSize;
+    }
+}
@@ -0,0 +1,53 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * A fixed ring of equally sized PooledCharBuffers that received messages are decoded into, the char
+ * counterpart of a BufferPool. Once the pool is warm decoding a message allocates nothing. If every slab
+ * is still held by the UI, or a message is longer than a slab, a one off buffer is allocated instead.
+ */
+public class CharBufferPool {
+    /** the buffers owned by this pool */
+    private final PooledCharBuffer[] slabs;
+    /** the number of chars each slab holds */
+    private final int slabSize;
+    /** where the next search for a free slab starts, only a hint so it does not need to be synchronized */
+    private int cursor = 0;
+
+    /**
+     * Constructor
+     *
+     * @param slabCount the number of buffers in the ring
+     * @param slabSize  the number of chars each buffer holds
+     */
+    public CharBufferPool(int slabCount, int slabSize) {
+        this.slabSize = slabSize;
+        slabs = new PooledCharBuffer[slabCount];
+        for (int i = 0; i < slabCount; i++) {
+            slabs[i] = new PooledCharBuffer(slabSize);
+        }
+    }
+
+    /**
+     * Take a buffer that can hold at least the given number of chars
+     *
+     * @param minCapacity the number of chars the caller is going to put into the buffer
+     * @return an empty buffer owned by the caller
+     */
+    public PooledCharBuffer acquire(int minCapacity) {
+        if (minCapacity <= slabSize) {
+            int start = cursor;
+            for (int i = 0; i < slabs.length; i++) {
+                int index = (start + i) % slabs.length;
+                if (slabs[index].tryClaim()) {
+                    cursor = (index + 1) % slabs.length;
+                    return slabs[index];
+                }
+            }
+        }
+
+        // the ring is exhausted or the message is too long, fall back to a one off buffer
+        PooledCharBuffer buffer = new PooledCharBuffer(Math.max(minCapacity, slabSize));
+        buffer.tryClaim();
+        return buffer;
+    }
+}
@@ -0,0 +1,201 @@
+package netid.iastate.edu.messenger.Models;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.Future;
+
+import netid.iastate.edu.messenger.Interfaces.ChatEventListener;
+
+/**
+ * Carries the ChatModel's events from its I/O threads to a ChatEventListener on the main thread without
+ * locks or Handler messages. The events go into a ChatEventQueue, which keeps them in the order they were
+ * reported across threads. The first event after a frame asks the Choreographer for the next one, and that
+ * frame drains the queue and then tells the listener the batch is over. Once detached the listener hears
+ * nothing more, and the text of any message still queued goes back to its pool.
+ */
+public class ChatEventDispatcher implements Choreographer.FrameCallback {
+    /** event type for ChatEventListener.onStateChanged(), arg1 is the state */
+    private static final int EVENT_STATE = 1;
+    /** event type for ChatEventListener.onPeerConnected(), arg1 is the peer id and text the name */
+    private static final int EVENT_PEER_CONNECTED = 2;
+    /** event type for ChatEventListener.onPeerLost(), arg1 is the peer id and text the name */
+    private static final int EVENT_PEER_LOST = 3;
+    /** event type for ChatEventListener.onMessageReceived(), arg1 is the peer id, obj the decoded text and text the author */
+    private static final int EVENT_MESSAGE = 4;
+    /** event type for ChatEventListener.onDelivery(), arg1 is the status, arg2 the peer id and obj the future */
+    private static final int EVENT_DELIVERY = 5;
+    /** event type for ChatEventListener.onToast(), text is the text */
+    private static final int EVENT_TOAST = 6;
+
+    /** where the events are handed over */
+    private final ChatEventListener listener;
+    /** the main thread's vsync callbacks */
+    private final Choreographer choreographer;
+    /** the events reported since the last frame */
+    private final ChatEventQueue queue = new ChatEventQueue();
+    /** set by detach(), from then on events are dropped instead of dispatched */
+    private volatile boolean detached = false;
+
+    /** hands each drained event to the listener */
+    private final ChatEventQueue.EventHandler dispatcher = new ChatEventQueue.EventHandler() {
+        @Override
+        public void onEvent(int type, int arg1, int arg2, Object obj, String text) {
+            dispatch(type, arg1, arg2, obj, text);
+        }
+    };
+
+    /** drops each drained event, giving the text of a message back to its pool */
+    private final ChatEventQueue.EventHandler releaser = new ChatEventQueue.EventHandler() {
+        @Override
+        public void onEvent(int type, int arg1, int arg2, Object obj, String text) {
+            release(obj);
+        }
+    };
+
+    /**
+     * Constructor, must be called on the main thread
+     *
+     * @param listener where the events are handed over, on the main thread
+     */
+    public ChatEventDispatcher(ChatEventListener listener) {
+        this.listener = listener;
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * @param state one of the ChatModel.STATE_ values
+     */
+    public void stateChanged(int state) {
+        report(EVENT_STATE, state, 0, null, null);
+    }
+
+    /**
+     * @param peerId the id of the device that joined the chat
+     * @param name   the name of the device
+     */
+    public void peerConnected(int peerId, String name) {
+        report(EVENT_PEER_CONNECTED, peerId, 0, null, name);
+    }
+
+    /**
+     * @param peerId the id of the device that was given up on
+     * @param name   the name of the device
+     */
+    public void peerLost(int peerId, String name) {
+        report(EVENT_PEER_LOST, peerId, 0, null, name);
+    }
+
+    /**
+     * @param peerId the id of the peer the message came from
+     * @param author the name of the device that wrote a relayed message, or null
+     * @param text   the decoded message text, the listener releases it
+     */
+    public void messageReceived(int peerId, String author, PooledCharBuffer text) {
+        report(EVENT_MESSAGE, peerId, 0, text, author);
+    }
+
+    /**
+     * @param message the future offer() returned for the message
+     * @param status  one of the ChatModel.DELIVERY_ values
+     * @param peerId  the id of the peer it was sent to, or ChatModel.ALL_PEERS
+     */
+    public void delivery(Future<Boolean> message, int status, int peerId) {
+        report(EVENT_DELIVERY, status, peerId, message, null);
+    }
+
+    /**
+     * @param text the text to show the user
+     */
+    public void toast(String text) {
+        report(EVENT_TOAST, 0, 0, null, text);
+    }
+
+    /**
+     * Stop handing events to the listener and drop the ones still queued, must be called on the main thread.
+     * Events reported after this are dropped as well.
+     */
+    public void detach() {
+        detached = true;
+        choreographer.removeFrameCallback(this);
+        queue.drain(releaser);
+    }
+
+    /**
+     * Drain every event reported before this frame started
+     *
+     * @param frameTimeNanos the time the frame started rendering
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (detached) {
+            queue.drain(releaser);//reported while detach() was running
+            return;
+        }
+        if (queue.drain(dispatcher)) {
+            listener.onBatchFinished();
+        }
+    }
+
+    /**
+     * Queue an event and make sure a frame is coming to drain it
+     *
+     * @param type one of the EVENT_ values
+     * @param arg1 the first int argument
+     * @param arg2 the second int argument
+     * @param obj  the object argument
+     * @param text the string argument
+     */
+    private void report(int type, int arg1, int arg2, Object obj, String text) {
+        if (detached) {
+            release(obj);
+            return;
+        }
+        if (queue.report(type, arg1, arg2, obj, text)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Hand one event to the listener
+     *
+     * @param type one of the EVENT_ values
+     * @param arg1 the first int argument
+     * @param arg2 the second int argument
+     * @param obj  the object argument
+     * @param text the string argument
+     */
+    @SuppressWarnings("unchecked")
+    private void dispatch(int type, int arg1, int arg2, Object obj, String text) {
+        switch (type) {
+            case EVENT_STATE:
+                listener.onStateChanged(arg1);
+                break;
+            case EVENT_PEER_CONNECTED:
+                listener.onPeerConnected(arg1, text);
+                break;
+            case EVENT_PEER_LOST:
+                listener.onPeerLost(arg1, text);
+                break;
+            case EVENT_MESSAGE:
+                listener.onMessageReceived(arg1, text, (PooledCharBuffer) obj);
+                break;
+            case EVENT_DELIVERY:
+                listener.onDelivery((Future<Boolean>) obj, arg1, arg2);
+                break;
+            case EVENT_TOAST:
+                listener.onToast(text);
+                break;
+        }
+    }
+
+    /**
+     * Give back what an event that will never be dispatched holds
+     *
+     * @param obj the object argument of the event
+     */
+    private static void release(Object obj) {
+        if (obj instanceof PooledCharBuffer) {
+            ((PooledCharBuffer) obj).release();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carries events from any number of threads to one consumer thread without locks. Every thread that reports
+ * events gets its own single producer, single consumer ring of reusable events, so reporting one is a few
+ * plain field writes and an ordered store, and allocates nothing once the ring exists. Events are numbered as
+ * they are reported and drained across the rings in that order, and a drain stops short of the lowest number
+ * a thread is still in the middle of reporting, so an event never overtakes an earlier one from another
+ * thread. A ring that fills up between drains spills into a queue rather than block the thread reporting,
+ * since that thread may hold a lock the consumer is waiting for.
+ */
+public class ChatEventQueue {
+    /** the number of events each thread can report between two drains before they spill, a power of two */
+    static final int RING_CAPACITY = 256;
+    /** EventRing.reserved while its thread is not reporting an event */
+    private static final long NOT_RESERVED = Long.MAX_VALUE;
+
+    /** every thread's ring, replaced with a copy when a thread adds its ring or the consumer prunes one */
+    private volatile EventRing[] rings = new EventRing[0];
+    /** numbers the events in the order they were reported, so the rings can be drained in that order */
+    private final AtomicLong nextSeq = new AtomicLong();
+    /** set by the first event after a drain and cleared by the next drain, so a burst of events wakes the consumer once */
+    private final AtomicBoolean wakeUpSent = new AtomicBoolean(false);
+
+    /** the calling thread's ring, created the first time the thread reports an event */
+    private final ThreadLocal<EventRing> threadRing = new ThreadLocal<EventRing>() {
+        @Override
+        protected EventRing initialValue() {
+            EventRing ring = new EventRing();
+            addRing(ring);
+            return ring;
+        }
+    };
+
+    /**
+     * Put an event in the calling thread's ring
+     *
+     * @param type the kind of event, passed on as it is
+     * @param arg1 the first int argument
+     * @param arg2 the second int argument
+     * @param obj  the object argument
+     * @param text the string argument
+     * @return true if this is the first event since the last drain, the caller should arrange for the consumer to drain
+     */
+    public boolean report(int type, int arg1, int arg2, Object obj, String text) {
+        EventRing ring = threadRing.get();
+        // no lower than the number the event is about to get, set before it is taken so a drain never misses it
+        ring.reserved.set(nextSeq.get());
+        ChatEvent event = ring.claim();
+        event.type = type;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.obj = obj;
+        event.text = text;
+        event.seq = nextSeq.getAndIncrement();
+        ring.publish(event);
+        ring.reserved.lazySet(NOT_RESERVED);
+        return wakeUpSent.compareAndSet(false, true);
+    }
+
+    /**
+     * Hand every event reported before the drain started to a handler, oldest first, called by the consumer
+     *
+     * @param handler where the events go
+     * @return true if there was at least one event
+     */
+    public boolean drain(EventHandler handler) {
+        // cleared first, so an event reported while draining asks for another drain
+        wakeUpSent.set(false);
+        // read before the rings, a ring added after they are read only gets numbers from end on
+        long end = nextSeq.get();
+        EventRing[] snapshot = rings;
+        for (EventRing ring : snapshot) {
+            // an event still being reported holds back everything after it, its thread asks for the next drain
+            end = Math.min(end, ring.reserved.get());
+        }
+        boolean any = false;
+        while (true) {
+            // the oldest event at the head of any ring, each ring is already in order
+            EventRing oldestRing = null;
+            ChatEvent oldest = null;
+            for (EventRing ring : snapshot) {
+                ChatEvent head = ring.peek();
+                if (head != null && head.seq < end && (oldest == null || head.seq < oldest.seq)) {
+                    oldest = head;
+                    oldestRing = ring;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            handler.onEvent(oldest.type, oldest.arg1, oldest.arg2, oldest.obj, oldest.text);
+            oldestRing.remove(oldest);
+            any = true;
+        }
+        pruneRings(snapshot);
+        return any;
+    }
+
+    /**
+     * Add a thread's ring, called by the thread the first time it reports an event
+     *
+     * @param ring the new ring
+     */
+    private synchronized void addRing(EventRing ring) {
+        EventRing[] bigger = Arrays.copyOf(rings, rings.length + 1);
+        bigger[rings.length] = ring;
+        rings = bigger;
+    }
+
+    /**
+     * Forget the rings of threads that have exited, once they are empty
+     *
+     * @param snapshot the rings as the drain read them
+     */
+    private void pruneRings(EventRing[] snapshot) {
+        for (EventRing ring : snapshot) {
+            if (!ring.owner.isAlive() && ring.peek() == null) {
+                removeRing(ring);
+            }
+        }
+    }
+
+    /**
+     * Remove the ring of a thread that has exited, called by the consumer
+     *
+     * @param ring the ring
+     */
+    private synchronized void removeRing(EventRing ring) {
+        EventRing[] current = rings;
+        EventRing[] smaller = new EventRing[current.length - 1];
+        int n = 0;
+        for (EventRing r : current) {
+            if (r != ring) {
+                smaller[n++] = r;
+            }
+        }
+        rings = smaller;
+    }
+
+    /**
+     * @return the number of threads that have a ring, threads that have exited lose theirs once it is drained
+     */
+    int getRingCount() {
+        return rings.length;
+    }
+
+    /**
+     * Takes the events out of a drain
+     */
+    public interface EventHandler {
+        /**
+         * @param type the kind of event, as it was reported
+         * @param arg1 the first int argument
+         * @param arg2 the second int argument
+         * @param obj  the object argument
+         * @param text the string argument
+         */
+        void onEvent(int type, int arg1, int arg2, Object obj, String text);
+    }
+
+    /**
+     * One reported event, the fields are written by the reporting thread before the event is published and only read by the consumer after
+     */
+    private static class ChatEvent {
+        /** the kind of event */
+        int type;
+        /** the order the event was reported in */
+        long seq;
+        /** the first int argument */
+        int arg1;
+        /** the second int argument */
+        int arg2;
+        /** the object argument */
+        Object obj;
+        /** the string argument */
+        String text;
+    }
+
+    /**
+     * A single producer, single consumer ring of reusable events, written by one thread and drained by the
+     * consumer. Once the ring is full events spill into a queue, and keep spilling until the queue has been
+     * drained, so everything in the ring is always older than everything in the queue.
+     */
+    private static class EventRing {
+        /** the thread reporting into this ring */
+        final Thread owner = Thread.currentThread();
+        /** no higher than the number of the event the owner is reporting, or NOT_RESERVED between events */
+        final AtomicLong reserved = new AtomicLong(NOT_RESERVED);
+        /** the reusable events */
+        private final ChatEvent[] slots = new ChatEvent[RING_CAPACITY];
+        /** events reported while the ring was full, allocated one by one */
+        private final ConcurrentLinkedQueue<ChatEvent> spilled = new ConcurrentLinkedQueue<>();
+        /** the number of events ever published to the ring, only written by the owner */
+        private final AtomicLong tail = new AtomicLong();
+        /** the number of events ever removed from the ring, only written by the consumer */
+        private final AtomicLong head = new AtomicLong();
+        /** the owner's last look at head, so a ring with room does not read the consumer's counter */
+        private long cachedHead = 0;
+        /** set by claim() when the event it returned goes to the spill queue, only used by the owner */
+        private boolean spilling = false;
+
+        /**
+         * Constructor
+         */
+        EventRing() {
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new ChatEvent();
+            }
+        }
+
+        /**
+         * Get an event to fill in, called by the owner
+         *
+         * @return the next free slot, or a new event if the ring is full or has spilled
+         */
+        ChatEvent claim() {
+            long t = tail.get();
+            spilling = !spilled.isEmpty()
+                    || (t - cachedHead == slots.length && t - (cachedHead = head.get()) == slots.length);
+            return spilling ? new ChatEvent() : slots[(int) t & (slots.length - 1)];
+        }
+
+        /**
+         * Make the event returned by claim() visible to the consumer, called by the owner
+         *
+         * @param event the filled in event
+         */
+        void publish(ChatEvent event) {
+            if (spilling) {
+                spilled.add(event);
+            } else {
+                // an ordered store, the consumer sees the event's fields before it sees the new tail
+                tail.lazySet(tail.get() + 1);
+            }
+        }
+
+        /**
+         * @return the oldest event, or null if there is none, called by the consumer
+         */
+        ChatEvent peek() {
+            long h = head.get();
+            if (h != tail.get()) {
+                return slots[(int) h & (slots.length - 1)];
+            }
+            return spilled.peek();
+        }
+
+        /**
+         * Remove the event returned by peek() and let the owner reuse its slot, called by the consumer
+         *
+         * @param event the event
+         */
+        void remove(ChatEvent event) {
+            event.obj = null;
+            event.text = null;
+            long h = head.get();
+            if (h != tail.get() && slots[(int) h & (slots.length - 1)] == event) {
+                head.lazySet(h + 1);
+            } else {
+                spilled.poll();
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * Describes the wire format used between two ChatModels. Every frame is laid out as
+ * [payload length, 4 bytes big endian][type, 1 byte][sequence number, 4 bytes big endian][payload], so a
+ * reader can always tell where one message ends and the next one starts no matter how the stream was
+ * split up by the socket. Chat messages are numbered per peer so they can be acknowledged and resent
+ * after a reconnect, control frames carry NO_SEQ.
+ * The payload of a TYPE_BROADCAST frame starts with [message id, 8 bytes big endian][hop count, 1 byte]
+ * [origin name length, 1 byte][origin name, UTF-8] in front of the message text.
+ * Devices that both advertise FEATURE_DEFLATE in their HELLOs may compress chat message payloads, which
+ * is marked by TYPE_FLAG_DEFLATED in the type byte, HELLOs and ACKs are never compressed.
+ */
+public final class ChatFrame {
+    /** number of bytes used by the length prefix */
+    public static final int LENGTH_FIELD_SIZE = 4;
+    /** number of bytes used by the sequence number */
+    public static final int SEQ_FIELD_SIZE = 4;
+    /** number of bytes in front of the payload, the length prefix, the type byte and the sequence number */
+    public static final int HEADER_LENGTH = LENGTH_FIELD_SIZE + 1 + SEQ_FIELD_SIZE;
+    /** the largest payload a peer is allowed to send, anything bigger is treated as a corrupt stream */
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024;
+
+    /** frame type for a chat message, the payload is the message text */
+    public static final byte TYPE_TEXT = 1;
+    /** frame type for a chat message to everyone, relayed from peer to peer, the payload is a broadcast header and the message text */
+    public static final byte TYPE_BROADCAST = 2;
+    /** frame type sent first on every connection, the payload is the sender's random device id, 4 bytes big endian, a resume flag byte and a features byte */
+    public static final byte TYPE_HELLO = 3;
+    /** frame type acknowledging chat messages, the payload is the highest sequence number received in order, 4 bytes big endian,
+     * optionally followed by a count byte and that many selective acknowledgement blocks */
+    public static final byte TYPE_ACK = 4;
+    /** set in the type byte of a chat message whose payload was compressed with the sender's FrameDeflater */
+    public static final byte TYPE_FLAG_DEFLATED = (byte) 0x80;
+    /** the bits of the type byte that hold the frame type */
+    public static final byte TYPE_MASK = 0x7F;
+
+    /** the sequence number of a frame that is not numbered, chat messages never use it */
+    public static final int NO_SEQ = 0;
+    /** the length of a HELLO payload without the features byte, which older versions do not send */
+    public static final int HELLO_LENGTH = 5;
+    /** where the resume flag is in a HELLO payload, 1 if the sender still has the link from an earlier connection to the receiver */
+    public static final int HELLO_RESUME_OFFSET = 4;
+    /** where the features byte is in a HELLO payload, the FEATURE_ bits the sender can receive */
+    public static final int HELLO_FEATURES_OFFSET = 5;
+    /** feature bit saying the sender can inflate payloads marked with TYPE_FLAG_DEFLATED */
+    public static final int FEATURE_DEFLATE = 0x01;
+    /** the length of an ACK payload without selective acknowledgements */
+    public static final int ACK_LENGTH = 4;
+    /** where the number of selective acknowledgement blocks is in an ACK payload */
+    public static final int ACK_SACK_COUNT_OFFSET = 4;
+    /** the length of a selective acknowledgement block, the first and last sequence number of a run of frames received ahead of a gap */
+    public static final int SACK_BLOCK_LENGTH = 8;
+    /** the most selective acknowledgement blocks in one ACK */
+    public static final int MAX_SACK_BLOCKS = 4;
+
+    /** where the message id starts in a broadcast payload, the origin device's random id is its top half and the origin's message counter the bottom half */
+    public static final int MESSAGE_ID_OFFSET = 0;
+    /** where the number of times the message has been relayed is in a broadcast payload */
+    public static final int HOPS_OFFSET = 8;
+    /** where the length of the origin device's name is in a broadcast payload */
+    public static final int NAME_LENGTH_OFFSET = 9;
+    /** where the origin device's name starts in a broadcast payload */
+    public static final int NAME_OFFSET = 10;
+    /** the longest origin name that fits in a broadcast header, in bytes */
+    public static final int MAX_NAME_LENGTH = 0xFF;
+
+    private ChatFrame() {
+    }
+
+    /**
+     * Get the number of bytes a frame takes on the wire
+     *
+     * @param payloadLength the number of payload bytes
+     * @return the header plus payload length
+     */
+    public static int encodedLength(int payloadLength) {
+        return HEADER_LENGTH + payloadLength;
+    }
+
+    /**
+     * Write a frame header into the given array
+     *
+     * @param dst           the array to write into
+     * @param offset        where the header should start within dst
+     * @param type          one of the TYPE_ values
+     * @param seq           the sequence number of the frame, or NO_SEQ
+     * @param payloadLength the number of payload bytes that will follow the header
+     * @return the index just past the header
+     */
+    public static int writeHeader(byte[] dst, int offset, byte type, int seq, int payloadLength) {
+        writeInt(dst, offset, payloadLength);
+        dst[offset + LENGTH_FIELD_SIZE] = type;
+        writeInt(dst, offset + LENGTH_FIELD_SIZE + 1, seq);
+        return offset + HEADER_LENGTH;
+    }
+
+    /**
+     * Read the payload length out of a frame header
+     *
+     * @param src    the array holding the header
+     * @param offset where the header starts within src
+     * @return the payload length stored in the header
+     */
+    public static int readPayloadLength(byte[] src, int offset) {
+        return readInt(src, offset);
+    }
+
+    /**
+     * Read the sequence number out of a frame header
+     *
+     * @param src    the array holding the header
+     * @param offset where the header starts within src
+     * @return the sequence number, or NO_SEQ
+     */
+    public static int readSeq(byte[] src, int offset) {
+        return readInt(src, offset + LENGTH_FIELD_SIZE + 1);
+    }
+
+    /**
+     * Write a 4 byte big endian int
+     *
+     * @param dst    the array to write into
+     * @param offset where the int should start within dst
+     * @param value  the value to write
+     */
+    public static void writeInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Read a 4 byte big endian int
+     *
+     * @param src    the array holding the int
+     * @param offset where the int starts within src
+     * @return the value
+     */
+    public static int readInt(byte[] src, int offset) {
+        return ((src[offset] & 0xFF) << 24)
+                | ((src[offset + 1] & 0xFF) << 16)
+                | ((src[offset + 2] & 0xFF) << 8)
+                | (src[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Read the type byte out of a frame header
+     *
+     * @param src    the array holding the header
+     * @param offset where the header starts within src
+     * @return the frame type
+     */
+    public static byte readType(byte[] src, int offset) {
+        return src[offset + LENGTH_FIELD_SIZE];
+    }
+
+    /**
+     * Write a broadcast header into the given array, the message text goes right after it
+     *
+     * @param dst       the array to write into
+     * @param offset    where the payload should start within dst
+     * @param messageId the id of the message, unique across every device in the chat
+     * @param hops      the number of times the message has been relayed
+     * @param name      the origin device's name as UTF-8, at most MAX_NAME_LENGTH bytes
+     * @return the index just past the header
+     */
+    public static int writeBroadcastHeader(byte[] dst, int offset, long messageId, int hops, byte[] name) {
+        for (int i = 0; i < 8; i++) {
+            dst[offset + MESSAGE_ID_OFFSET + i] = (byte) (messageId >>> (56 - 8 * i));
+        }
+        dst[offset + HOPS_OFFSET] = (byte) hops;
+        dst[offset + NAME_LENGTH_OFFSET] = (byte) name.length;
+        System.arraycopy(name, 0, dst, offset + NAME_OFFSET, name.length);
+        return offset + NAME_OFFSET + name.length;
+    }
+
+    /**
+     * Read the message id out of a broadcast payload
+     *
+     * @param src    the array holding the payload
+     * @param offset where the payload starts within src
+     * @return the message id
+     */
+    public static long readMessageId(byte[] src, int offset) {
+        long id = 0;
+        for (int i = 0; i < 8; i++) {
+            id = (id << 8) | (src[offset + MESSAGE_ID_OFFSET + i] & 0xFF);
+        }
+        return id;
+    }
+
+    /**
+     * Read the hop count out of a broadcast payload
+     *
+     * @param src    the array holding the payload
+     * @param offset where the payload starts within src
+     * @return the number of times the message has been relayed
+     */
+    public static int readHops(byte[] src, int offset) {
+        return src[offset + HOPS_OFFSET] & 0xFF;
+    }
+
+    /**
+     * Find the message text in a broadcast payload
+     *
+     * @param src    the array holding the payload
+     * @param offset where the payload starts within src
+     * @return the index of the first byte of the message text, relative to offset
+     */
+    public static int broadcastTextOffset(byte[] src, int offset) {
+        return NAME_OFFSET + (src[offset + NAME_LENGTH_OFFSET] & 0xFF);
+    }
+
+    /**
+     * Build a complete frame around the given payload
+     *
+     * @param type    one of the TYPE_ values
+     * @param payload the array holding the payload
+     * @param offset  the index of the first payload byte
+     * @param length  the number of payload bytes
+     * @return a new array holding the header followed by the payload
+     */
+    public static byte[] encode(byte type, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[encodedLength(length)];
+        int start = writeHeader(frame, 0, type, NO_SEQ, length);
+        System.arraycopy(payload, offset, frame, start, length);
+        return frame;
+    }
+}
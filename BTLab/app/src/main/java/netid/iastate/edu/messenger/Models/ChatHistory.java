@@ -0,0 +1,644 @@
+package netid.iastate.edu.messenger.Models;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps every chat message on disk, so the history outlives the activity and only the messages on
+ * screen need to be on the heap. Messages are appended to a log split into segment files of up to
+ * SEGMENT_SIZE bytes, each record laid out as [body length, 4 bytes][CRC32 of the body, 4 bytes]
+ * [time, 8 bytes][outgoing flag, 1 byte][author length, 1 byte][author, UTF-8][text, UTF-8].
+ * A memory mapped index file holds a fixed size entry per message, so a page of history is found
+ * without scanning the log, and the records of a page are read back with one read per segment.
+ * Writes go to the page cache straight away and are forced to disk in batches by a background thread,
+ * so a crash loses at most the last SYNC_DELAY_MILLIS of messages. Reopening the history checks the
+ * end of the log against the index and repairs whichever one got further. Thread safe.
+ */
+public class ChatHistory implements Closeable {
+    /** the status of a received message, or an outgoing one nothing has been heard about yet */
+    public static final int STATUS_NONE = 0;
+
+    /** tag used for logging */
+    private static final String TAG = "ChatHistory";
+    /** a new segment is started rather than let one grow past this many bytes */
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    /** the name every segment file ends with, in front of it is the segment number */
+    private static final String SEGMENT_SUFFIX = ".log";
+    /** the name of the index file */
+    private static final String INDEX_NAME = "index";
+    /** number of bytes in front of a record body, its length and its checksum */
+    private static final int RECORD_HEADER_LENGTH = 8;
+    /** number of bytes in a record body in front of the author, the time, the outgoing flag and the author length */
+    private static final int BODY_FIXED_LENGTH = 10;
+    /** the longest author name stored, in bytes */
+    private static final int MAX_AUTHOR_LENGTH = 0xFF;
+    /** number of bytes at the start of the index file, the number of messages, 8 bytes */
+    private static final int INDEX_HEADER_LENGTH = 8;
+    /** number of bytes in an index entry, [record position, 8 bytes][record length, 4 bytes][status, 4 bytes] */
+    private static final int INDEX_ENTRY_LENGTH = 16;
+    /** where the record length is in an index entry */
+    private static final int ENTRY_LENGTH_OFFSET = 8;
+    /** where the status is in an index entry */
+    private static final int ENTRY_STATUS_OFFSET = 12;
+    /** the number of entries the index file starts out with room for, it doubles whenever it fills up */
+    private static final int INITIAL_INDEX_ENTRIES = 4096;
+    /** the number of unsynced changes that makes the background thread sync straight away */
+    private static final int SYNC_BATCH = 16;
+    /** the longest a change waits to be synced, in ms */
+    private static final long SYNC_DELAY_MILLIS = 1000;
+    /** the character set messages are stored in */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** the directory holding the segments and the index */
+    private final File directory;
+    /** the index file, kept open so it can be mapped again when it grows */
+    private final RandomAccessFile indexFile;
+    /** forces batches of changes to disk off the caller's thread */
+    private final ScheduledThreadPoolExecutor syncExecutor;
+    /** the index file mapped into memory */
+    private MappedByteBuffer index;
+    /** the number of messages in the history */
+    private long count = 0;
+    /** the number of the segment being appended to */
+    private int segment = 0;
+    /** the segment being appended to, open for reading and writing */
+    private FileChannel log;
+    /** the number of bytes in the segment being appended to */
+    private long logLength = 0;
+    /** the number of changes since the last sync */
+    private int unsynced = 0;
+    /** encodes the author and text of every appended message */
+    private final CharsetEncoder encoder = UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** every appended record is built in here, grown when a record does not fit */
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    /** checksums every appended record */
+    private final CRC32 crc = new CRC32();
+    /** set once close() has been called */
+    private boolean closed = false;
+
+    /**
+     * Forces everything written so far to disk, run on the sync thread
+     */
+    private final Runnable syncTask = new Runnable() {
+        @Override
+        public void run() {
+            FileChannel channel;
+            MappedByteBuffer mapped;
+            synchronized (ChatHistory.this) {
+                if (closed || unsynced == 0) {
+                    return;
+                }
+                unsynced = 0;
+                channel = log;
+                mapped = index;
+            }
+            // outside the lock so appends carry on while the disk catches up, the log first so the index never points past it for long
+            try {
+                channel.force(false);
+                mapped.force();
+            } catch (ClosedChannelException e) {
+                // the segment was finished or the history closed, which synced it
+            } catch (IOException e) {
+                Log.e(TAG, "Could not sync the chat history", e);
+            }
+        }
+    };
+
+    /**
+     * Open the history in the given directory, creating it if it does not exist yet
+     *
+     * @param directory the directory holding the history
+     * @throws IOException if the history cannot be opened
+     */
+    public ChatHistory(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        indexFile = new RandomAccessFile(new File(directory, INDEX_NAME), "rw");
+        mapIndex(Math.max(indexFile.length(), INDEX_HEADER_LENGTH + (long) INITIAL_INDEX_ENTRIES * INDEX_ENTRY_LENGTH));
+        try {
+            recover();
+        } catch (IOException e) {
+            if (log != null) {
+                log.close();
+            }
+            indexFile.close();
+            throw e;
+        }
+
+        syncExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ChatHistorySync");
+            }
+        });
+        syncExecutor.setKeepAliveTime(SYNC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        syncExecutor.allowCoreThreadTimeOut(true);
+        syncExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * @return the number of messages in the history
+     */
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * Add a message to the end of the history
+     *
+     * @param outgoing true for a message written on this device
+     * @param author   the name of the device that wrote a received message, null or empty for an outgoing one
+     * @param text     the message text, a CharBuffer is read from its position to its limit and left as it was
+     * @param status   the delivery status of the message, STATUS_NONE for a received one
+     * @return the index of the message in the history
+     * @throws IOException if the message could not be written
+     */
+    public synchronized long append(boolean outgoing, CharSequence author, CharSequence text, int status) throws IOException {
+        if (closed) {
+            throw new IOException("Chat history is closed");
+        }
+        // the record is encoded straight into the reused buffer, the header and the lengths filled in afterwards
+        record.clear();
+        int authorStart = RECORD_HEADER_LENGTH + BODY_FIXED_LENGTH;
+        record.position(authorStart);
+        if (author != null) {
+            encode(author);
+        }
+        int authorLength = Math.min(record.position() - authorStart, MAX_AUTHOR_LENGTH);
+        record.position(authorStart + authorLength);
+        encode(text);
+        int bodyLength = record.position() - RECORD_HEADER_LENGTH;
+
+        record.putInt(0, bodyLength).putInt(4, 0)
+                .putLong(RECORD_HEADER_LENGTH, System.currentTimeMillis())
+                .put(RECORD_HEADER_LENGTH + 8, (byte) (outgoing ? 1 : 0))
+                .put(RECORD_HEADER_LENGTH + 9, (byte) authorLength);
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER_LENGTH, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        if (logLength > 0 && logLength + record.remaining() > SEGMENT_SIZE) {
+            startSegment(segment + 1);
+        }
+        long position = position(segment, logLength);
+        int length = record.remaining();
+        while (record.hasRemaining()) {
+            log.write(record, logLength + record.position());
+        }
+        logLength += length;
+        addEntry(position, length, status);
+        changed();
+        return count - 1;
+    }
+
+    /**
+     * Encode chars as UTF-8 onto the end of the record buffer, growing it if they do not fit
+     *
+     * @param chars the chars to encode
+     */
+    private void encode(CharSequence chars) {
+        CharBuffer in;
+        int start = 0;
+        if (chars instanceof CharBuffer) {
+            // read in place, and put back where it was afterwards
+            in = (CharBuffer) chars;
+            start = in.position();
+        } else {
+            in = CharBuffer.wrap(chars);
+        }
+        encoder.reset();
+        while (encoder.encode(in, record, true).isOverflow()) {
+            growRecord();
+        }
+        while (encoder.flush(record).isOverflow()) {
+            growRecord();
+        }
+        if (in == chars) {
+            in.position(start);
+        }
+    }
+
+    /**
+     * Double the size of the record buffer, keeping what has been put in it so far
+     */
+    private void growRecord() {
+        ByteBuffer bigger = ByteBuffer.allocate(record.capacity() * 2);
+        record.flip();
+        bigger.put(record);
+        record = bigger;
+    }
+
+    /**
+     * Update the delivery status of a message in place
+     *
+     * @param index  the index of the message
+     * @param status one of the ChatModel.DELIVERY_ values
+     */
+    public synchronized void setStatus(long index, int status) {
+        if (closed || index < 0 || index >= count) {
+            return;
+        }
+        this.index.putInt(entry(index) + ENTRY_STATUS_OFFSET, status);
+        changed();
+    }
+
+    /**
+     * Read a page of messages
+     *
+     * @param from  the index of the first message to read
+     * @param limit the most messages to read
+     * @return the messages from index from on, fewer than limit if the history ends first
+     * @throws IOException if the messages could not be read
+     */
+    public synchronized List<ChatRecord> read(long from, int limit) throws IOException {
+        if (closed) {
+            throw new IOException("Chat history is closed");
+        }
+        long end = Math.min(count, from + limit);
+        ArrayList<ChatRecord> records = new ArrayList<>((int) Math.max(0, end - from));
+        long i = Math.max(0, from);
+        while (i < end) {
+            // the records of one segment lie back to back, so they are read in one go
+            long first = getPosition(i);
+            int firstSegment = segmentOf(first);
+            long last = i + 1;
+            while (last < end && segmentOf(getPosition(last)) == firstSegment) {
+                last++;
+            }
+            long endOffset = offsetOf(getPosition(last - 1)) + getLength(last - 1);
+            ByteBuffer bytes = readSegment(firstSegment, offsetOf(first), (int) (endOffset - offsetOf(first)));
+            if (bytes == null) {
+                throw new IOException("Chat history segment " + firstSegment + " is missing");
+            }
+            for (long k = i; k < last; k++) {
+                int start = (int) (offsetOf(getPosition(k)) - offsetOf(first));
+                ChatRecord record = decode(k, bytes.array(), start, getLength(k));
+                if (record == null) {
+                    throw new IOException("Chat history record " + k + " is corrupt");
+                }
+                records.add(record);
+            }
+            i = last;
+        }
+        return records;
+    }
+
+    /**
+     * Sync everything to disk and close the files, the history cannot be used afterwards
+     *
+     * @throws IOException if the files could not be synced or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // not shutdownNow(), interrupting a sync in progress would close the channels under it
+        syncExecutor.shutdown();
+        try {
+            log.force(false);
+            index.force();
+        } finally {
+            log.close();
+            indexFile.close();
+        }
+    }
+
+    /**
+     * Count a change and have it synced, straight away once a batch has built up
+     */
+    private void changed() {
+        unsynced++;
+        if (unsynced == 1) {
+            syncExecutor.schedule(syncTask, SYNC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (unsynced == SYNC_BATCH) {
+            syncExecutor.execute(syncTask);
+        }
+    }
+
+    /**
+     * Bring the index and the log back in line after the history was last closed, or the app was killed
+     *
+     * @throws IOException if the files could not be read or repaired
+     */
+    private void recover() throws IOException {
+        long stored = index.getLong(0);
+        count = stored >= 0 && stored <= capacity() ? stored : 0;
+        // the index may have reached the disk ahead of the log, drop the entries whose records did not
+        while (count > 0 && readRecord(count - 1) == null) {
+            count--;
+        }
+
+        // and the log ahead of the index, index the records that did
+        long end = count > 0 ? getPosition(count - 1) + getLength(count - 1) : 0;
+        int current = segmentOf(end);
+        long offset = offsetOf(end);
+        while (true) {
+            startSegment(current);
+            offset = indexSegment(offset);
+            if (offset < log.size() || !segmentFile(current + 1).exists()) {
+                break;
+            }
+            current++;
+            offset = 0;
+        }
+        // anything after the last whole record was cut off part way through
+        log.truncate(offset);
+        logLength = offset;
+        deleteSegmentsAfter(current);
+        index.putLong(0, count);
+    }
+
+    /**
+     * Add an index entry for every whole record in the current segment from the given offset on
+     *
+     * @param offset where the first record to index starts
+     * @return the offset just past the last whole record
+     * @throws IOException if the segment could not be read
+     */
+    private long indexSegment(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        long size = log.size();
+        while (size - offset >= RECORD_HEADER_LENGTH) {
+            header.clear();
+            readFully(log, header, offset);
+            int length = RECORD_HEADER_LENGTH + header.getInt(0);
+            if (length < RECORD_HEADER_LENGTH + BODY_FIXED_LENGTH || length > size - offset) {
+                break;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(length);
+            readFully(log, bytes, offset);
+            if (decode(count, bytes.array(), 0, length) == null) {
+                break;
+            }
+            addEntry(position(segment, offset), length, STATUS_NONE);
+            offset += length;
+        }
+        return offset;
+    }
+
+    /**
+     * Close the current segment, if there is one, and open the given one for appending
+     *
+     * @param number the segment number
+     * @throws IOException if the segment could not be opened
+     */
+    private void startSegment(int number) throws IOException {
+        if (log != null) {
+            // a finished segment is never written again, so it only needs syncing once
+            log.force(false);
+            log.close();
+        }
+        log = new RandomAccessFile(segmentFile(number), "rw").getChannel();
+        segment = number;
+        logLength = log.size();
+    }
+
+    /**
+     * Delete the segments after the given one, left behind by a crash while a segment was being started
+     *
+     * @param number the last segment to keep
+     */
+    private void deleteSegmentsAfter(int number) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                if (Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) > number && !file.delete()) {
+                    Log.e(TAG, "Could not delete " + file);
+                }
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+    }
+
+    /**
+     * Read a whole record and check it
+     *
+     * @param i the index of the message
+     * @return the message, or null if its record is missing, cut short or corrupt
+     * @throws IOException if the segment could not be read
+     */
+    private ChatRecord readRecord(long i) throws IOException {
+        long position = getPosition(i);
+        int length = getLength(i);
+        if (length < RECORD_HEADER_LENGTH + BODY_FIXED_LENGTH) {
+            return null;
+        }
+        ByteBuffer bytes = readSegment(segmentOf(position), offsetOf(position), length);
+        return bytes != null ? decode(i, bytes.array(), 0, length) : null;
+    }
+
+    /**
+     * Read bytes out of a segment
+     *
+     * @param number the segment number
+     * @param offset where to start reading
+     * @param length the number of bytes to read
+     * @return the bytes, or null if the segment does not exist or ends first
+     * @throws IOException if the segment could not be read
+     */
+    private ByteBuffer readSegment(int number, long offset, int length) throws IOException {
+        if (log != null && number == segment) {
+            if (offset + length > log.size()) {
+                return null;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(length);
+            readFully(log, bytes, offset);
+            return bytes;
+        }
+        File file = segmentFile(number);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile segmentFile = new RandomAccessFile(file, "r");
+        try {
+            if (offset + length > segmentFile.length()) {
+                return null;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(length);
+            readFully(segmentFile.getChannel(), bytes, offset);
+            return bytes;
+        } finally {
+            segmentFile.close();
+        }
+    }
+
+    /**
+     * Turn a record back into a message
+     *
+     * @param i      the index of the message
+     * @param src    the array holding the record
+     * @param offset where the record starts within src
+     * @param length the length of the record, header included
+     * @return the message, or null if the record does not add up
+     */
+    private ChatRecord decode(long i, byte[] src, int offset, int length) {
+        ByteBuffer fields = ByteBuffer.wrap(src, offset, length);
+        int bodyLength = fields.getInt();
+        int checksum = fields.getInt();
+        if (bodyLength != length - RECORD_HEADER_LENGTH || bodyLength < BODY_FIXED_LENGTH) {
+            return null;
+        }
+        int body = offset + RECORD_HEADER_LENGTH;
+        CRC32 crc = new CRC32();
+        crc.update(src, body, bodyLength);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        long timeMillis = fields.getLong();
+        boolean outgoing = fields.get() != 0;
+        int authorLength = fields.get() & 0xFF;
+        if (BODY_FIXED_LENGTH + authorLength > bodyLength) {
+            return null;
+        }
+        String author = new String(src, body + BODY_FIXED_LENGTH, authorLength, UTF_8);
+        int textStart = body + BODY_FIXED_LENGTH + authorLength;
+        String text = new String(src, textStart, body + bodyLength - textStart, UTF_8);
+        int status = i < count ? index.getInt(entry(i) + ENTRY_STATUS_OFFSET) : STATUS_NONE;
+        return new ChatRecord(i, timeMillis, outgoing, author, text, status);
+    }
+
+    /**
+     * Add an entry to the end of the index, mapping a bigger index file if it is full
+     *
+     * @param position the position of the record in the log
+     * @param length   the length of the record, header included
+     * @param status   the delivery status of the message
+     * @throws IOException if the index could not be grown
+     */
+    private void addEntry(long position, int length, int status) throws IOException {
+        if (count == capacity()) {
+            mapIndex(INDEX_HEADER_LENGTH + 2 * capacity() * INDEX_ENTRY_LENGTH);
+        }
+        int entry = entry(count);
+        index.putLong(entry, position);
+        index.putInt(entry + ENTRY_LENGTH_OFFSET, length);
+        index.putInt(entry + ENTRY_STATUS_OFFSET, status);
+        count++;
+        index.putLong(0, count);
+    }
+
+    /**
+     * Map the index file, growing it to the given size
+     *
+     * @param size the number of bytes to map
+     * @throws IOException if the file could not be mapped
+     */
+    private void mapIndex(long size) throws IOException {
+        index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * @return the number of entries the mapped index has room for
+     */
+    private long capacity() {
+        return (index.capacity() - INDEX_HEADER_LENGTH) / INDEX_ENTRY_LENGTH;
+    }
+
+    /**
+     * @param i the index of a message
+     * @return where its entry starts in the index file
+     */
+    private static int entry(long i) {
+        return (int) (INDEX_HEADER_LENGTH + i * INDEX_ENTRY_LENGTH);
+    }
+
+    /**
+     * @param i the index of a message
+     * @return the position of its record in the log
+     */
+    private long getPosition(long i) {
+        return index.getLong(entry(i));
+    }
+
+    /**
+     * @param i the index of a message
+     * @return the length of its record, header included
+     */
+    private int getLength(long i) {
+        return index.getInt(entry(i) + ENTRY_LENGTH_OFFSET);
+    }
+
+    /**
+     * @param number the segment number
+     * @return the file holding the segment
+     */
+    private File segmentFile(int number) {
+        return new File(directory, String.format(Locale.US, "%010d", number) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @param number the segment number
+     * @param offset the offset within the segment
+     * @return the position in the log, the segment number in the top half and the offset in the bottom half
+     */
+    private static long position(int number, long offset) {
+        return ((long) number << 32) | offset;
+    }
+
+    /**
+     * @param position a position in the log
+     * @return the segment number
+     */
+    private static int segmentOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    /**
+     * @param position a position in the log
+     * @return the offset within the segment
+     */
+    private static long offsetOf(long position) {
+        return position & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Fill the buffer from the channel
+     *
+     * @param channel  the channel to read
+     * @param dst      the buffer to fill
+     * @param position where in the channel to start reading
+     * @throws IOException if the channel ends first or could not be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -2,36 +2,120 @@ package netid.iastate.edu.messenger.Models;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
-import android.content.Context;
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.UUID;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import netid.iastate.edu.messenger.Activities.BluetoothActivity;
+import netid.iastate.edu.messenger.Interfaces.ChatConnection;
+import netid.iastate.edu.messenger.Interfaces.ChatEventListener;
+import netid.iastate.edu.messenger.Interfaces.ChatServer;
+import netid.iastate.edu.messenger.Interfaces.ChatTransport;
+import netid.iastate.edu.messenger.Interfaces.FrameCallback;
+import netid.iastate.edu.messenger.Interfaces.WriteCallback;
 
 import static android.content.ContentValues.TAG;
 
 public class ChatModel {
-    private static final String APP_NAME = "388MessengerApp";
-    private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-
-    private final BluetoothAdapter bluetoothAdapter;
-    /** this is assigned from a passed in handler from the activity class so callbacks to the UI can occur */
-    private final Handler handler;
-    /** thread used for accepting BT connections on */
-    private AcceptThread acceptThread;
-    /** thread used for connecting to other BT devices on */
-    private ConnectThread connectThread;
-    /** thread used for communicating with other BT devices on */
-    private ReadWriteThread connectedThread;
+    /** the most connections a Bluetooth radio keeps open at once, so the most peers a ChatModel talks to */
+    public static final int MAX_PEERS = 7;
+    /** the peer id given with onDelivery() for a message that went to every peer */
+    public static final int ALL_PEERS = -1;
+    /** the most times a message to everyone is relayed, so it cannot circle forever if the seen cache forgets it */
+    public static final int MAX_HOPS = 8;
+    /** the default number of messages to one peer that may be in flight before waiting for an acknowledgement */
+    public static final int DEFAULT_SEND_WINDOW = 32;
+
+    /** delivery status given with onDelivery() when one of our messages is first flushed to a socket */
+    public static final int DELIVERY_SENT = 1;
+    /** delivery status given with onDelivery() when every peer has acknowledged one of our messages */
+    public static final int DELIVERY_DELIVERED = 2;
+    /** delivery status given with onDelivery() when one of our messages could not be delivered to every peer */
+    public static final int DELIVERY_FAILED = 3;
+
+    /** number of receive buffers that can be held for reordering or relaying at once before reads start allocating */
+    private static final int RECEIVE_POOL_SLABS = 32;
+    /** size of each receive buffer, typed chat messages fit well within this */
+    private static final int RECEIVE_SLAB_SIZE = 1024;
+    /** number of decoded messages that can be waiting on the UI at once before decoding starts allocating */
+    private static final int TEXT_POOL_SLABS = 32;
+    /** number of chars in each text buffer, typed chat messages fit well within this */
+    private static final int TEXT_SLAB_SIZE = 1024;
+    /** number of relayed authors' names each connection remembers, a power of two well above MAX_PEERS */
+    private static final int AUTHOR_CACHE_SLOTS = 16;
+    /** number of messages that can be waiting to be acknowledged by one peer before offer() starts refusing new ones */
+    private static final int SEND_QUEUE_CAPACITY = 64;
+    /** number of frames a writer can hold, every unacknowledged message plus room for HELLOs and ACKs */
+    private static final int WRITER_QUEUE_CAPACITY = 2 * SEND_QUEUE_CAPACITY;
+    /** threads that only ever run writer drain tasks, every other I/O thread is held by a blocking accept, connect or read */
+    private static final int WRITER_THREADS = 2;
+    /** one thread accepting connections, one per peer session and the writer threads */
+    private static final int IO_THREADS = 1 + MAX_PEERS + WRITER_THREADS;
+    /** how long an idle I/O thread is kept before it exits */
+    private static final long IO_THREAD_KEEP_ALIVE_SECONDS = 30;
+    /** threads that run the redial, resume and retransmission timers, which never block */
+    private static final int TIMER_THREADS = 1;
+    /** the most message ids remembered for duplicate suppression */
+    private static final int SEEN_CACHE_CAPACITY = 1024;
+    /** how long a message id is remembered, far longer than a message takes to cross MAX_HOPS links */
+    private static final long SEEN_TTL_NANOS = TimeUnit.MINUTES.toNanos(2);
+    /** how device names are encoded in broadcast headers */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** the average wait before the first redial of a dropped peer, short so a radio dropout is bridged quickly */
+    private static final long REDIAL_BASE_MILLIS = 100;
+    /** the longest average wait between redials */
+    private static final long REDIAL_MAX_MILLIS = 5000;
+    /** redials made before giving up on a peer, about 16 seconds of trying with the waits above */
+    private static final int MAX_REDIALS = 8;
+    /** how long a peer that dialed us is kept after its connection drops, longer than it keeps redialing */
+    private static final long RESUME_TIMEOUT_MILLIS = 30000;
+    /** retransmission timeouts in a row, each twice as long as the last, after which the connection is treated as dead */
+    private static final int MAX_TIMEOUTS = 4;
+
+    /** how connections to other devices are made, Bluetooth RFCOMM in the app */
+    private final ChatTransport transport;
+    /** hands events over to the listener passed in from the activity class, so callbacks to the UI can occur */
+    private final ChatEventDispatcher events;
+    /** buffers that received frames are copied into while they wait for an earlier frame or are relayed on */
+    private final BufferPool receivePool = new BufferPool(RECEIVE_POOL_SLABS, RECEIVE_SLAB_SIZE);
+    /** buffers that received messages are decoded into before being handed to the UI, which releases them */
+    private final CharBufferPool textPool = new CharBufferPool(TEXT_POOL_SLABS, TEXT_SLAB_SIZE);
+    /** runs all of the blocking socket work, bounded so many peers never mean many threads */
+    private final ScheduledThreadPoolExecutor ioExecutor;
+    /** runs the timers, apart from ioExecutor so writes stalled on a dead link cannot hold up the timers that detect it */
+    private final ScheduledThreadPoolExecutor timerExecutor;
+    /** every connection that is being made or is open, at most MAX_PEERS */
+    private final ArrayList<PeerSession> sessions = new ArrayList<>();
+    /** every device in the chat, connected or being reconnected, at most MAX_PEERS */
+    private final ArrayList<Peer> peers = new ArrayList<>();
+    /** ids of the broadcasts already delivered and relayed, guarded by itself since every session's reader uses it */
+    private final SeenCache seenCache = new SeenCache(SEEN_CACHE_CAPACITY, SEEN_TTL_NANOS);
+    /** random id of this device, sent in every HELLO and the top half of the ids of its broadcasts */
+    private final int originId;
+    /** counts this device's broadcasts, the bottom half of their ids */
+    private final AtomicInteger messageCounter = new AtomicInteger();
+    /** this device's name as put in the header of its broadcasts */
+    private final byte[] localName;
+    /** spreads out redials so peers that dropped together don't all redial at the same moment */
+    private final Random jitter = new Random();
+    /** the most messages to one peer in flight at once */
+    private volatile int sendWindow = DEFAULT_SEND_WINDOW;
+    /** task accepting incoming connections, null while not listening */
+    private AcceptTask acceptTask;
+    /** the id given to the next peer */
+    private int nextPeerId = 0;
     /** the state of the bluetooth connection from the static values below */
     private int state;
 
@@ -39,21 +123,59 @@ public class ChatModel {
     public static final int STATE_NONE = 0;
     /** this state is for when the chatModel is looking for devices to connect with */
     public static final int STATE_LISTEN = 1;
-    /** this state is for when the chatModel has started initializing a connection with another BT device */
+    /** this state is for when the chatModel is connecting or reconnecting to other BT devices and none are connected */
     public static final int STATE_CONNECTING = 2;
-    /** this state is for when the chatModel has established a connection with another BT device */
+    /** this state is for when the chatModel has established a connection with at least one other BT device */
     public static final int STATE_CONNECTED = 3;
 
     /**
-     * Constructor
+     * Constructor, chats over Bluetooth using the device's default adapter
      *
-     * @param handler passed in from the activity class to be called when certain events happen, so the UI can be updated appropriately
+     * @param listener passed in from the activity class to be called when certain events happen, so the UI can be updated appropriately
      */
-    public ChatModel(Handler handler) {
-        bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    public ChatModel(ChatEventListener listener) {
+        this(listener, new BluetoothTransport(BluetoothAdapter.getDefaultAdapter()));
+    }
+
+    /**
+     * Constructor, must be called on the main thread, which the listener is called on
+     *
+     * @param listener  passed in from the activity class to be called when certain events happen, so the UI can be updated appropriately
+     * @param transport how connections to other devices are made
+     */
+    public ChatModel(ChatEventListener listener, ChatTransport transport) {
+        this.transport = transport;
         state = STATE_NONE;
 
-        this.handler = handler;
+        this.events = new ChatEventDispatcher(listener);
+
+        originId = new SecureRandom().nextInt();
+        byte[] name = String.valueOf(transport.getLocalName()).getBytes(UTF_8);
+        localName = Arrays.copyOf(name, Math.min(name.length, ChatFrame.MAX_NAME_LENGTH));
+
+        ioExecutor = new ScheduledThreadPoolExecutor(IO_THREADS, new ThreadFactory() {
+            /** number of threads created so far, used to name them */
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ChatIoThread-" + count.incrementAndGet());
+            }
+        });
+        ioExecutor.setKeepAliveTime(IO_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        ioExecutor.allowCoreThreadTimeOut(true);
+        // a session winding down after shutdown() may still hand work over, there is nothing left to do it for
+        ioExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+
+        timerExecutor = new ScheduledThreadPoolExecutor(TIMER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ChatTimerThread");
+            }
+        });
+        timerExecutor.setKeepAliveTime(IO_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timerExecutor.allowCoreThreadTimeOut(true);
+        timerExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
     }
 
     /**
@@ -64,7 +186,24 @@ public class ChatModel {
     private synchronized void setState(int state) {
         this.state = state;
 
-        handler.obtainMessage(BluetoothActivity.MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
+        events.stateChanged(state);
+    }
+
+    /**
+     * Work out the state from the peers, sessions and whether connections are being accepted, and send it to the UI
+     */
+    private synchronized void updateState() {
+        for (int i = 0; i < peers.size(); i++) {
+            if (peers.get(i).isConnected()) {
+                setState(STATE_CONNECTED);
+                return;
+            }
+        }
+        if (!peers.isEmpty() || !sessions.isEmpty()) {
+            setState(STATE_CONNECTING);
+        } else {
+            setState(acceptTask != null ? STATE_LISTEN : STATE_NONE);
+        }
     }
 
     /**
@@ -76,208 +215,719 @@ public class ChatModel {
     }
 
     /**
-     * start service
+     * start listening for incoming connections, sessions that are already open are kept
      */
     public synchronized void start() {
-        // Cancel any thread
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
-        }
-
-        // Cancel any running threads
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
-        }
-
-        setState(STATE_LISTEN);
-        if (acceptThread == null) {
-            acceptThread = new AcceptThread();
-            acceptThread.start();
+        if (acceptTask == null) {
+            acceptTask = new AcceptTask();
+            ioExecutor.execute(acceptTask);
         }
+        updateState();
     }
 
     /**
      * initiate connection to remote device
      * @param device the device to connect this chat session to
      */
-    public synchronized void connect(BluetoothDevice device) {
-        // Cancel any thread
-        if (state == STATE_CONNECTING) {
-            if (connectThread != null) {
-                connectThread.cancel();
-                connectThread = null;
+    public void connect(BluetoothDevice device) {
+        connect(device.getAddress());
+    }
+
+    /**
+     * initiate connection to remote device, connections to other devices are kept
+     * @param address the transport address of the device to connect this chat session to
+     */
+    public synchronized void connect(String address) {
+        for (int i = 0; i < sessions.size(); i++) {
+            if (address.equals(sessions.get(i).getDialAddress())) {
+                return;//already connecting to it
             }
         }
-
-        // Cancel running thread
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+        for (int i = 0; i < peers.size(); i++) {
+            if (address.equals(peers.get(i).address)) {
+                return;//already connected to it, or redialing it
+            }
+        }
+        if (sessions.size() >= MAX_PEERS || peers.size() >= MAX_PEERS) {
+            sendToast("Already connected to " + MAX_PEERS + " devices");
+            return;
         }
 
-        // Start the thread to connect with the given device
-        connectThread = new ConnectThread(device);
-        connectThread.start();
-        setState(STATE_CONNECTING);
+        // Start the session, it connects on one of the I/O threads
+        PeerSession session = new PeerSession(address, null);
+        sessions.add(session);
+        ioExecutor.execute(session);
+        updateState();
     }
 
     /**
-     * manage Bluetooth connection
+     * Tie a session that has just received the remote device's HELLO to its peer. A peer seen before keeps
+     * its link, so the messages it has not acknowledged can be resumed, unless either side has lost track of it.
      *
-     * @param socket the bluetooth socket for chat communications
-     * @param device the remote bluetooth device
+     * @param session    the session that received the HELLO
+     * @param nodeId     the random id of the remote device
+     * @param peerResume true if the remote device is resuming the link it already has with this device
+     * @return the peer, or null if the session should be closed
      */
-    public synchronized void connected(BluetoothSocket socket, BluetoothDevice device) {
-        // Cancel the thread
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
+    private synchronized Peer bind(PeerSession session, int nodeId, boolean peerResume) {
+        if (!sessions.contains(session)) {
+            return null;//cancelled while connecting
+        }
+        Peer redialFor = session.getRedialFor();
+        if (redialFor != null && redialFor.nodeId != nodeId && peers.contains(redialFor)) {
+            abandon(redialFor);//the app on the other end was restarted, there is nothing left to resume
         }
 
-        // Cancel running thread
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+        Peer peer = null;
+        for (int i = 0; i < peers.size(); i++) {
+            if (peers.get(i).nodeId == nodeId) {
+                peer = peers.get(i);
+            }
+        }
+        boolean isNew = peer == null;
+        if (isNew) {
+            if (peers.size() >= MAX_PEERS) {
+                return null;
+            }
+            peer = new Peer(nextPeerId++, nodeId, session.getRemoteName());
+            peers.add(peer);
+        } else if (peer.session != null) {
+            // the remote device noticed the dropout first and has already come back on a new connection
+            peer.session.cancel();
+        }
+        session.linkKept = !isNew && peerResume;
+        if (!session.linkKept) {
+            synchronized (peer.link) {
+                peer.link.reset();
+            }
+        }
+        if (session.getDialAddress() != null) {
+            peer.address = session.getDialAddress();
+        }
+        peer.session = session;
+        peer.redials = 0;
+
+        if (isNew) {
+            // Send the id and name of the connected device back to the UI Activity
+            events.peerConnected(peer.id, peer.name);
+        }
+        return peer;
+    }
+
+    /**
+     * stop all connections and stop listening, messages that have not been acknowledged are failed
+     */
+    public synchronized void stop() {
+        if (acceptTask != null) {
+            acceptTask.cancel();
+            acceptTask = null;
         }
 
-        if (acceptThread != null) {
-            acceptThread.cancel();
-            acceptThread = null;
+        for (int i = 0; i < sessions.size(); i++) {
+            sessions.get(i).cancel();
+        }
+        sessions.clear();
+        for (int i = 0; i < peers.size(); i++) {
+            peers.get(i).failUnacked();
         }
+        peers.clear();
+        setState(STATE_NONE);
+    }
 
-        // Start the thread to manage the connection and perform transmissions
-        connectedThread = new ReadWriteThread(socket);
-        connectedThread.start();
+    /**
+     * stop the chat like stop() and shut down its threads, pending redials, resume timeouts and retransmissions are
+     * cancelled and the listener hears nothing more, the ChatModel can't be started again. Must be called on the main thread.
+     */
+    public void shutdown() {
+        stop();
+        timerExecutor.shutdownNow();
+        ioExecutor.shutdownNow();
+        events.detach();//the events stop() just reported are dropped along with any still on their way
+    }
 
-        // Send the name of the connected device back to the UI Activity
-        Message msg = handler.obtainMessage(BluetoothActivity.MESSAGE_DEVICE_OBJECT);
-        Bundle bundle = new Bundle();
-        bundle.putParcelable(BluetoothActivity.DEVICE_OBJECT, device);
-        msg.setData(bundle);
-        handler.sendMessage(msg);
+    /**
+     * @return the ids of the peers in the chat, including ones being reconnected, the id of a peer is given with every message from it
+     */
+    public synchronized int[] getPeerIds() {
+        int[] ids = new int[peers.size()];
+        for (int i = 0; i < peers.size(); i++) {
+            ids[i] = peers.get(i).id;
+        }
+        return ids;
+    }
 
-        setState(STATE_CONNECTED);
+    /**
+     * @param peerId the id of a peer
+     * @return the name of the peer's device, or null if the peer is not in the chat
+     */
+    public synchronized String getPeerName(int peerId) {
+        Peer peer = findPeer(peerId);
+        return peer != null ? peer.name : null;
     }
 
     /**
-     * stop all threads
+     * Queue a byte array to be sent to everyone in the chat. It goes to every peer, which relays it on to theirs,
+     * and a peer that is being reconnected gets it once it is back. This never blocks, the bytes are written on
+     * the I/O threads and the UI is sent onDelivery() with the future when they are first sent and again
+     * once every peer has acknowledged them or one has been given up on.
+     *
+     * @param out the byte array to send
+     * @return a future that completes with true once every peer has acknowledged the bytes or false if any of the
+     * peers is given up on first, or null if there is no peer or every peer has too many unacknowledged messages
      */
-    public synchronized void stop() {
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
+    public Future<Boolean> offer(byte[] out) {
+        Peer[] targets;
+        synchronized (this) {
+            targets = peersExcept(null);
+        }
+        if (targets.length == 0) {
+            return null;
+        }
+
+        // remember our own id so the copies relayed back to us are dropped
+        long messageId = ((long) originId << 32) | (messageCounter.incrementAndGet() & 0xFFFFFFFFL);
+        markSeen(messageId);
+        byte[] payload = new byte[ChatFrame.NAME_OFFSET + localName.length + out.length];
+        int start = ChatFrame.writeBroadcastHeader(payload, 0, messageId, 0, localName);
+        System.arraycopy(out, 0, payload, start, out.length);
+
+        WriteRequest request = new WriteRequest(ChatFrame.TYPE_BROADCAST, payload, targets.length);
+        int refused = 0;
+        for (Peer target : targets) {
+            if (!target.send(request)) {
+                refused++;
+            }
         }
+        if (refused == targets.length) {
+            // the caller is told by the null, so there is nothing to report
+            for (int i = 0; i < refused; i++) {
+                request.complete(false);
+            }
+            return null;
+        }
+        for (int i = 0; i < refused; i++) {
+            finishCopy(request, false, ALL_PEERS);
+        }
+        return request;
+    }
 
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+    /**
+     * Queue a byte array to be sent to one peer, it is not relayed any further. This never blocks, the bytes
+     * are written on the I/O threads and the UI is sent onDelivery() with the future when they are sent and
+     * again once the peer has acknowledged them or been given up on.
+     *
+     * @param peerId the id of the peer to send to
+     * @param out    the byte array to send, must not be modified afterwards
+     * @return a future that completes with true once the peer has acknowledged the bytes or false if the peer
+     * is given up on first, or null if the peer is not in the chat or has too many unacknowledged messages
+     */
+    public Future<Boolean> offer(int peerId, byte[] out) {
+        Peer peer;
+        synchronized (this) {
+            peer = findPeer(peerId);
+        }
+        if (peer == null) {
+            return null;
+        }
+        WriteRequest request = new WriteRequest(ChatFrame.TYPE_TEXT, out);
+        if (!peer.send(request)) {
+            request.complete(false);
+            return null;
         }
+        return request;
+    }
 
-        if (acceptThread != null) {
-            acceptThread.cancel();
-            acceptThread = null;
+    /**
+     * Set how many messages to one peer may be in flight before waiting for an acknowledgement. A larger
+     * window keeps a link with a long round trip busy, a smaller one keeps less data in the socket buffers.
+     *
+     * @param frames the number of messages, from 1 to the number of messages that may wait for a peer
+     */
+    public void setSendWindow(int frames) {
+        sendWindow = frames;
+        Peer[] targets;
+        synchronized (this) {
+            targets = peersExcept(null);
+        }
+        for (Peer target : targets) {
+            synchronized (target.link) {
+                target.link.setWindow(frames);
+                target.pump();
+            }
         }
-        setState(STATE_NONE);
     }
 
     /**
-     * Send byte array to the connected bluetooth device
+     * Send byte array to everyone in the chat, the message is dropped where it cannot be queued
      *
      * @param out the byte array to send
      */
     public void write(byte[] out) {
-        ReadWriteThread r;
+        offer(out);
+    }
+
+    /**
+     * @param peerId the id of a peer
+     * @return the peer, or null if there is none
+     */
+    private Peer findPeer(int peerId) {
+        for (int i = 0; i < peers.size(); i++) {
+            if (peers.get(i).id == peerId) {
+                return peers.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param except a peer to leave out, or null
+     * @return the peers in the chat
+     */
+    private Peer[] peersExcept(Peer except) {
+        ArrayList<Peer> targets = new ArrayList<>(peers.size());
+        for (int i = 0; i < peers.size(); i++) {
+            if (peers.get(i) != except) {
+                targets.add(peers.get(i));
+            }
+        }
+        return targets.toArray(new Peer[targets.size()]);
+    }
+
+    /**
+     * Record a broadcast as seen
+     *
+     * @param messageId the id of the broadcast
+     * @return true the first time an id is seen, false for a duplicate
+     */
+    private boolean markSeen(long messageId) {
+        synchronized (seenCache) {
+            return seenCache.add(messageId, System.nanoTime());
+        }
+    }
+
+    /**
+     * Pass a received broadcast on to every other peer. The peers' links share the received bytes, the
+     * request holding a reference to the buffer until every peer has acknowledged it.
+     *
+     * @param payload the broadcast payload with the hop count already incremented
+     * @param from    the peer it was received from, which already has it
+     */
+    private void relay(PooledBuffer payload, Peer from) {
+        Peer[] targets;
         synchronized (this) {
-            if (state != STATE_CONNECTED)
-                return;
-            r = connectedThread;
+            targets = peersExcept(from);
+        }
+        if (targets.length == 0) {
+            return;
+        }
+        WriteRequest request = new WriteRequest(ChatFrame.TYPE_BROADCAST, payload.retain(), targets.length);
+        for (Peer target : targets) {
+            if (!target.send(request)) {
+                finishCopy(request, false, target.id);
+            }
         }
-        r.write(out);
     }
 
     /**
-     * This function is called when a bluetooth connection fails. It notifies the user of the problem.
+     * Finish one peer's copy of a message, and tell the UI once every copy has finished if it was one of ours
+     *
+     * @param request   the message
+     * @param delivered true if the peer acknowledged it
+     * @param peerId    the id of the peer
      */
-    private void connectionFailed() {
-        Message msg = handler.obtainMessage(BluetoothActivity.MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString("toast", "Unable to connect device");
-        msg.setData(bundle);
-        handler.sendMessage(msg);
+    private void finishCopy(WriteRequest request, boolean delivered, int peerId) {
+        if (request.complete(delivered) && isOwn(request)) {
+            boolean all = request.getCopiesSent() == request.getCopies();
+            reportDelivery(request, all ? DELIVERY_DELIVERED : DELIVERY_FAILED, peerId);
+        }
+    }
 
-        // Start the service over to restart listening mode
-        ChatModel.this.start();
+    /**
+     * @param request a message being sent
+     * @return true if it was written on this device, false if it is being relayed for another one
+     */
+    private boolean isOwn(WriteRequest request) {
+        return request.getType() != ChatFrame.TYPE_BROADCAST
+                || (int) (ChatFrame.readMessageId(request.getPayload(), 0) >>> 32) == originId;
+    }
+
+    /**
+     * Tell the UI how one of our messages is getting on, the UI finds it by the future offer() returned
+     *
+     * @param request the message
+     * @param status  one of the DELIVERY_ values
+     * @param peerId  the id of the peer it was sent to
+     */
+    private void reportDelivery(WriteRequest request, int status, int peerId) {
+        events.delivery(request, status, request.getCopies() > 1 ? ALL_PEERS : peerId);
+    }
+
+    /**
+     * Dial a dropped peer again after a random wait that doubles with every try, or give up on it after
+     * MAX_REDIALS tries. Must be called holding the ChatModel's lock.
+     *
+     * @param peer the peer to redial
+     */
+    private void scheduleRedial(final Peer peer) {
+        if (!peers.contains(peer)) {
+            return;
+        }
+        if (peer.redials >= MAX_REDIALS) {
+            abandon(peer);
+            return;
+        }
+        long wait = Math.min(REDIAL_MAX_MILLIS, REDIAL_BASE_MILLIS << peer.redials);
+        wait = wait / 2 + (long) (jitter.nextDouble() * wait);//anywhere from half to one and a half times the wait
+        peer.redials++;
+        timerExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                redial(peer);
+            }
+        }, wait, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start a session to a dropped peer, unless it has come back or been given up on in the meantime
+     *
+     * @param peer the peer to redial
+     */
+    private synchronized void redial(Peer peer) {
+        if (!peers.contains(peer) || peer.session != null) {
+            return;
+        }
+        if (sessions.size() >= MAX_PEERS) {
+            scheduleRedial(peer);
+            return;
+        }
+        PeerSession session = new PeerSession(peer.address, peer);
+        sessions.add(session);
+        ioExecutor.execute(session);
+    }
+
+    /**
+     * Keep a dropped peer that dialed us for RESUME_TIMEOUT_MILLIS, it is up to the peer to redial. Must be
+     * called holding the ChatModel's lock.
+     *
+     * @param peer the peer that dropped
+     */
+    private void awaitResume(final Peer peer) {
+        final int drop = ++peer.drops;
+        timerExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ChatModel.this) {
+                    if (peers.contains(peer) && peer.session == null && peer.drops == drop) {
+                        abandon(peer);
+                        updateState();
+                    }
+                }
+            }
+        }, RESUME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Give up on a peer, its unacknowledged messages are failed. Must be called holding the ChatModel's lock.
+     *
+     * @param peer the peer
+     */
+    private void abandon(Peer peer) {
+        peers.remove(peer);
+        peer.failUnacked();
+
+        events.peerLost(peer.id, peer.name);
+        sendToast("Device connection was lost");
     }
 
     /**
-     * This function is called when a bluetooth connection is list. It notifies the user of the event.
+     * Show a short message to the user
+     *
+     * @param text the message
      */
-    private void connectionLost() {
-        Message msg = handler.obtainMessage(BluetoothActivity.MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString("toast", "Device connection was lost");
-        msg.setData(bundle);
-        handler.sendMessage(msg);
+    private void sendToast(String text) {
+        events.toast(text);
+    }
 
-        // Start the service over to restart listening mode
+    /**
+     * This function is called when a bluetooth connection fails. A failed redial is tried again later,
+     * otherwise it notifies the user of the problem.
+     *
+     * @param session the session that could not connect
+     */
+    private void connectionFailed(PeerSession session) {
+        synchronized (this) {
+            if (!sessions.remove(session)) {
+                return;//cancelled, not failed
+            }
+            if (session.getRedialFor() != null) {
+                scheduleRedial(session.getRedialFor());
+                updateState();
+                return;
+            }
+        }
+        sendToast("Unable to connect device");
+
+        // Make sure the service is still listening
         ChatModel.this.start();
     }
 
     /**
-     * runs while listening for incoming connections
+     * This function is called when a bluetooth connection is lost. The peer is kept so its session can be
+     * resumed: a peer we dialed is redialed, and a peer that dialed us is given time to come back.
+     *
+     * @param session the session whose connection was lost
+     */
+    private synchronized void connectionLost(PeerSession session) {
+        if (!sessions.remove(session)) {
+            return;//cancelled, not lost
+        }
+        Peer peer = session.getPeer();
+        if (peer == null) {
+            // lost before the HELLO, so there is only a peer to go back to if this was a redial
+            if (session.getRedialFor() != null) {
+                scheduleRedial(session.getRedialFor());
+            }
+        } else if (peer.session == session) {
+            peer.session = null;
+            if (peer.address != null) {
+                scheduleRedial(peer);
+            } else {
+                awaitResume(peer);
+            }
+        }
+        updateState();
+    }
+
+    /**
+     * A device in the chat. It outlives any one connection to the device, so messages that were in flight
+     * when a connection dropped are sent again once the device is back.
      */
-    private class AcceptThread extends Thread {
-        private final BluetoothServerSocket serverSocket;
+    private class Peer {
+        /** the id the UI is given for this peer */
+        final int id;
+        /** the random id the device sent in its HELLO */
+        final int nodeId;
+        /** the name of the device */
+        final String name;
+        /** the numbered messages to and from the device, guarded by itself */
+        final ReliableLink link = new ReliableLink(SEND_QUEUE_CAPACITY, sendWindow);
+        /** the address to redial the device on, null if it dialed us and it is up to it to redial */
+        String address;
+        /** the open connection to the device, null while it is being reconnected */
+        volatile PeerSession session;
+        /** redials made since the connection dropped */
+        int redials = 0;
+        /** number of times the connection has dropped, so a resume timeout can tell if it is stale */
+        int drops = 0;
+        /** fires when the oldest message in flight has waited a retransmission timeout, null if not armed, guarded by link */
+        ScheduledFuture<?> retransmitTimer;
+        /** retransmission timeouts since the peer last acknowledged something, guarded by link */
+        int timeouts = 0;
+
+        /**
+         * Constructor
+         *
+         * @param id     the id the UI is given for this peer
+         * @param nodeId the random id the device sent in its HELLO
+         * @param name   the name of the device
+         */
+        Peer(int id, int nodeId, String name) {
+            this.id = id;
+            this.nodeId = nodeId;
+            this.name = name;
+        }
+
+        /**
+         * @return true if the session with the device is open and resumed
+         */
+        boolean isConnected() {
+            PeerSession s = session;
+            return s != null && s.isResumed();
+        }
+
+        /**
+         * Number a message for the device and send it as soon as the session is resumed and the window has room
+         *
+         * @param request the message, which may be sent to other peers too
+         * @return true if it was queued, false if too many messages are waiting to be acknowledged, the caller
+         * then has to finish this peer's copy of the request
+         */
+        boolean send(WriteRequest request) {
+            synchronized (link) {
+                if (link.add(request) == null) {
+                    return false;
+                }
+                pump();
+                return true;
+            }
+        }
+
+        /**
+         * Hand the session as many messages as the window allows. Must be called holding the link's lock.
+         */
+        void pump() {
+            PeerSession s = session;
+            if (s == null || !s.isResumed()) {
+                return;
+            }
+            OutgoingFrame frame;
+            while ((frame = link.pollSendable()) != null) {
+                s.send(frame);
+            }
+        }
+
+        /**
+         * Start the retransmission timer if messages are in flight and it is not running. Must be called holding the link's lock.
+         *
+         * @param delayNanos how long until it fires
+         */
+        void armTimer(long delayNanos) {
+            if (retransmitTimer != null || link.getInFlight() == 0) {
+                return;
+            }
+            retransmitTimer = timerExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onRetransmitTimeout();
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Stop the retransmission timer. Must be called holding the link's lock.
+         */
+        void disarmTimer() {
+            if (retransmitTimer != null) {
+                retransmitTimer.cancel(false);
+                retransmitTimer = null;
+            }
+        }
+
+        /**
+         * Send the messages in flight again if the oldest one has waited longer than the retransmission
+         * timeout, backing the timeout off. The socket is a reliable stream, so a timeout means the link has
+         * stalled, and once it has fired MAX_TIMEOUTS times in a row the connection is closed so the session
+         * is resumed on a new one.
+         */
+        void onRetransmitTimeout() {
+            PeerSession dead = null;
+            synchronized (link) {
+                retransmitTimer = null;
+                PeerSession s = session;
+                if (s == null || !s.isResumed()) {
+                    return;//rearmed when the session resumes
+                }
+                OutgoingFrame oldest = null;
+                for (int i = 0; i < link.getInFlight() && oldest == null; i++) {
+                    if (!link.get(i).isSacked()) {
+                        oldest = link.get(i);
+                    }
+                }
+                if (oldest == null || oldest.getTransmissions() == 0) {
+                    return;//nothing outstanding, or still waiting in the writer, which rearms the timer when it is flushed
+                }
+                long waited = System.nanoTime() - oldest.getSentNanos();
+                if (waited < link.getRtoNanos()) {
+                    armTimer(link.getRtoNanos() - waited);
+                    return;
+                }
+                if (++timeouts > MAX_TIMEOUTS) {
+                    dead = s;
+                } else {
+                    link.backOff();
+                    link.rewind();
+                    pump();
+                    armTimer(link.getRtoNanos());
+                }
+            }
+            if (dead != null) {
+                // its read loop fails and reports the lost connection, which redials or waits for the peer
+                dead.cancel();
+            }
+        }
+
+        /**
+         * Fail every message the device has not acknowledged and drop what it sent ahead of a gap
+         */
+        void failUnacked() {
+            synchronized (link) {
+                disarmTimer();
+                OutgoingFrame frame;
+                while ((frame = link.poll()) != null) {
+                    finishCopy(frame.getRequest(), false, id);
+                }
+                link.releaseHeld();
+            }
+        }
+    }
+
+    /**
+     * runs on an I/O thread while listening for incoming connections, it keeps listening while connected
+     */
+    private class AcceptTask implements Runnable {
+        private final ChatServer serverSocket;
+        /** set once cancel() has been called, so the failed accept() it causes is not logged */
+        private volatile boolean cancelled = false;
 
         /**
          * constructor
          */
-        AcceptThread() {
-            BluetoothServerSocket tmp = null;
+        AcceptTask() {
+            ChatServer tmp = null;
             try {
-                //: use bluetoothAdapter to create a listenUsingInsecureRfcommWithServiceRecord using APP_NAME and MY_UUID and assign the result to the temporary bluetooth socket
-                tmp = bluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord(APP_NAME, MY_UUID);
-                //create a insecure listening BT socket
+                //: ask the transport to start listening and assign the result to the temporary server
+                tmp = transport.listen();
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
-            //: now assign the temporary bluetooth socket to the bluetooth server socket
+            //: now assign the temporary server to the server socket
             serverSocket = tmp;
         }
 
         @Override
         public void run() {
-            setName("AcceptThread");
-            BluetoothSocket socket;
-            while (state != STATE_CONNECTED) {
+            if (serverSocket != null) {
+                acceptLoop();
+            }
+            synchronized (ChatModel.this) {
+                if (acceptTask == this) {
+                    acceptTask = null;
+                    updateState();
+                }
+            }
+        }
+
+        /**
+         * Accept connections until the server socket is closed
+         */
+        private void acceptLoop() {
+            ChatConnection socket;
+            while (true) {
                 try {
                     //: assign the serverSocket to this threads socket using serverSocket's accept() method
                     socket = serverSocket.accept();
                 } catch (IOException e) {
-                    Log.e(TAG, "Socket's accept() method failed", e);
-                    break;
+                    if (!cancelled) {
+                        Log.e(TAG, "Socket's accept() method failed", e);
+                    }
+                    return;
                 }
 
                 // If a connection was accepted
                 if (socket != null) {
                     synchronized (ChatModel.this) {
-                        switch (state) {
-                            case STATE_LISTEN:
-                            case STATE_CONNECTING:
-                                // start the connected thread.
-                                connected(socket, socket.getRemoteDevice());
-                                break;
-                            case STATE_NONE:
-                            case STATE_CONNECTED:
-                                // Either not ready or already connected. Terminate
-                                // new socket.
-                                try {
-                                    socket.close();
-                                } catch (IOException e) {
-                                }
-                                break;
+                        if (acceptTask == this && sessions.size() < MAX_PEERS) {
+                            // start a session on the accepted connection, its HELLO tells which peer it is
+                            PeerSession session = new PeerSession(socket);
+                            sessions.add(session);
+                            ioExecutor.execute(session);
+                        } else {
+                            // Either stopped or out of connections. Terminate
+                            // new socket.
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                            }
                         }
                     }
                 }
@@ -288,9 +938,12 @@ public class ChatModel {
          * closes the serverSocket
          */
         void cancel() {
+            cancelled = true;
             // - close the serverSocket, will need to be surrounded with a try/catch
             try {
-                serverSocket.close();
+                if (serverSocket != null) {
+                    serverSocket.close();
+                }
             } catch (IOException e) {
                 Log.e(TAG, "Could not close the connect socket", e);
             }
@@ -298,163 +951,465 @@ public class ChatModel {
         }
     }
 
+
     /**
-     * runs while attempting to make an outgoing connection
+     * runs on an I/O thread for as long as one connection to a remote device is open, after first making the
+     * connection if it is an outgoing one. Writes are drained by separate tasks on the same pool. The first
+     * frames each way are a HELLO, which says which device is calling and whether it still has the link
+     * from an earlier connection, and an ACK, after which the messages the other side has not acknowledged
+     * are sent again.
      */
-    private class ConnectThread extends Thread {
-        /** The bluetooth socket to the remote device */
-        private final BluetoothSocket socket;
-        /** The remote device */
-        private final BluetoothDevice device;
+    private class PeerSession implements Runnable, FrameCallback, WriteCallback {
+        /** the transport address dialed, null for an accepted connection */
+        private final String dialAddress;
+        /** the dropped peer this session is redialing, or null */
+        private final Peer redialFor;
+        /** Rebuilds whole frames out of the chunks returned by the input stream */
+        private final FrameDecoder frameDecoder = new FrameDecoder(ChatFrame.MAX_PAYLOAD_LENGTH);
+        /** inflates compressed frames from the peer, created when the first one arrives, only used by the reading thread */
+        private FrameInflater frameInflater;
+        /** decodes the text of the messages read on this connection, only used by the reading thread */
+        private final TextDecoder textDecoder = new TextDecoder(textPool);
+        /** the names of the devices that wrote the broadcasts relayed to us on this connection, only used by the reading thread */
+        private final NameCache authorNames = new NameCache(AUTHOR_CACHE_SLOTS);
+        /** The connection to the remote device, created in run() for an outgoing session */
+        private volatile ChatConnection connection;
+        /** Queues outgoing frames and writes them to the output stream, null until the connection is open */
+        private volatile FrameWriter frameWriter;
+        /** the peer on the other end, null until its HELLO has arrived */
+        private volatile Peer peer;
+        /** set by bind() if both sides kept the link, an accepted session says so in its HELLO */
+        private boolean linkKept = false;
+        /** set once the peer's first ACK has been applied and its unacknowledged messages sent again, guarded by the peer's link */
+        private volatile boolean resumed = false;
+        /** set when a numbered frame has arrived since the last ACK was sent, only used by the reading thread */
+        private boolean ackDue = false;
+        /** set once cancel() has been called */
+        private volatile boolean cancelled = false;
 
         /**
-         * Constructor
+         * Constructor for an outgoing session
          *
-         * @param device the remote device
+         * @param address   the transport address of the remote device
+         * @param redialFor the dropped peer being redialed, or null for a new connection
          */
-        ConnectThread(BluetoothDevice device) {
-            // Use a temporary object that is later assigned to mmSocket
-            // because mmSocket is final.
-            BluetoothSocket tmp = null;
-            this.device = device;
+        PeerSession(String address, Peer redialFor) {
+            this.dialAddress = address;
+            this.redialFor = redialFor;
+        }
 
-            try {
-                //: use device to create a RfcommSocketToServiceRecord using MY_UUID and assign the result to the temporary bluetooth socket
-                // Get a BluetoothSocket to connect with the given BluetoothDevice.
-                // MY_UUID is the app's UUID string, also used in the server code.
-                tmp = device.createInsecureRfcommSocketToServiceRecord(MY_UUID);
+        /**
+         * Constructor for an accepted session
+         *
+         * @param connection the open connection to the remote device
+         */
+        PeerSession(ChatConnection connection) {
+            this.dialAddress = null;
+            this.redialFor = null;
+            this.connection = connection;
+        }
 
-            } catch (IOException e) {
-                Log.e(TAG, "Socket's create() method failed", e);
-            }
-            //: now assign the temporary bluetooth socket to our private final BluetoothSocket
-            socket = tmp;
+        /**
+         * @return the transport address dialed, null for an accepted connection
+         */
+        String getDialAddress() {
+            return dialAddress;
+        }
+
+        /**
+         * @return the dropped peer this session is redialing, or null
+         */
+        Peer getRedialFor() {
+            return redialFor;
+        }
+
+        /**
+         * @return the peer on the other end, null until its HELLO has arrived
+         */
+        Peer getPeer() {
+            return peer;
+        }
+
+        /**
+         * @return the name of the remote device, or its address before the connection is open
+         */
+        String getRemoteName() {
+            ChatConnection c = connection;
+            return c != null ? c.getRemoteName() : dialAddress;
+        }
+
+        /**
+         * @return true once messages for the peer can be written straight to this session
+         */
+        boolean isResumed() {
+            return resumed;
         }
 
         @Override
         public void run() {
-            setName("ConnectThread");
+            if (connection == null && !open()) {
+                connectionFailed(this);
+                return;
+            }
 
-            //  - Always cancel the bluetooth adapter discovery because it will slow down a connection
-            bluetoothAdapter.cancelDiscovery();
+            InputStream inputStream;
+            try {
+                //: get the input stream and the output stream from the connection
+                inputStream = connection.getInputStream();
+                frameWriter = new FrameWriter(connection.getOutputStream(), WRITER_QUEUE_CAPACITY, this, ioExecutor);
+            } catch (IOException e) {
+                cancel();
+                connectionLost(this);
+                return;
+            }
+            if (dialAddress != null) {
+                // the dialing side speaks first, the accepting side answers once it knows who is calling
+                sendHello(redialFor != null);
+            }
 
+            byte[] buffer = new byte[1024];//stores the stream
+            int bytes;
 
-            // Make a connection to the BluetoothSocket
+            // Keep listening to the InputStream
+            while (true) {
+                try {
+                    // : Read from the InputStream by passing in the buffer and assigning the result to the bytes variable
+                    bytes = inputStream.read(buffer);
+                    if (bytes < 0) {
+                        throw new IOException("Stream closed by remote device");
+                    }
+
+                    // Rebuild whole messages, each one is sent to the UI Activity from onFrame
+                    frameDecoder.feed(buffer, 0, bytes, this);
+                    if (ackDue) {
+                        // one ACK covers every message that arrived in this read
+                        ackDue = false;
+                        sendAck();
+                    }
+                } catch (IOException e) {
+                    cancel();
+                    connectionLost(this);
+                    break;
+                }
+            }
+            if (frameInflater != null) {
+                frameInflater.end();
+            }
+        }
+
+        /**
+         * Make the outgoing connection to the remote device
+         *
+         * @return true if the connection is open
+         */
+        private boolean open() {
+            ChatConnection tmp;
+            try {
+                // Get a connection to the given address
+                tmp = transport.createConnection(dialAddress);
+            } catch (IOException e) {
+                Log.e(TAG, "Socket's create() method failed", e);
+                return false;
+            }
+            connection = tmp;
+            if (cancelled) {
+                cancel();//cancel() ran before there was a connection to close
+                return false;
+            }
+
+            // Make a connection to the remote device
             try {
-                socket.connect();//try to connect() the socket
+                tmp.connect();//try to connect() the socket
             } catch (IOException e) {
                 try {
-                    socket.close();//try to close() the socket
+                    tmp.close();//try to close() the socket
                 } catch (IOException e2) {
                 }
-                connectionFailed();
-                return;
+                return false;
             }
+            return true;
+        }
 
-            // Reset the ConnectThread because we're done
-            synchronized (ChatModel.this) {
-                connectThread = null;
+        @Override
+        public void onFrame(byte type, int seq, byte[] buffer, int offset, int length) {
+            if ((type & ChatFrame.TYPE_FLAG_DEFLATED) != 0) {
+                // inflated before anything else, even a duplicate, or the next frame would be inflated against the wrong history
+                if (cancelled) {
+                    return;//the stream broke off at an earlier frame
+                }
+                if (frameInflater == null) {
+                    frameInflater = new FrameInflater(ChatFrame.MAX_PAYLOAD_LENGTH);
+                }
+                try {
+                    length = frameInflater.inflate(buffer, offset, length);
+                } catch (IOException e) {
+                    // the messages the peer sent after the last ACK are sent again on a fresh stream
+                    Log.e(TAG, "Could not inflate a frame", e);
+                    cancel();
+                    return;
+                }
+                buffer = frameInflater.getOutput();
+                offset = 0;
+                type &= ChatFrame.TYPE_MASK;
+            }
+            if (type == ChatFrame.TYPE_HELLO) {
+                if (peer == null && length >= ChatFrame.HELLO_LENGTH) {
+                    int features = length > ChatFrame.HELLO_FEATURES_OFFSET ? buffer[offset + ChatFrame.HELLO_FEATURES_OFFSET] : 0;
+                    onHello(ChatFrame.readInt(buffer, offset), buffer[offset + ChatFrame.HELLO_RESUME_OFFSET] != 0, features);
+                }
+                return;
             }
+            Peer p = peer;
+            if (p == null) {
+                return;//nothing counts until the HELLO says who is calling
+            }
+            if (type == ChatFrame.TYPE_ACK) {
+                if (length >= ChatFrame.ACK_LENGTH) {
+                    onAck(p, buffer, offset, length);
+                }
+                return;
+            }
+            if (type != ChatFrame.TYPE_TEXT && type != ChatFrame.TYPE_BROADCAST) {
+                return;// frame types this version does not know about are skipped
+            }
+
+            ackDue = true;
+            // the peer's lock keeps delivery in order while a stale session may still be reading the same peer
+            synchronized (p) {
+                int received;
+                synchronized (p.link) {
+                    received = p.link.onReceived(seq);
+                    if (received == ReliableLink.RECEIVED_EARLY) {
+                        // a frame before it was lost with an earlier connection, keep this one until that is sent again
+                        PooledBuffer early = receivePool.acquire(length);
+                        early.put(buffer, offset, length);
+                        p.link.hold(seq, type, early);
+                    }
+                }
+                if (received != ReliableLink.RECEIVED_NEXT) {
+                    return;
+                }
+                deliver(p, type, buffer, offset, length);
 
-            // Start the connected thread
-            connected(socket, device);
+                // the frame may have filled a gap in front of frames that were held
+                while (true) {
+                    byte heldType;
+                    PooledBuffer held;
+                    synchronized (p.link) {
+                        heldType = p.link.peekHeldType();
+                        held = p.link.pollHeld();
+                    }
+                    if (held == null) {
+                        break;
+                    }
+                    deliver(p, heldType, held.getData(), 0, held.getLength());
+                    held.release();
+                }
+            }
         }
 
         /**
-         * Closes the connection to the remote device
+         * Hand a chat message to the UI, or deliver and relay a broadcast
+         *
+         * @param p      the peer it came from
+         * @param type   TYPE_TEXT or TYPE_BROADCAST
+         * @param buffer the array holding the frame payload
+         * @param offset the index of the first payload byte within buffer
+         * @param length the number of payload bytes
          */
-        void cancel() {
-            // - close() the socket, will need to be surrounded with a try/catch
-            try {
-                socket.close();
-            } catch (IOException e ) {
-                Log.e(TAG, "Could not close the client socket", e);
+        private void deliver(Peer p, byte type, byte[] buffer, int offset, int length) {
+            if (type == ChatFrame.TYPE_TEXT) {
+                // decoded here, since the frame decoder reuses buffer once this returns
+                events.messageReceived(p.id, null, textDecoder.decode(buffer, offset, length));
+            } else {
+                onBroadcast(p, buffer, offset, length);
             }
-
         }
-    }
 
-    /**
-     * runs during a connection with a remote device
-     */
-    private class ReadWriteThread extends Thread {
-        /** The bluetooth socket to the remove device */
-        private final BluetoothSocket bluetoothSocket;
-        /** The incoming data stream from the remote device */
-        private final InputStream inputStream;
-        /** The outgoing data stream to the remote device */
-        private final OutputStream outputStream;
+        /**
+         * Find out which peer is calling, answer its HELLO if it dialed us, and tell it where we got to
+         *
+         * @param nodeId     the random id of the remote device
+         * @param peerResume true if the remote device is resuming the link it already has with this device
+         * @param features   the ChatFrame.FEATURE_ bits the remote device advertised
+         */
+        private void onHello(int nodeId, boolean peerResume, int features) {
+            Peer p = bind(this, nodeId, peerResume);
+            if (p == null) {
+                cancel();//stopped, or no room for another peer
+                return;
+            }
+            if ((features & ChatFrame.FEATURE_DEFLATE) != 0) {
+                // a device that does not say it can inflate is sent everything as it is
+                frameWriter.enableCompression();
+            }
+            peer = p;
+            if (dialAddress == null) {
+                sendHello(linkKept);
+            }
+            sendAck();
+        }
 
         /**
-         * Constructor
+         * Apply an ACK from the peer. The first one on a session says where the peer got to, so everything
+         * after that is sent again and new messages can go out from then on, as many at once as the window allows.
          *
-         * @param socket the bluetooth socket to the remote device
+         * @param p      the peer
+         * @param buffer the array holding the ACK payload
+         * @param offset the index of the first payload byte within buffer
+         * @param length the number of payload bytes
          */
-        ReadWriteThread(BluetoothSocket socket) {
-            this.bluetoothSocket = socket;
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
+        private void onAck(Peer p, byte[] buffer, int offset, int length) {
+            int ackSeq = ChatFrame.readInt(buffer, offset);
+            int blocks = length > ChatFrame.ACK_SACK_COUNT_OFFSET ? buffer[offset + ChatFrame.ACK_SACK_COUNT_OFFSET] & 0xFF : 0;
+            blocks = Math.min(blocks, (length - ChatFrame.ACK_SACK_COUNT_OFFSET - 1) / ChatFrame.SACK_BLOCK_LENGTH);
+            boolean resuming;
+            synchronized (p.link) {
+                OutgoingFrame frame;
+                OutgoingFrame newest = null;
+                while ((frame = p.link.pollAcked(ackSeq)) != null) {
+                    finishCopy(frame.getRequest(), true, p.id);
+                    newest = frame;
+                }
+                if (newest != null) {
+                    // Karn's rule, an acknowledgement for a frame sent more than once can't be timed
+                    if (newest.getTransmissions() == 1) {
+                        p.link.onRttSample(System.nanoTime() - newest.getSentNanos());
+                    }
+                    p.timeouts = 0;
+                    p.disarmTimer();//restarted below for whatever is still in flight
+                }
+                for (int i = 0; i < blocks; i++) {
+                    int block = offset + ChatFrame.ACK_SACK_COUNT_OFFSET + 1 + i * ChatFrame.SACK_BLOCK_LENGTH;
+                    p.link.onSack(ChatFrame.readInt(buffer, block), ChatFrame.readInt(buffer, block + ChatFrame.SACK_BLOCK_LENGTH / 2));
+                }
+                resuming = !resumed;
+                if (resuming) {
+                    // whatever was in flight on the last connection may not have arrived
+                    p.link.rewind();
+                    resumed = true;
+                }
+                p.pump();
+                p.armTimer(p.link.getRtoNanos());
+            }
+            if (resuming) {
+                updateState();
+            }
+        }
 
-            try {
-                //: use the passed in socket, get the input stream and the output stream and assign them to tmpIn and tmpOut respectively
-                tmpIn = bluetoothSocket.getInputStream();
-                tmpOut = bluetoothSocket.getOutputStream();
+        /**
+         * Deliver a broadcast to the UI and relay it on, unless it has been seen before
+         *
+         * @param p      the peer it came from
+         * @param buffer the array holding the frame payload
+         * @param offset the index of the first payload byte within buffer
+         * @param length the number of payload bytes
+         */
+        private void onBroadcast(Peer p, byte[] buffer, int offset, int length) {
+            if (length < ChatFrame.NAME_OFFSET || ChatFrame.broadcastTextOffset(buffer, offset) > length) {
+                return;//too short to be a broadcast
+            }
+            long messageId = ChatFrame.readMessageId(buffer, offset);
+            if (messageId == SeenCache.NO_ID || !markSeen(messageId)) {
+                return;//already delivered, it came back round another path
+            }
 
-            } catch (IOException e) {
+            int hops = ChatFrame.readHops(buffer, offset);
+            if (hops < MAX_HOPS) {
+                // one pooled copy is shared by every link relaying it
+                PooledBuffer payload = receivePool.acquire(length);
+                payload.put(buffer, offset, length);
+                payload.getData()[ChatFrame.HOPS_OFFSET] = (byte) (hops + 1);
+                relay(payload, p);
+                payload.release();
             }
 
-            //: assign the temporary input stream to inputStream
-            inputStream = tmpIn;
-            // : assign the temporary output stream to outputStream
-            outputStream = tmpOut;
+            String author = null;
+            if (hops > 0) {
+                // relayed, so the peer it came from did not write it
+                author = authorNames.get((int) (messageId >>> 32), buffer, offset + ChatFrame.NAME_OFFSET,
+                        buffer[offset + ChatFrame.NAME_LENGTH_OFFSET] & 0xFF);
+            }
+            int textOffset = ChatFrame.broadcastTextOffset(buffer, offset);
+            events.messageReceived(p.id, author, textDecoder.decode(buffer, offset + textOffset, length - textOffset));
         }
 
-        @Override
-        public void run() {
-            byte[] buffer = new byte[1024];//stores the stream
-            int bytes;
-
-            // Keep listening to the InputStream
-            while (true) {
-                try {
-                    // : Read from the InputStream by passing in the buffer and assigning the result to the bytes variable
-                    bytes = inputStream.read(buffer);
-
+        /**
+         * Tell the remote device who is calling and that it can be sent compressed frames
+         *
+         * @param resume true if this device is resuming the link it already has with the remote device
+         */
+        private void sendHello(boolean resume) {
+            byte[] hello = new byte[ChatFrame.HELLO_FEATURES_OFFSET + 1];
+            ChatFrame.writeInt(hello, 0, originId);
+            hello[ChatFrame.HELLO_RESUME_OFFSET] = (byte) (resume ? 1 : 0);
+            hello[ChatFrame.HELLO_FEATURES_OFFSET] = ChatFrame.FEATURE_DEFLATE;
+            frameWriter.offer(ChatFrame.TYPE_HELLO, hello);
+        }
 
-                    // Send the obtained bytes to the UI Activity
-                    handler.obtainMessage(BluetoothActivity.MESSAGE_READ, bytes, -1,
-                            buffer).sendToTarget();
-                } catch (IOException e) {
-                    connectionLost();
-                    // Start the service over to restart listening mode
-                    ChatModel.this.start();
-                    break;
-                }
+        /**
+         * Tell the peer the highest sequence number received from it in order
+         */
+        private void sendAck() {
+            Peer p = peer;
+            byte[] ack = new byte[ChatFrame.ACK_SACK_COUNT_OFFSET + 1 + ChatFrame.MAX_SACK_BLOCKS * ChatFrame.SACK_BLOCK_LENGTH];
+            int blocks;
+            synchronized (p.link) {
+                ChatFrame.writeInt(ack, 0, p.link.getReceivedSeq());
+                blocks = p.link.writeSackBlocks(ack, ChatFrame.ACK_SACK_COUNT_OFFSET + 1, ChatFrame.MAX_SACK_BLOCKS);
             }
+            ack[ChatFrame.ACK_SACK_COUNT_OFFSET] = (byte) blocks;
+            frameWriter.offer(ChatFrame.TYPE_ACK,
+                    Arrays.copyOf(ack, ChatFrame.ACK_SACK_COUNT_OFFSET + 1 + blocks * ChatFrame.SACK_BLOCK_LENGTH));
         }
 
         /**
-         * write to OutputStream
+         * queue a numbered frame for the peer
          *
-         * @param buffer the byte array to send to the remote device
+         * @param frame the frame, which stays in the peer's link until it is acknowledged
          */
-        void write(byte[] buffer) {
-            try {
-                // - write the passed in buffer message to outputStream
-                outputStream.write(buffer);
-                handler.obtainMessage(BluetoothActivity.MESSAGE_WRITE, -1, -1,
-                        buffer).sendToTarget();
-            } catch (IOException e) {
+        void send(OutgoingFrame frame) {
+            frameWriter.offer(frame);
+        }
+
+        @Override
+        public void onWritten(WriteRequest request) {
+            // only HELLOs and ACKs are reported here, chat messages are done once the peer acknowledges them
+        }
+
+        @Override
+        public void onSent(OutgoingFrame frame) {
+            Peer p = peer;
+            synchronized (p.link) {
+                p.armTimer(p.link.getRtoNanos());
             }
+            WriteRequest request = frame.getRequest();
+            if (request.markSent() && isOwn(request)) {
+                reportDelivery(request, DELIVERY_SENT, p.id);
+            }
+        }
+
+        @Override
+        public void onWriteFailed(IOException e) {
+            // the read loop sees the same broken socket and reports the lost connection
+            Log.e(TAG, "Could not write to the output stream", e);
         }
 
         /**
-         * Closes the bluetooth socket
+         * Closes the connection, a blocked connect or read fails and ends the session
          */
         void cancel() {
-            //: close() the bluetoothSocket, will need to be surrounded with a try/catch
+            cancelled = true;
+            FrameWriter w = frameWriter;
+            if (w != null) {
+                w.close();
+            }
+            //: close() the connection, will need to be surrounded with a try/catch
+            ChatConnection c = connection;
             try {
-                bluetoothSocket.close();
+                if (c != null) {
+                    c.close();
+                }
             } catch (IOException e) {
                 Log.e(TAG, "Could not close the client socket", e);
             }
@@ -0,0 +1,88 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * One chat message as it was stored in the ChatHistory
+ */
+public class ChatRecord {
+    /** where the message is in the history, 0 for the first message ever stored */
+    private final long index;
+    /** when the message was stored, in ms since the epoch */
+    private final long timeMillis;
+    /** true for a message written on this device */
+    private final boolean outgoing;
+    /** the name of the device that wrote a received message, empty for an outgoing one */
+    private final String author;
+    /** the message text */
+    private final String text;
+    /** the last delivery status stored for an outgoing message, one of the ChatModel.DELIVERY_ values or ChatHistory.STATUS_NONE */
+    private final int status;
+
+    /**
+     * Constructor
+     *
+     * @param index      where the message is in the history
+     * @param timeMillis when the message was stored, in ms since the epoch
+     * @param outgoing   true for a message written on this device
+     * @param author     the name of the device that wrote a received message, empty for an outgoing one
+     * @param text       the message text
+     * @param status     the last delivery status stored for the message
+     */
+    public ChatRecord(long index, long timeMillis, boolean outgoing, String author, String text, int status) {
+        this.index = index;
+        this.timeMillis = timeMillis;
+        this.outgoing = outgoing;
+        this.author = author;
+        this.text = text;
+        this.status = status;
+    }
+
+    /**
+     * @return where the message is in the history
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * @return when the message was stored, in ms since the epoch
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return true for a message written on this device
+     */
+    public boolean isOutgoing() {
+        return outgoing;
+    }
+
+    /**
+     * @return the name of the device that wrote a received message, empty for an outgoing one
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * @return the message text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return one of the ChatModel.DELIVERY_ values, or ChatHistory.STATUS_NONE
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @param newStatus the new delivery status
+     * @return a copy of this message with the given delivery status
+     */
+    public ChatRecord withStatus(int newStatus) {
+        return new ChatRecord(index, timeMillis, outgoing, author, text, newStatus);
+    }
+}
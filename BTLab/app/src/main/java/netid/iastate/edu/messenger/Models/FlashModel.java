@@ -1,16 +1,18 @@
 package netid.iastate.edu.messenger.Models;
 
 import android.content.Context;
-import android.graphics.Color;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
 
+import netid.iastate.edu.messenger.Interfaces.ColorSchedule;
 import netid.iastate.edu.messenger.Interfaces.SensorUpdateCallback;
 
 public class FlashModel implements SensorEventListener {
@@ -19,26 +21,56 @@ public class FlashModel implements SensorEventListener {
     private SensorManager mSensorManager;
     /** The device's light sensor */
     private Sensor lightSensor;
-    /** The instance registered to receive color sense events from this class */
-    private SensorUpdateCallback mCallback;
+    /** the light sensor events are handled on this thread so they don't compete with the screen flashes on the main thread */
+    private HandlerThread sensorThread;
+    /** passes decoded characters and diagnostics on to the callback given to the constructor, on the main thread */
+    private final UiCallback uiCallback;
+    /** the sensor timestamp of the last light value passed to testingValue(), in ns */
+    private long lastDiagnosticNanos = 0;
     /** Used for data encoding and decoding */
-    public static final String DOT = "DOT";
+    public static final String DOT = MorseCodec.DOT;
     /** Used for data encoding and decoding */
-    public static final String DASH = "DASH";
+    public static final String DASH = MorseCodec.DASH;
     /** Used for data encoding and decoding */
-    public static final String END_CHARACTER = "END_CHARACTER";
+    public static final String END_CHARACTER = MorseCodec.END_CHARACTER;
 
     /** value of the screen color to be used for data transmission of start of message */
-    private static int RED = Color.parseColor("#FA0404");
+    private static int RED = MorseCodec.RED;
     /** value of the screen color to be used for data transmission of characters */
-    private static int WHITE = Color.parseColor("#FFFFFF");
+    private static int WHITE = MorseCodec.WHITE;
     /** value of the screen color to be used for data transmission of characters */
-    private static int BLACK = Color.parseColor("#000000");
+    private static int BLACK = MorseCodec.BLACK;
 
-    /** sets the initial previous light value seen to -10 and then keeps track of the last seen light value */
-    private int prevLightValue = -10;
-    /** keeps track if a message has started to be received or not */
-    private Boolean messageHasStarted = false;
+    /** learns the light level of each screen color and classifies every sample against them */
+    private final LuxClassifier luxClassifier = new LuxClassifier(new int[]{RED, WHITE, BLACK}, new float[]{25, 0.5f, 75},
+            LUX_WINDOW_SIZE, LUX_FIT_INTERVAL);
+    /** dates the color changes from the light sensor's own sample timestamps */
+    private final LightEdgeDetector edgeDetector = new LightEdgeDetector(SAMPLE_BUFFER_SIZE);
+    /** turns the received colors back into characters, following the sender's unit time */
+    private final FlashReceiver flashReceiver;
+    /** smoothed interval between light sensor samples, in ns, 0 until two samples have been seen, read from the main thread */
+    private volatile long sampleIntervalNanos = 0;
+    /** timestamp of the last light sensor sample, in ns */
+    private long lastSampleNanos = 0;
+
+    /** the shortest unit time that will be recommended, limited by how fast the sending screen can change */
+    private static final int MIN_UNIT_MILLIS = 50;
+    /** how many sensor samples a one unit pulse needs to be reliably measured */
+    private static final int SAMPLES_PER_UNIT = 4;
+    /** how many of the most recent light sensor samples are kept */
+    private static final int SAMPLE_BUFFER_SIZE = 64;
+    /** how many of the most recent light sensor samples the color levels are learned from */
+    private static final int LUX_WINDOW_SIZE = 256;
+    /** how many light sensor samples arrive between fits of the color levels */
+    private static final int LUX_FIT_INTERVAL = 16;
+    /** how long the sensor hub may hold on to samples before delivering them, each still carries its own timestamp */
+    private static final int MAX_REPORT_LATENCY_US = 100_000;
+    /** the least time between two light values shown on the UI, in ns */
+    private static final long DIAGNOSTIC_INTERVAL_NANOS = 100_000_000L;
+    /** the least ratio of the brightest to the darkest color at which the multi-level grey mode is worth trying */
+    public static final float MIN_MULTI_LEVEL_CONTRAST = 4f;
+    /** ratio of the learned BLACK and WHITE levels, read from the main thread */
+    private volatile float contrast = 0;
 
 
     /**
@@ -52,50 +84,76 @@ public class FlashModel implements SensorEventListener {
         if (mSensorManager != null) {
             lightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT); // Get a light sensor
         }
-        mCallback = callback;//set where to send the callback method calls to
+        uiCallback = new UiCallback(callback);
+        flashReceiver = new FlashReceiver(uiCallback);
     }
 
     /**
-     * Register listener
+     * Register listener, does nothing on a device without a light sensor
      */
     public void start() {
-        // Register listener
-        mSensorManager.registerListener(this, lightSensor, SensorManager.SENSOR_DELAY_UI);
+        if (sensorThread != null) {
+            return;//already listening
+        }
+        if (mSensorManager == null || lightSensor == null) {
+            return;//nothing to listen to
+        }
+        sensorThread = new HandlerThread("FlashSensorThread");
+        sensorThread.start();
+        // Register listener at the fastest rate the sensor supports, the shorter the sample interval the shorter the unit time can be
+        int samplingPeriodUs = lightSensor.getMinDelay() > 0 ? lightSensor.getMinDelay() : SensorManager.SENSOR_DELAY_FASTEST;
+        // let the sensor hub batch samples where it has a FIFO for them, the pulses are timed from the sample timestamps so batching delays the decoding but doesn't change it
+        int maxReportLatencyUs = lightSensor.getFifoMaxEventCount() > 0 ? MAX_REPORT_LATENCY_US : 0;
+        mSensorManager.registerListener(this, lightSensor, samplingPeriodUs, maxReportLatencyUs, new Handler(sensorThread.getLooper()));
     }
 
     /**
      * Unregister listener
      */
     public void stop() {
+        if (sensorThread == null) {
+            return;
+        }
         // Unregister listener
         mSensorManager.unregisterListener(this);
+        sensorThread.quit();
+        try {
+            sensorThread.join();//wait for the event being handled, if any, so the state below isn't reset under it
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sensorThread = null;
+        edgeDetector.reset();//timestamps from before the sensor was stopped can't be compared with new ones
+        lastSampleNanos = 0;
+        lastDiagnosticNanos = 0;
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
         //if the sensed value is from the light sensor, enter and do more logic
         if (event.sensor.getType() == Sensor.TYPE_LIGHT) {
-            mCallback.testingValue(event.values[0]);//use callback to return the raw light sensor value to help with development/testing
-
-            //check to see if the sensed light value is a certain color
-            // - if its red, then use the callback with update("RED") and set the messageHasStarted accordingly
-            if((event.values[0] > 20 && event.values[0] < 30 )&& prevLightValue != RED){
-                mCallback.update("RED");
-                messageHasStarted = true;
-                prevLightValue = RED;
-            }
-            // - if its white, then use the callback with update("WHITE")
-            if((event.values[0] > -1 && event.values[0] < 2 ) && prevLightValue != WHITE){
-                mCallback.update("WHITE");
-                prevLightValue = WHITE;
+            measureSampleInterval(event.timestamp);
+            if (event.timestamp - lastDiagnosticNanos >= DIAGNOSTIC_INTERVAL_NANOS) {
+                lastDiagnosticNanos = event.timestamp;
+                uiCallback.testingValue(event.values[0]);//use callback to return the raw light sensor value to help with development/testing
             }
-            // - if its black, then use the callback with update("BLACK")
-            if((event.values[0] > 50 && event.values[0] < 100 ) && prevLightValue != BLACK){
-                mCallback.update("BLACK");
-                prevLightValue = BLACK;
+            //a multi-level message is decoded from the raw samples, the three colors don't apply to its shades of grey
+            if (flashReceiver.isSampling()) {
+                flashReceiver.onSample(event.timestamp, event.values[0]);
+                return;
             }
 
-            // - don't forget to use and then also set the prevLightValue accordingly
+            //store the sample and see if it completes a change of the screen color
+            int edge = edgeDetector.add(event.timestamp, event.values[0], luxClassifier.classify(event.values[0]));
+            if (edge == LightEdgeDetector.NO_EDGE) {
+                return;
+            }
+            //time the pulse from the sensor timestamps, not from when this event got dispatched
+            flashReceiver.onColor(edge, edgeDetector.getEdgeNanos());
+            uiCallback.onColorSensed(colorName(edge));//only on a change of color, not for every sample
+            float white = luxClassifier.getLevel(WHITE);
+            float black = luxClassifier.getLevel(BLACK);
+            contrast = (Math.max(white, black) + 1) / (Math.min(white, black) + 1);
         }
     }
 
@@ -105,115 +163,85 @@ public class FlashModel implements SensorEventListener {
     }
 
     /**
-     * This method is used for encoding a given string into morris code
+     * Keep a smoothed measure of how often the light sensor delivers samples
      *
-     * @param message String to be encoded
-     * @return ArrayList of background color hex values that were assigned using the input String
+     * @param timestampNanos the timestamp of the sample that just arrived
      */
-    public ArrayList<Integer> encodeMessage(String message) {
-        // - encode the input string to an arrayList of DOTs,DASHes, and END_CHARACTERs to be matched up with colors, the first character encoding is done for you
+    private void measureSampleInterval(long timestampNanos) {
+        long interval = timestampNanos - lastSampleNanos;
+        lastSampleNanos = timestampNanos;
+        // gaps of a second or more are the sensor idling on a steady light level, not its sample rate
+        if (interval <= 0 || interval >= 1_000_000_000L) {
+            return;
+        }
+        sampleIntervalNanos = sampleIntervalNanos == 0 ? interval : (7 * sampleIntervalNanos + interval) / 8;
+    }
 
-        message = message.toLowerCase();//make the input string to lower case so it can be seen in the lookup table
-        ArrayList<String> encodedMessage = new ArrayList<>();//create a new empty arrayList to put DOTs DASHes and END_CHARCTERs into
-        for (int i = 0; i < message.length(); i++) {//for each character in the input string, append its encoding to the encodedMessage arrayList
-            if (message.charAt(i) == 'a') {
-                encodedMessage.addAll(Arrays.asList(DOT, DASH, END_CHARACTER));
-            } else if (message.charAt(i) == 'b') {
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DOT,DOT, END_CHARACTER));
-            }else if (message.charAt(i) == 'c'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DASH,DOT, END_CHARACTER));
-            }else if (message.charAt(i) == 'd'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 'e'){
-                encodedMessage.addAll(Arrays.asList(DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 'f'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DASH,DOT, END_CHARACTER));
-            }else if (message.charAt(i) == 'g'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH,DOT, END_CHARACTER));
-            }else if (message.charAt(i) == 'h'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 'i'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 'j'){
-                encodedMessage.addAll(Arrays.asList(DOT,DASH,DASH,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'k'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'l'){
-                encodedMessage.addAll(Arrays.asList(DOT,DASH,DOT, DOT, END_CHARACTER));
-            }else if (message.charAt(i) == 'm'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'n'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 'o'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'p'){
-                encodedMessage.addAll(Arrays.asList(DOT,DASH,DASH, DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 'q'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH, DOT, DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'r'){
-                encodedMessage.addAll(Arrays.asList(DOT,DASH,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 's'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == 't'){
-                encodedMessage.addAll(Arrays.asList(DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'u'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'v'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'w'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'x'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'y'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == 'z'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == '1'){
-                encodedMessage.addAll(Arrays.asList(DOT,DASH,DASH,DASH,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == '2'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DASH,DASH,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == '3'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DOT,DASH,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == '4'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DOT,DOT,DASH,END_CHARACTER));
-            }else if (message.charAt(i) == '5'){
-                encodedMessage.addAll(Arrays.asList(DOT,DOT,DOT,DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == '6'){
-                encodedMessage.addAll(Arrays.asList(DASH,DOT,DOT,DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == '7'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH,DOT,DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == '8'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH,DASH,DOT,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == '9'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH,DASH,DASH,DOT,END_CHARACTER));
-            }else if (message.charAt(i) == '0'){
-                encodedMessage.addAll(Arrays.asList(DASH,DASH,DASH,DASH,DASH,END_CHARACTER));
-            }
-            //..
+    /**
+     * @param color one of the MorseCodec colors
+     * @return the name onColorSensed() gives the color
+     */
+    private static String colorName(int color) {
+        if (color == RED) {
+            return "RED";
+        } else if (color == WHITE) {
+            return "WHITE";
         }
+        return "BLACK";
+    }
 
-        //encode to colors
-        //For each item in the encodedMessage arrayList created directly above, assign a color message encoding to it
-        ArrayList<Integer> colorMessageEncoding = new ArrayList<>(Arrays.asList(RED, RED));
-        for (String item : encodedMessage) {
-            if (item.equals(DASH)) {//DASHes are on the black screen for 2X time
-                colorMessageEncoding.add(BLACK);
-                colorMessageEncoding.add(BLACK);
-                colorMessageEncoding.add(WHITE);
-            } else if (item.equals(DOT)) {//DOTs are on the black screen for 1X time
-                colorMessageEncoding.add(BLACK);
-                colorMessageEncoding.add(WHITE);
-            } else if (item.equals(END_CHARACTER)) {//END_CHARACTERs are on the black screen for 3X time
-                colorMessageEncoding.add(BLACK);
-                colorMessageEncoding.add(BLACK);
-                colorMessageEncoding.add(BLACK);
-                colorMessageEncoding.add(WHITE);
-            }
+    /**
+     * @return the shortest unit time in ms this device can reliably receive, based on how fast its light sensor
+     * has been delivering samples, or 0 if it has not been measured yet
+     */
+    public int getRecommendedUnitMillis() {
+        if (sampleIntervalNanos == 0) {
+            return 0;
         }
+        long unitMillis = (SAMPLES_PER_UNIT * sampleIntervalNanos + 999_999L) / 1_000_000L;
+        return (int) Math.max(MIN_UNIT_MILLIS, unitMillis);
+    }
+
+    /**
+     * @return the sender's unit time in ms measured from the last message received, or 0 if none has been received
+     */
+    public long getReceivedUnitMillis() {
+        return flashReceiver.getUnitMillis();
+    }
+
+    /**
+     * @return the ratio of the brightest to the darkest color this device has been receiving, measured from the
+     * training sequence of the last multi-level message if there was one, otherwise from the learned BLACK and WHITE levels
+     */
+    public float getContrast() {
+        float multiLevelContrast = flashReceiver.getMultiLevelContrast();
+        return multiLevelContrast > 0 ? multiLevelContrast : contrast;
+    }
 
-        //return the encoded color message arrayList
-        return colorMessageEncoding;
+    /**
+     * This method is used for encoding a given string into morris code
+     *
+     * @param message String to be encoded
+     * @return the runs of background colors that send the message
+     */
+    public ColorSchedule encodeMessage(String message) {
+        return MorseCodec.encodeMessage(message);
+    }
 
+    /**
+     * This method is used for encoding a given string in one of the flash modes
+     *
+     * @param message String to be encoded
+     * @param mode    FlashSchedule.MODE_MORSE, MODE_MULTI_LEVEL, MODE_PREFIX or MODE_MULTI_LEVEL_FEC
+     * @return the runs of background colors that send the message
+     */
+    public ColorSchedule encodeMessage(String message, int mode) {
+        if (mode == FlashSchedule.MODE_MULTI_LEVEL || mode == FlashSchedule.MODE_MULTI_LEVEL_FEC) {
+            return new MultiLevelSchedule(message, mode == FlashSchedule.MODE_MULTI_LEVEL_FEC);
+        } else if (mode == FlashSchedule.MODE_PREFIX) {
+            return new PrefixSchedule(PrefixCode.CHAT, message);
+        }
+        return encodeMessage(message);
     }
 
     /**
@@ -223,85 +251,74 @@ public class FlashModel implements SensorEventListener {
      * @return the character that corresponds to the input patternList
      */
     public char decodeCharacterPattern(ArrayList<String> patternList) {
-        // - decode the arrayList of patterns seen and output the corresponding character that the pattern represents, the first character is done for you
-        if (patternList.equals(Arrays.asList(DOT, DASH, END_CHARACTER))) {
-            return 'a';
-        } else if (patternList.equals(Arrays.asList(DASH,DOT,DOT,DOT, END_CHARACTER))) {
-            return 'b';
-        } else if (patternList.equals(Arrays.asList(DASH,DOT,DASH,DOT, END_CHARACTER))){
-           return 'c';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DOT,END_CHARACTER))){
-            return 'd';
-        }else if (patternList.equals(Arrays.asList(DOT,END_CHARACTER))){
-            return 'e';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,DASH,DOT, END_CHARACTER))){
-            return 'f';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH,DOT, END_CHARACTER))){
-            return 'g';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,DOT,DOT,END_CHARACTER))){
-            return 'h';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,END_CHARACTER))){
-            return 'i';
-        }else if (patternList.equals(Arrays.asList(DOT,DASH,DASH,DASH,END_CHARACTER))){
-            return 'j';
-        }else if (patternList.equals(Arrays.asList(DOT,DASH,DASH,DASH,END_CHARACTER))){
-            return 'k';
-        }else if (patternList.equals(Arrays.asList(DOT,DASH,DOT, DOT, END_CHARACTER))){
-            return 'l';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH,END_CHARACTER))){
-            return 'm';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,END_CHARACTER))){
-            return 'n';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH,DASH,END_CHARACTER))){
-            return 'o';
-        }else if (patternList.equals(Arrays.asList(DOT,DASH,DASH, DOT,END_CHARACTER))){
-            return 'p';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH, DOT, DASH,END_CHARACTER))){
-            return 'q';
-        }else if (patternList.equals(Arrays.asList(DOT,DASH,DOT,END_CHARACTER))){
-            return 'r';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,DOT,END_CHARACTER))){
-            return 's';
-        }else if (patternList.equals(Arrays.asList(DASH,END_CHARACTER))){
-            return 't';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DASH,END_CHARACTER))){
-            return 'u';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DASH,END_CHARACTER))){
-            return 'v';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DASH,END_CHARACTER))){
-            return 'w';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DASH,END_CHARACTER))){
-            return 'x';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DASH,END_CHARACTER))){
-            return 'y';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DASH,END_CHARACTER))){
-            return 'z';
-        }else if (patternList.equals(Arrays.asList(DOT,DASH,DASH,DASH,DASH,END_CHARACTER))){
-            return '1';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,DASH,DASH,DASH,END_CHARACTER))){
-            return '2';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,DOT,DASH,DASH,END_CHARACTER))){
-            return '3';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,DOT,DOT,DASH,END_CHARACTER))){
-            return '4';
-        }else if (patternList.equals(Arrays.asList(DOT,DOT,DOT,DOT,DOT,END_CHARACTER))){
-            return '5';
-        }else if (patternList.equals(Arrays.asList(DASH,DOT,DOT,DOT,DOT,END_CHARACTER))){
-            return '6';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH,DOT,DOT,DOT,END_CHARACTER))){
-            return '7';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH,DASH,DOT,DOT,END_CHARACTER))){
-            return '8';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH,DASH,DASH,DOT,END_CHARACTER))){
-            return '9';
-        }else if (patternList.equals(Arrays.asList(DASH,DASH,DASH,DASH,DASH,END_CHARACTER))){
-            return '0';
+        return MorseCodec.decodeCharacterPattern(patternList);
+    }
+
+    /**
+     * Passes the callbacks made on the sensor thread on to the main thread
+     */
+    private static class UiCallback implements SensorUpdateCallback, Handler.Callback {
+        /** message what for onColorSensed(), obj is the color */
+        private static final int COLOR_SENSED = 1;
+        /** message what for onMessageStarted() */
+        private static final int MESSAGE_STARTED = 2;
+        /** message what for onCharacterDecoded(), arg1 is the character */
+        private static final int CHARACTER_DECODED = 3;
+        /** message what for testingValue(), arg1 is the bits of the float value */
+        private static final int LIGHT_VALUE = 4;
+
+        /** the callback to call on the main thread */
+        private final SensorUpdateCallback callback;
+        /** posts to the main thread */
+        private final Handler handler;
+
+        /**
+         * Constructor
+         *
+         * @param callback the callback to call on the main thread
+         */
+        UiCallback(SensorUpdateCallback callback) {
+            this.callback = callback;
+            handler = new Handler(Looper.getMainLooper(), this);
         }
-        //else if...
-        //..
 
-        else {//unknown
-            return '*';
+        @Override
+        public void onColorSensed(String color) {
+            handler.obtainMessage(COLOR_SENSED, color).sendToTarget();
+        }
+
+        @Override
+        public void onMessageStarted() {
+            handler.obtainMessage(MESSAGE_STARTED).sendToTarget();
+        }
+
+        @Override
+        public void onCharacterDecoded(char c) {
+            handler.obtainMessage(CHARACTER_DECODED, c, 0).sendToTarget();
+        }
+
+        @Override
+        public void testingValue(float value) {
+            handler.obtainMessage(LIGHT_VALUE, Float.floatToIntBits(value), 0).sendToTarget();
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case COLOR_SENSED:
+                    callback.onColorSensed((String) msg.obj);
+                    break;
+                case MESSAGE_STARTED:
+                    callback.onMessageStarted();
+                    break;
+                case CHARACTER_DECODED:
+                    callback.onCharacterDecoded((char) msg.arg1);
+                    break;
+                case LIGHT_VALUE:
+                    callback.testingValue(Float.intBitsToFloat(msg.arg1));
+                    break;
+            }
+            return true;
         }
     }
 }
@@ -0,0 +1,210 @@
+package netid.iastate.edu.messenger.Models;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.View;
+
+import netid.iastate.edu.messenger.Interfaces.ColorSchedule;
+import netid.iastate.edu.messenger.Interfaces.PlaybackCallback;
+
+/**
+ * Plays a ColorSchedule on a view's background. Every color change has an absolute deadline worked out
+ * from the start of the transmission, so a late callback never pushes back the changes after it. The
+ * handler wakes the player shortly before each deadline and the change itself is made from a Choreographer
+ * frame callback on the vsync closest to the deadline. How far each change's vsync was from its deadline is
+ * added up as it happens, so the timing error of a transmission can be measured without storing every change. Must be used from the main thread.
+ */
+public class FlashPlayer implements Runnable, Choreographer.FrameCallback {
+    /** frame interval assumed until two consecutive frames have been seen, 60Hz */
+    private static final long DEFAULT_FRAME_NANOS = 16_666_667L;
+    /** how many frames ahead of a deadline the handler wakes the player */
+    private static final int WAKE_FRAMES_EARLY = 2;
+
+    /** the view whose background is changed */
+    private final View target;
+    /** the main thread handler used to wake up before each deadline */
+    private final Handler handler;
+    /** told when a transmission finishes */
+    private final PlaybackCallback callback;
+    /** the display's vsync callbacks */
+    private final Choreographer choreographer;
+
+    /** the transmission being played */
+    private ColorSchedule schedule;
+    /** length of one unit of the schedule, in ns */
+    private long unitNanos;
+    /** the deadline of the pending color change, in System.nanoTime() time */
+    private long deadlineNanos;
+    /** when the run being shown ends, which is the deadline of the change after it */
+    private long runEndNanos;
+    /** true while a transmission is being played */
+    private boolean playing = false;
+    /** the time of the last frame callback, used to measure the frame interval */
+    private long lastFrameNanos = 0;
+    /** the measured frame interval */
+    private long frameNanos = DEFAULT_FRAME_NANOS;
+
+    /** number of color changes made in the current or last transmission */
+    private int transitionCount = 0;
+    /** the total difference between when each color change was due and the vsync it was shown on, in ns */
+    private long errorSumNanos = 0;
+    /** the largest difference between when a color change was due and the vsync it was shown on, in ns */
+    private long maxErrorNanos = 0;
+
+    /** posted at the end of the last run to report that the transmission is over */
+    private final Runnable finish = new Runnable() {
+        @Override
+        public void run() {
+            playing = false;
+            callback.onPlaybackFinished(FlashPlayer.this);
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param target   the view whose background color is flashed
+     * @param handler  a handler on the main thread
+     * @param callback told when each transmission finishes
+     */
+    public FlashPlayer(View target, Handler handler, PlaybackCallback callback) {
+        this.target = target;
+        this.handler = handler;
+        this.callback = callback;
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Start playing a transmission, stopping any transmission that is still playing
+     *
+     * @param schedule   the runs to show
+     * @param unitMillis how long one unit of the schedule lasts
+     * @param leadInMillis how long the first run is held before its remaining units, to give the user time to line up the devices
+     */
+    public void play(ColorSchedule schedule, long unitMillis, long leadInMillis) {
+        stop();
+        this.schedule = schedule;
+        this.unitNanos = unitMillis * 1_000_000L;
+        transitionCount = 0;
+        errorSumNanos = 0;
+        maxErrorNanos = 0;
+        playing = true;
+
+        if (!schedule.next()) {
+            playing = false;
+            callback.onPlaybackFinished(this);
+            return;
+        }
+        deadlineNanos = System.nanoTime();
+        runEndNanos = deadlineNanos + leadInMillis * 1_000_000L + (schedule.getDurationUnits() - 1) * unitNanos;
+        choreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Stop the current transmission, the screen keeps whatever color it was showing
+     */
+    public void stop() {
+        playing = false;
+        handler.removeCallbacks(this);
+        handler.removeCallbacks(finish);
+        choreographer.removeFrameCallback(this);
+    }
+
+    /**
+     * @return true while a transmission is being played
+     */
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * Called by the handler shortly before a deadline, hands over to the vsync callbacks
+     */
+    @Override
+    public void run() {
+        if (playing) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!playing) {
+            return;
+        }
+        if (lastFrameNanos != 0) {
+            long interval = frameTimeNanos - lastFrameNanos;
+            if (interval > 0 && interval < 2 * DEFAULT_FRAME_NANOS) {
+                frameNanos = interval;
+            }
+        }
+        lastFrameNanos = frameTimeNanos;
+
+        // wait for the vsync closest to the deadline rather than the first one after waking up
+        if (frameTimeNanos + frameNanos / 2 < deadlineNanos) {
+            choreographer.postFrameCallback(this);
+            return;
+        }
+
+        target.setBackgroundColor(schedule.getColor());
+        record(deadlineNanos, frameTimeNanos);
+
+        // the next deadline comes from the schedule, not from when this change happened, so errors never add up
+        deadlineNanos = runEndNanos;
+        if (!schedule.next()) {
+            handler.postAtTime(finish, toUptimeMillis(deadlineNanos));
+            return;
+        }
+        runEndNanos = deadlineNanos + schedule.getDurationUnits() * unitNanos;
+        lastFrameNanos = 0;
+        handler.postAtTime(this, toUptimeMillis(deadlineNanos - WAKE_FRAMES_EARLY * frameNanos));
+    }
+
+    /**
+     * @return the number of color changes made in the current or last transmission
+     */
+    public int getTransitionCount() {
+        return transitionCount;
+    }
+
+    /**
+     * @return the largest difference between when a color change was due and when it was shown, in ms
+     */
+    public double getMaxErrorMillis() {
+        return maxErrorNanos / 1e6;
+    }
+
+    /**
+     * @return the average difference between when a color change was due and when it was shown, in ms
+     */
+    public double getMeanErrorMillis() {
+        if (transitionCount == 0) {
+            return 0;
+        }
+        return errorSumNanos / 1e6 / transitionCount;
+    }
+
+    /**
+     * Add the timing error of a color change to the totals
+     *
+     * @param deadline     when the change was due
+     * @param presentation the vsync it was shown on
+     */
+    private void record(long deadline, long presentation) {
+        long error = Math.abs(presentation - deadline);
+        errorSumNanos += error;
+        maxErrorNanos = Math.max(maxErrorNanos, error);
+        transitionCount++;
+    }
+
+    /**
+     * Convert a System.nanoTime() time into the SystemClock.uptimeMillis() time used by the handler
+     *
+     * @param nanos the time to convert
+     * @return the same moment in uptime ms
+     */
+    private static long toUptimeMillis(long nanos) {
+        return SystemClock.uptimeMillis() + (nanos - System.nanoTime()) / 1_000_000L;
+    }
+}
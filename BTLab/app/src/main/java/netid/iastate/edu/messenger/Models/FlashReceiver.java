@@ -0,0 +1,277 @@
+package netid.iastate.edu.messenger.Models;
+
+import netid.iastate.edu.messenger.Interfaces.SensorUpdateCallback;
+
+/**
+ * Turns the sequence of colors seen by the light sensor back into characters. A transmission starts with
+ * RED, then FlashSchedule.SYNC_PULSES one unit BLACK pulses whose average length tells the receiver the
+ * sender's unit time. Every BLACK pulse after that is classified as a DOT, DASH or END_CHARACTER by its
+ * length in units and then refines the estimate, so the receiver follows whatever unit the sender chose
+ * instead of fixed millisecond windows. A first pulse longer than any Morse symbol is a mode pulse. In a
+ * PrefixSchedule every BLACK and WHITE run is a symbol of PrefixCode.CHAT, and the rest of a MultiLevelSchedule
+ * is handed to a MultiLevelDemodulator, which needs the raw samples.
+ */
+public class FlashReceiver {
+    /** returned by classify() for a pulse too short to be a symbol */
+    public static final int NO_SYMBOL = -1;
+    /** the shortest unit time a sync preamble may measure, anything shorter is noise rather than a sender, in ns */
+    private static final long MIN_UNIT_NANOS = 10_000_000L;
+
+    /** waiting for the RED start of message marker */
+    private static final int STATE_IDLE = 0;
+    /** measuring the sync pulses */
+    private static final int STATE_SYNC = 1;
+    /** waiting for the first pulse after the sync pulses, which may be a mode pulse */
+    private static final int STATE_MODE = 2;
+    /** decoding Morse symbols */
+    private static final int STATE_DATA = 3;
+    /** the raw samples are going to the multiLevelDemodulator */
+    private static final int STATE_MULTI_LEVEL = 4;
+    /** decoding the runs of a PrefixSchedule */
+    private static final int STATE_PREFIX = 5;
+
+    /** where message starts and decoded characters are sent */
+    private final SensorUpdateCallback callback;
+    /** turns the received symbols back into characters */
+    private final MorseDecoder decoder = new MorseDecoder();
+    /** receives messages sent with MultiLevelSchedule */
+    private final MultiLevelDemodulator multiLevelDemodulator;
+    /** one of the STATE_ values */
+    private int state = STATE_IDLE;
+    /** the last color seen */
+    private int lastColor = 0;
+    /** when the current BLACK pulse started, in ns */
+    private long blackStartNanos;
+    /** when the current run of either color started, in ns, used in STATE_PREFIX */
+    private long runStartNanos;
+    /** true until the WHITE run after the mode pulse, which carries no symbol, has ended */
+    private boolean skipRun;
+    /** where the runs received so far lead in PrefixCode.CHAT */
+    private int prefixNode;
+    /** when the first sync pulse started, in ns */
+    private long syncStartNanos;
+    /** number of sync pulses measured so far */
+    private int syncPulses;
+    /** total length of the sync pulses measured so far, in ns */
+    private long syncTotalNanos;
+    /** the sender's unit time measured from the sync pulses and refined by every symbol since, in ns, may be read from another thread */
+    private volatile long unitNanos;
+
+    /**
+     * Constructor
+     *
+     * @param callback where message starts and decoded characters are sent
+     */
+    public FlashReceiver(SensorUpdateCallback callback) {
+        this.callback = callback;
+        multiLevelDemodulator = new MultiLevelDemodulator(callback);
+    }
+
+    /**
+     * @return true while the raw light samples are needed, they should go to onSample() instead of being turned into colors
+     */
+    public boolean isSampling() {
+        if (state == STATE_MULTI_LEVEL && !multiLevelDemodulator.isActive()) {
+            state = STATE_IDLE;
+            lastColor = 0;//the next RED starts a new message whatever was seen last
+        }
+        return state == STATE_MULTI_LEVEL;
+    }
+
+    /**
+     * Feed a raw light sensor sample while isSampling()
+     *
+     * @param timestampNanos the SensorEvent.timestamp of the sample
+     * @param lux            the light level
+     */
+    public void onSample(long timestampNanos, float lux) {
+        multiLevelDemodulator.onSample(timestampNanos, lux);
+    }
+
+    /**
+     * @return the ratio of the brightest to the darkest shade of the last multi-level message, 0 if none has been received
+     */
+    public float getMultiLevelContrast() {
+        return multiLevelDemodulator.getContrast();
+    }
+
+    /**
+     * Feed a change of the sensed color
+     *
+     * @param color     the color now being seen, one of the MorseCodec colors
+     * @param timeNanos when the change happened, in ns on any monotonic clock
+     */
+    public void onColor(int color, long timeNanos) {
+        if (isSampling()) {
+            return;
+        }
+        if (state == STATE_PREFIX && color != MorseCodec.RED) {
+            if (color != lastColor) {
+                onRun(timeNanos - runStartNanos);
+                runStartNanos = timeNanos;
+            }
+            lastColor = color;
+            return;
+        }
+        if (color == MorseCodec.RED) {
+            if (lastColor != MorseCodec.RED) {
+                state = STATE_SYNC;
+                syncPulses = 0;
+                syncTotalNanos = 0;
+                decoder.reset();
+            }
+        } else if (color == MorseCodec.BLACK) {
+            if (state == STATE_SYNC && syncPulses == 0) {
+                syncStartNanos = timeNanos;
+            } else if (state == STATE_MODE && lastColor == MorseCodec.WHITE) {
+                // the sync pulses are exactly 2 units apart, timing start to start over all of them cancels out any
+                // difference in how late BLACK and WHITE are detected
+                unitNanos = (timeNanos - syncStartNanos) / (2 * FlashSchedule.SYNC_PULSES);
+                if (unitNanos < MIN_UNIT_NANOS) {
+                    state = STATE_IDLE;
+                }
+            }
+            blackStartNanos = timeNanos;
+        } else if (color == MorseCodec.WHITE && lastColor == MorseCodec.BLACK) {
+            onPulse(timeNanos - blackStartNanos, timeNanos);
+        }
+        lastColor = color;
+    }
+
+    /**
+     * @return the sender's unit time measured from the last sync preamble in ms, or 0 if none has been seen
+     */
+    public long getUnitMillis() {
+        return unitNanos / 1_000_000L;
+    }
+
+    /**
+     * Handle the length of a complete BLACK pulse
+     *
+     * @param durationNanos how long the pulse lasted
+     * @param endNanos      when the pulse ended
+     */
+    private void onPulse(long durationNanos, long endNanos) {
+        if (state == STATE_SYNC) {
+            syncTotalNanos += durationNanos;
+            if (++syncPulses == FlashSchedule.SYNC_PULSES) {
+                unitNanos = syncTotalNanos / FlashSchedule.SYNC_PULSES;
+                if (unitNanos < MIN_UNIT_NANOS) {
+                    state = STATE_IDLE;//flicker too fast to be a sender, wait for the next RED
+                    return;
+                }
+                state = STATE_MODE;
+                callback.onMessageStarted();//only now, a RED that isn't followed by the sync pulses isn't a message
+            }
+            return;
+        }
+        if (state == STATE_MODE) {
+            long halfUnits = 2 * durationNanos / unitNanos;
+            if (halfUnits < 2 * FlashSchedule.MODE_PULSE_UNITS + 1) {
+                state = STATE_DATA;//no mode pulse, this is already the first Morse symbol
+            } else {
+                startMode((int) ((halfUnits + 1) / 2) - FlashSchedule.MODE_PULSE_UNITS, endNanos);
+                return;
+            }
+        }
+        if (state == STATE_DATA) {
+            int symbol = classify(durationNanos, unitNanos);
+            if (symbol != NO_SYMBOL) {
+                // keep following the sender's unit, two sync pulses only give a rough first estimate
+                unitNanos = (7 * unitNanos + durationNanos / unitsOf(symbol)) / 8;
+                char decoded = decoder.push(symbol);
+                if (decoded != MorseDecoder.NO_CHARACTER) {
+                    callback.onCharacterDecoded(decoded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get ready for the rest of a message sent in a mode other than Morse
+     *
+     * @param mode     the mode read from the mode pulse
+     * @param endNanos when the mode pulse ended
+     */
+    private void startMode(int mode, long endNanos) {
+        if (mode == FlashSchedule.MODE_MULTI_LEVEL || mode == FlashSchedule.MODE_MULTI_LEVEL_FEC) {
+            // the training sequence starts after the one unit WHITE that follows the mode pulse
+            multiLevelDemodulator.start(endNanos + unitNanos, unitNanos, mode == FlashSchedule.MODE_MULTI_LEVEL_FEC);
+            state = STATE_MULTI_LEVEL;
+        } else if (mode == FlashSchedule.MODE_PREFIX) {
+            runStartNanos = endNanos;
+            skipRun = true;
+            prefixNode = PrefixCode.ROOT;
+            state = STATE_PREFIX;
+        } else {
+            callback.onCharacterDecoded(MorseCodec.UNKNOWN_CHARACTER);//sent in a mode this receiver doesn't know
+            state = STATE_IDLE;
+        }
+    }
+
+    /**
+     * Handle the length of a complete run of either color in a PrefixSchedule
+     *
+     * @param durationNanos how long the run lasted
+     */
+    private void onRun(long durationNanos) {
+        if (skipRun) {
+            skipRun = false;
+            return;
+        }
+        int symbol = classify(durationNanos, unitNanos);
+        if (symbol == NO_SYMBOL) {
+            return;
+        }
+        if (symbol == MorseCodec.SYMBOL_END_CHARACTER) {
+            if (prefixNode != PrefixCode.ROOT) {
+                callback.onCharacterDecoded(MorseCodec.UNKNOWN_CHARACTER);//the message ended part way through a character
+            }
+            state = STATE_IDLE;
+            return;
+        }
+        unitNanos = (7 * unitNanos + durationNanos / unitsOf(symbol)) / 8;
+        prefixNode = PrefixCode.CHAT.step(prefixNode, symbol == MorseCodec.SYMBOL_DASH);
+        if (PrefixCode.CHAT.isLeaf(prefixNode)) {
+            callback.onCharacterDecoded(PrefixCode.CHAT.characterAt(prefixNode));
+            prefixNode = PrefixCode.ROOT;
+        }
+    }
+
+    /**
+     * @param symbol one of the MorseCodec.SYMBOL_ values
+     * @return the nominal length of the symbol's BLACK pulse in units
+     */
+    private static int unitsOf(int symbol) {
+        if (symbol == MorseCodec.SYMBOL_DOT) {
+            return MorseSchedule.DOT_UNITS;
+        } else if (symbol == MorseCodec.SYMBOL_DASH) {
+            return MorseSchedule.DASH_UNITS;
+        }
+        return MorseSchedule.END_CHARACTER_UNITS;
+    }
+
+    /**
+     * Classify a BLACK pulse by its length in units. The boundaries sit halfway between the nominal
+     * lengths of MorseSchedule, so a pulse can be off by almost half a unit either way.
+     *
+     * @param durationNanos how long the pulse lasted
+     * @param unitNanos     the sender's unit time
+     * @return one of the MorseCodec.SYMBOL_ values, or NO_SYMBOL for a glitch shorter than half a unit or if there is no unit time
+     */
+    public static int classify(long durationNanos, long unitNanos) {
+        if (unitNanos <= 0) {
+            return NO_SYMBOL;
+        }
+        // compare in half units to stay in integer arithmetic
+        long halfUnits = 2 * durationNanos / unitNanos;
+        if (halfUnits < 2 * MorseSchedule.DOT_UNITS - 1) {
+            return NO_SYMBOL;
+        } else if (halfUnits < 2 * MorseSchedule.DOT_UNITS + 1) {
+            return MorseCodec.SYMBOL_DOT;
+        } else if (halfUnits < 2 * MorseSchedule.DASH_UNITS + 1) {
+            return MorseCodec.SYMBOL_DASH;
+        }
+        return MorseCodec.SYMBOL_END_CHARACTER;
+    }
+}
@@ -0,0 +1,101 @@
+package netid.iastate.edu.messenger.Models;
+
+import netid.iastate.edu.messenger.Interfaces.ColorSchedule;
+
+/**
+ * The part of a ColorSchedule every flash encoding shares. It starts with a preamble: the RED start of message
+ * marker, then SYNC_PULSES one unit BLACK pulses the receiver measures the unit time from. Any encoding other
+ * than Morse follows that with a BLACK mode pulse of MODE_PULSE_UNITS + mode units, longer than any Morse
+ * symbol, so a receiver can tell which encoding the rest of the message uses. Subclasses produce the rest of
+ * the runs lazily, a few at a time into two small primitive arrays, so even a very long message costs a
+ * constant amount of memory and nothing is boxed.
+ */
+public abstract class FlashSchedule implements ColorSchedule {
+    /** length of the RED start of message marker */
+    public static final int PREAMBLE_UNITS = 2;
+    /** number of one unit BLACK pulses after the RED marker, used by the receiver to measure the unit time */
+    public static final int SYNC_PULSES = 2;
+    /** mode of a message in MorseCodec, sent without a mode pulse so it stays what older receivers expect */
+    public static final int MODE_MORSE = 0;
+    /** mode of a message sent with MultiLevelSchedule */
+    public static final int MODE_MULTI_LEVEL = 1;
+    /** mode of a message sent with PrefixSchedule */
+    public static final int MODE_PREFIX = 2;
+    /** mode of a message sent with MultiLevelSchedule with error correction */
+    public static final int MODE_MULTI_LEVEL_FEC = 3;
+    /** a mode pulse lasts this many units plus the mode, at least one more than the longest Morse symbol */
+    public static final int MODE_PULSE_UNITS = 3;
+
+    /** colors of the runs produced so far */
+    private final int[] colors;
+    /** lengths of the runs produced so far */
+    private final int[] units;
+    /** number of valid entries in colors and units */
+    private int runCount = 0;
+    /** index of the current run within colors and units, -1 before the first call to next() */
+    private int runIndex = -1;
+
+    /**
+     * Constructor, produces the preamble
+     *
+     * @param mode          one of the MODE_ values
+     * @param maxRunsPerStep the most runs a single call to expand() adds
+     */
+    protected FlashSchedule(int mode, int maxRunsPerStep) {
+        int preambleRuns = 1 + 2 * SYNC_PULSES + (mode == MODE_MORSE ? 0 : 2);
+        colors = new int[Math.max(preambleRuns, maxRunsPerStep)];
+        units = new int[colors.length];
+        add(MorseCodec.RED, PREAMBLE_UNITS);
+        for (int i = 0; i < SYNC_PULSES; i++) {
+            add(MorseCodec.BLACK, 1);
+            add(MorseCodec.WHITE, 1);
+        }
+        if (mode != MODE_MORSE) {
+            add(MorseCodec.BLACK, MODE_PULSE_UNITS + mode);
+            add(MorseCodec.WHITE, 1);
+        }
+    }
+
+    @Override
+    public boolean next() {
+        runIndex++;
+        if (runIndex < runCount) {
+            return true;
+        }
+        runIndex = 0;
+        runCount = 0;
+        while (runCount == 0 && expand()) {
+            // keep going past input that produces no runs
+        }
+        return runCount > 0;
+    }
+
+    @Override
+    public int getColor() {
+        return colors[runIndex];
+    }
+
+    @Override
+    public int getDurationUnits() {
+        return units[runIndex];
+    }
+
+    /**
+     * Produce the next runs with add()
+     *
+     * @return false once there is nothing left to produce
+     */
+    protected abstract boolean expand();
+
+    /**
+     * Append a run
+     *
+     * @param color the screen color
+     * @param length the number of units
+     */
+    protected void add(int color, int length) {
+        colors[runCount] = color;
+        units[runCount] = length;
+        runCount++;
+    }
+}
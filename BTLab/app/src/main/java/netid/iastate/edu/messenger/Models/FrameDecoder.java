@@ -0,0 +1,140 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.io.IOException;
+
+import netid.iastate.edu.messenger.Interfaces.FrameCallback;
+
+/**
+ * Rebuilds ChatFrames out of a byte stream that may be split up at any point. Frames that arrive
+ * whole inside one read are handed to the callback straight out of the read buffer, only a frame
+ * that straddles two reads is copied into the pending buffer, and then with a single arraycopy per read.
+ */
+public class FrameDecoder {
+    /** the initial size of the buffer used to hold a partially received frame */
+    private static final int INITIAL_PENDING_SIZE = 1024;
+
+    /** the largest payload this decoder will accept */
+    private final int maxPayloadLength;
+    /** holds the start of a frame whose remaining bytes have not arrived yet */
+    private byte[] pending = new byte[INITIAL_PENDING_SIZE];
+    /** number of valid bytes in pending */
+    private int pendingLength = 0;
+
+    /**
+     * Constructor
+     *
+     * @param maxPayloadLength frames announcing a bigger payload than this are rejected as corrupt
+     */
+    public FrameDecoder(int maxPayloadLength) {
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    /**
+     * Feed the next chunk of the stream into the decoder. The callback is called once for every
+     * frame that is completed by this chunk, in stream order.
+     *
+     * @param src      the array holding the bytes that were read
+     * @param offset   the index of the first byte to decode
+     * @param length   the number of bytes to decode
+     * @param callback where complete frames are sent
+     * @throws IOException if the stream announces a frame length that cannot be valid
+     */
+    public void feed(byte[] src, int offset, int length, FrameCallback callback) throws IOException {
+        int end = offset + length;
+
+        // finish off a frame that was started by an earlier read
+        if (pendingLength > 0) {
+            offset = fillPending(src, offset, end, callback);
+        }
+
+        // decode every whole frame straight out of the caller's buffer
+        while (end - offset >= ChatFrame.HEADER_LENGTH) {
+            int payloadLength = checkedPayloadLength(src, offset);
+            int frameLength = ChatFrame.encodedLength(payloadLength);
+            if (end - offset < frameLength) {
+                break;
+            }
+            callback.onFrame(ChatFrame.readType(src, offset), ChatFrame.readSeq(src, offset), src,
+                    offset + ChatFrame.HEADER_LENGTH, payloadLength);
+            offset += frameLength;
+        }
+
+        // keep whatever is left over for the next read
+        if (offset < end) {
+            append(src, offset, end - offset);
+        }
+    }
+
+    /**
+     * Drop any partially received frame, used when the underlying connection is replaced
+     */
+    public void reset() {
+        pendingLength = 0;
+    }
+
+    /**
+     * Copy bytes into the pending frame until it is complete or the input runs out
+     *
+     * @param src      the array holding the bytes that were read
+     * @param offset   the index of the first unread byte
+     * @param end      the index just past the last unread byte
+     * @param callback where the frame is sent once complete
+     * @return the index of the first byte that was not consumed
+     * @throws IOException if the pending header announces an invalid length
+     */
+    private int fillPending(byte[] src, int offset, int end, FrameCallback callback) throws IOException {
+        if (pendingLength < ChatFrame.HEADER_LENGTH) {
+            int headerBytes = Math.min(ChatFrame.HEADER_LENGTH - pendingLength, end - offset);
+            append(src, offset, headerBytes);
+            offset += headerBytes;
+            if (pendingLength < ChatFrame.HEADER_LENGTH) {
+                return offset;
+            }
+        }
+
+        int frameLength = ChatFrame.encodedLength(checkedPayloadLength(pending, 0));
+        int frameBytes = Math.min(frameLength - pendingLength, end - offset);
+        append(src, offset, frameBytes);
+        offset += frameBytes;
+
+        if (pendingLength == frameLength) {
+            pendingLength = 0;
+            callback.onFrame(ChatFrame.readType(pending, 0), ChatFrame.readSeq(pending, 0), pending,
+                    ChatFrame.HEADER_LENGTH, frameLength - ChatFrame.HEADER_LENGTH);
+        }
+        return offset;
+    }
+
+    /**
+     * Read and validate the payload length of the header at the given position
+     *
+     * @param src    the array holding the header
+     * @param offset where the header starts
+     * @return the payload length
+     * @throws IOException if the length is negative or over the limit
+     */
+    private int checkedPayloadLength(byte[] src, int offset) throws IOException {
+        int payloadLength = ChatFrame.readPayloadLength(src, offset);
+        if (payloadLength < 0 || payloadLength > maxPayloadLength) {
+            throw new IOException("Invalid frame length " + payloadLength);
+        }
+        return payloadLength;
+    }
+
+    /**
+     * Append bytes to the pending buffer, growing it when a large frame needs more room
+     *
+     * @param src    the array to copy from
+     * @param offset the index of the first byte to copy
+     * @param length the number of bytes to copy
+     */
+    private void append(byte[] src, int offset, int length) {
+        if (pendingLength + length > pending.length) {
+            byte[] bigger = new byte[Math.max(pending.length * 2, pendingLength + length)];
+            System.arraycopy(pending, 0, bigger, 0, pendingLength);
+            pending = bigger;
+        }
+        System.arraycopy(src, offset, pending, pendingLength, length);
+        pendingLength += length;
+    }
+}
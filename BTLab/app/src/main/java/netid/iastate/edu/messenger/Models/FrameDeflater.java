@@ -0,0 +1,79 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the chat messages written to one connection as a single raw Deflate stream, so each message
+ * is compressed against the messages sent before it on the same connection and a preset dictionary of
+ * typical chat text. Every message is ended with a sync flush so the receiver can inflate it as soon as it
+ * arrives. A sync flush always ends in the same four bytes, so they are left off the wire and put back by
+ * the FrameInflater. Only used by the FrameWriter's drain task.
+ */
+public class FrameDeflater {
+    /** messages shorter than this are sent as they are, the flush alone costs about as much as they could save */
+    public static final int MIN_LENGTH = 8;
+
+    /** what every sync flush ends with, an empty stored block */
+    static final byte[] SYNC_TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+    /** text both sides start the stream with, so even the first message finds matches, the most common phrases are last
+     * where the shortest distances reach them. Changing it breaks compatibility with every other device. */
+    static final byte[] DICTIONARY = ("https://www. .com what's up? how are you doing? I'm good, thanks! did you see that? "
+            + "can you send me the notes from class today please. where are you right now? I'm on my way, be there in 10 minutes. "
+            + "sounds good, see you later. have you finished the homework for tomorrow? not yet, what about you? "
+            + "I don't know, I think the meeting is at 3 pm in the library, can you make it? sorry I can't, maybe next time. "
+            + "let me know when you get here. haha that's so funny lol. yeah, ok, no problem. thank you so much! "
+            + "good morning, good night. are you coming to lab tonight? I'll be there. what time is it? call me when you can. "
+            + "I just got home. are you there? hey, hello, hi, yes, no, okay, sure, thanks, ").getBytes(Charset.forName("UTF-8"));
+
+    /** the compressor, which keeps the history of everything sent so far */
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    /** holds the last compressed message, grown when a message does not fit */
+    private byte[] output = new byte[1024];
+
+    /**
+     * Constructor
+     */
+    public FrameDeflater() {
+        deflater.setDictionary(DICTIONARY);
+    }
+
+    /**
+     * Compress the next message on the stream. The receiver has to inflate every compressed message, in the
+     * order they were compressed in.
+     *
+     * @param src    the array holding the message
+     * @param offset the index of the first byte to compress
+     * @param length the number of bytes to compress
+     * @return the number of compressed bytes now at the start of getOutput()
+     */
+    public int deflate(byte[] src, int offset, int length) {
+        deflater.setInput(src, offset, length);
+        int n = 0;
+        while (true) {
+            n += deflater.deflate(output, n, output.length - n, Deflater.SYNC_FLUSH);
+            if (n < output.length) {
+                // deflate() stopped without filling the buffer, so the flush is complete
+                break;
+            }
+            byte[] bigger = new byte[output.length * 2];
+            System.arraycopy(output, 0, bigger, 0, n);
+            output = bigger;
+        }
+        return n - SYNC_TAIL.length;
+    }
+
+    /**
+     * @return the array holding the last compressed message, only valid until the next call to deflate()
+     */
+    public byte[] getOutput() {
+        return output;
+    }
+
+    /**
+     * Free the compressor's native memory, the deflater cannot be used afterwards
+     */
+    public void end() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,100 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates the messages compressed by the FrameDeflater on the other end of a connection. Every
+ * compressed message has to be passed in, in the order it arrived, since each one may refer back to
+ * the ones before it. Only used by the thread reading the connection.
+ */
+public class FrameInflater {
+    /** the initial size of the output buffer, unless maxLength is smaller */
+    private static final int INITIAL_OUTPUT_SIZE = 1024;
+
+    /** the decompressor, which keeps the history of everything received so far */
+    private final Inflater inflater = new Inflater(true);
+    /** the longest message this inflater will produce */
+    private final int maxLength;
+    /** holds the last inflated message, grown when a message does not fit, never more than maxLength + 1 long */
+    private byte[] output;
+
+    /**
+     * Constructor
+     *
+     * @param maxLength messages that inflate to more than this are rejected as corrupt
+     */
+    public FrameInflater(int maxLength) {
+        this.maxLength = maxLength;
+        // one byte past maxLength is enough to tell a message is too long
+        this.output = new byte[Math.min(INITIAL_OUTPUT_SIZE, maxLength + 1)];
+        inflater.setDictionary(FrameDeflater.DICTIONARY);
+    }
+
+    /**
+     * Inflate the next message on the stream
+     *
+     * @param src    the array holding the compressed message
+     * @param offset the index of the first compressed byte
+     * @param length the number of compressed bytes
+     * @return the number of bytes now at the start of getOutput()
+     * @throws IOException if the message is not valid Deflate data or is too long
+     */
+    public int inflate(byte[] src, int offset, int length) throws IOException {
+        int n = inflate(src, offset, length, 0);
+        // put back the end of the sync flush the sender left off
+        return inflate(FrameDeflater.SYNC_TAIL, 0, FrameDeflater.SYNC_TAIL.length, n);
+    }
+
+    /**
+     * @return the array holding the last inflated message, only valid until the next call to inflate()
+     */
+    public byte[] getOutput() {
+        return output;
+    }
+
+    /**
+     * Free the decompressor's native memory, the inflater cannot be used afterwards
+     */
+    public void end() {
+        inflater.end();
+    }
+
+    /**
+     * Inflate all of the given input onto the end of the output
+     *
+     * @param src    the array holding the input
+     * @param offset the index of the first input byte
+     * @param length the number of input bytes
+     * @param n      the number of bytes already in the output
+     * @return the number of bytes in the output afterwards
+     * @throws IOException if the input is not valid Deflate data or the output would grow past maxLength
+     */
+    private int inflate(byte[] src, int offset, int length, int n) throws IOException {
+        inflater.setInput(src, offset, length);
+        try {
+            while (true) {
+                n += inflater.inflate(output, n, output.length - n);
+                // a full output may have left inflated bytes behind
+                if (inflater.needsInput() && n < output.length) {
+                    return n;
+                }
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    throw new IOException("Compressed stream ended unexpectedly");
+                }
+                if (n > maxLength) {
+                    throw new IOException("Compressed message is longer than " + maxLength + " bytes");
+                }
+                if (n == output.length) {
+                    // one byte past maxLength is enough to tell the message is too long
+                    byte[] bigger = new byte[Math.min(output.length * 2, maxLength + 1)];
+                    System.arraycopy(output, 0, bigger, 0, n);
+                    output = bigger;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed message", e);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import netid.iastate.edu.messenger.Interfaces.WriteCallback;
+
+/**
+ * The writing half of a connection. Callers queue messages with offer(), which never blocks, and the
+ * queue is drained by a task run on a shared executor whenever there is something to send, so an idle
+ * connection does not hold a thread. Only one drain task runs per writer at a time. Small messages that
+ * are waiting together are framed into one batch buffer so the socket sees one large write instead of many small ones.
+ * Numbered frames belong to a ReliableLink, which decides when they are done, so the writer only reports each
+ * time one is flushed, and never fails a numbered frame when the connection drops. Once compression is enabled
+ * numbered frames are compressed as they are batched, so they go through the deflater in the order they are written.
+ */
+public class FrameWriter implements Runnable {
+    /** how many bytes of frames are gathered into one socket write */
+    private static final int BATCH_SIZE = 4096;
+
+    /** the outgoing data stream to the remote device */
+    private final OutputStream outputStream;
+    /** frames waiting to be written, bounded so a stalled link pushes back on the callers */
+    private final ArrayBlockingQueue<OutgoingFrame> queue;
+    /** where written and failed unnumbered requests are reported */
+    private final WriteCallback callback;
+    /** runs the drain task */
+    private final Executor executor;
+    /** set while a drain task is queued or running, so offers don't schedule a second one */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    /** frames are gathered here before being written */
+    private final byte[] batch = new byte[BATCH_SIZE];
+    /** the frames in the current batch */
+    private final ArrayList<OutgoingFrame> batchFrames = new ArrayList<>();
+    /** set once the writer has been closed or has failed, after which offers are refused */
+    private volatile boolean closed = false;
+    /** set once the remote device has said it can inflate compressed frames */
+    private volatile boolean compress = false;
+    /** compresses numbered frames, created by the drain task the first time one is compressed */
+    private FrameDeflater deflater;
+
+    /**
+     * Constructor
+     *
+     * @param outputStream  the stream to write frames to
+     * @param queueCapacity the number of frames that may be waiting before offer() starts refusing them
+     * @param callback      where written and failed unnumbered requests are reported
+     * @param executor      runs the drain task, the writes block so it should not be a thread that must stay responsive
+     */
+    public FrameWriter(OutputStream outputStream, int queueCapacity, WriteCallback callback, Executor executor) {
+        this.outputStream = outputStream;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.callback = callback;
+        this.executor = executor;
+    }
+
+    /**
+     * Queue an unnumbered message to be sent without blocking
+     *
+     * @param type    one of the ChatFrame.TYPE_ values
+     * @param payload the bytes to send, must not be modified afterwards
+     * @return the request, which completes once the frame has been flushed, or null if the queue is full or the writer is closed
+     */
+    public WriteRequest offer(byte type, byte[] payload) {
+        if (closed) {
+            return null;
+        }
+        WriteRequest request = new WriteRequest(type, payload);
+        return offer(new OutgoingFrame(request, ChatFrame.NO_SEQ)) ? request : null;
+    }
+
+    /**
+     * Queue a frame without blocking. A numbered frame may be offered again, to this or a later writer, until its link has it acknowledged.
+     *
+     * @param frame the frame to send
+     * @return true if it was queued, if not an unnumbered frame's request has been completed as not sent
+     */
+    public boolean offer(OutgoingFrame frame) {
+        if (closed || !queue.offer(frame)) {
+            drop(frame);
+            return false;
+        }
+        if (closed) {
+            // the writer shut down while this was being queued, so nothing is left to send it
+            drainQueue();
+        } else {
+            schedule();
+        }
+        return true;
+    }
+
+    /**
+     * Compress the numbered frames written from now on, only once the remote device has said it can inflate them
+     */
+    public void enableCompression() {
+        compress = true;
+    }
+
+    /**
+     * Write everything that is queued, then return so the executor's thread can serve other connections
+     */
+    @Override
+    public void run() {
+        try {
+            OutgoingFrame first;
+            while (!closed && (first = queue.poll()) != null) {
+                // take everything else that is already waiting and fits into the same batch
+                int length = addToBatch(first, 0);
+                OutgoingFrame next;
+                while ((next = queue.peek()) != null
+                        && length + ChatFrame.encodedLength(next.getRequest().getLength()) <= batch.length) {
+                    length = addToBatch(queue.poll(), length);
+                }
+
+                if (length > 0) {
+                    outputStream.write(batch, 0, length);
+                }
+                outputStream.flush();
+
+                long now = System.nanoTime();
+                for (int i = 0; i < batchFrames.size(); i++) {
+                    OutgoingFrame frame = batchFrames.get(i);
+                    frame.onSent(now);
+                    if (frame.isSequenced()) {
+                        callback.onSent(frame);
+                    } else {
+                        finish(frame.getRequest(), true);
+                    }
+                }
+                batchFrames.clear();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                fail();
+                callback.onWriteFailed(e);
+            }
+        }
+        if (closed) {
+            // scheduled stays set, so nothing is scheduled on a closed writer again
+            fail();
+            return;
+        }
+        scheduled.set(false);
+        // an offer made after the queue was found empty saw this task still scheduled and left its request to it
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Stop the writer, unnumbered requests still queued are completed as not sent. A write already in
+     * progress is only interrupted by closing the stream it writes to.
+     */
+    public void close() {
+        closed = true;
+        if (scheduled.compareAndSet(false, true)) {
+            // no drain task is running to notice, so fail what is queued here
+            fail();
+        }
+    }
+
+    /**
+     * Have the executor drain the queue unless a drain task is already queued or running
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Complete this writer's copy of a request and report it once every copy has finished
+     *
+     * @param request the request
+     * @param sent    true if this writer flushed it to the socket
+     */
+    private void finish(WriteRequest request, boolean sent) {
+        if (request.complete(sent) && request.getCopiesSent() > 0) {
+            callback.onWritten(request);
+        }
+    }
+
+    /**
+     * Give up on a frame this writer will not send. Only an unnumbered frame is failed, a numbered one stays with its link.
+     *
+     * @param frame the frame
+     */
+    private void drop(OutgoingFrame frame) {
+        if (!frame.isSequenced()) {
+            finish(frame.getRequest(), false);
+        }
+    }
+
+    /**
+     * Add a frame to the batch. A frame too big for the batch buffer flushes the batch and is written on its own.
+     *
+     * @param frame  the frame to add
+     * @param length the number of bytes already in the batch
+     * @return the number of bytes in the batch afterwards
+     * @throws IOException if writing an oversized frame fails
+     */
+    private int addToBatch(OutgoingFrame frame, int length) throws IOException {
+        batchFrames.add(frame);
+        WriteRequest request = frame.getRequest();
+        byte type = request.getType();
+        byte[] payload = request.getPayload();
+        int payloadLength = request.getLength();
+        if (compress && frame.isSequenced() && payloadLength >= FrameDeflater.MIN_LENGTH) {
+            if (deflater == null) {
+                deflater = new FrameDeflater();
+            }
+            payloadLength = deflater.deflate(payload, 0, payloadLength);
+            payload = deflater.getOutput();
+            type |= ChatFrame.TYPE_FLAG_DEFLATED;
+        }
+        if (ChatFrame.encodedLength(payloadLength) > batch.length - length) {
+            if (length > 0) {
+                outputStream.write(batch, 0, length);
+            }
+            ChatFrame.writeHeader(batch, 0, type, frame.getSeq(), payloadLength);
+            outputStream.write(batch, 0, ChatFrame.HEADER_LENGTH);
+            outputStream.write(payload, 0, payloadLength);
+            return 0;
+        }
+        int start = ChatFrame.writeHeader(batch, length, type, frame.getSeq(), payloadLength);
+        System.arraycopy(payload, 0, batch, start, payloadLength);
+        return start + payloadLength;
+    }
+
+    /**
+     * Drop every frame in the current batch and the queue
+     */
+    private void fail() {
+        closed = true;
+        for (int i = 0; i < batchFrames.size(); i++) {
+            drop(batchFrames.get(i));
+        }
+        batchFrames.clear();
+        drainQueue();
+        if (deflater != null) {
+            // no drain task runs after this, so nothing else is using it
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    /**
+     * Drop every frame still in the queue
+     */
+    private void drainQueue() {
+        OutgoingFrame frame;
+        while ((frame = queue.poll()) != null) {
+            drop(frame);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * Forward error correction for the flash channel: an extended Hamming(8,4) code, which corrects any single bit
+ * error in a codeword and detects any two, applied to blocks of BLOCK_BYTES bytes with the bits of the block's
+ * codewords interleaved. Bit i of every codeword is sent before bit i + 1 of any of them, so a run of up to
+ * CODEWORDS_PER_BLOCK wrong bits, such as the bits of one or two misread slots, lands in different codewords
+ * and is corrected. Both directions are table lookups.
+ */
+public final class HammingCode {
+    /** number of data bytes in a block */
+    public static final int BLOCK_BYTES = 4;
+    /** number of 8 bit codewords in a block, one per 4 bits of data */
+    public static final int CODEWORDS_PER_BLOCK = 2 * BLOCK_BYTES;
+    /** number of bits a block is sent as */
+    public static final int BLOCK_BITS = 8 * CODEWORDS_PER_BLOCK;
+    /** returned by decode() for a codeword with more errors than can be corrected */
+    public static final int UNCORRECTABLE = -1;
+
+    /** indexed by a 4 bit value, its codeword */
+    private static final int[] ENCODE = new int[16];
+    /** indexed by a received codeword, the 4 bit value it is nearest to, or UNCORRECTABLE */
+    private static final int[] DECODE = new int[256];
+
+    static {
+        for (int d = 0; d < 16; d++) {
+            int d1 = d >> 3 & 1;
+            int d2 = d >> 2 & 1;
+            int d3 = d >> 1 & 1;
+            int d4 = d & 1;
+            int p1 = d1 ^ d2 ^ d4;
+            int p2 = d1 ^ d3 ^ d4;
+            int p3 = d2 ^ d3 ^ d4;
+            // positions 1 to 7 of the Hamming(7,4) code, then an overall parity bit
+            int code = p1 << 7 | p2 << 6 | d1 << 5 | p3 << 4 | d2 << 3 | d3 << 2 | d4 << 1;
+            ENCODE[d] = code | Integer.bitCount(code) & 1;
+        }
+        for (int received = 0; received < 256; received++) {
+            DECODE[received] = UNCORRECTABLE;
+            for (int d = 0; d < 16; d++) {
+                if (Integer.bitCount(received ^ ENCODE[d]) <= 1) {
+                    DECODE[received] = d;
+                    break;
+                }
+            }
+        }
+    }
+
+    private HammingCode() {
+    }
+
+    /**
+     * @param nibble a 4 bit value
+     * @return its 8 bit codeword
+     */
+    public static int encode(int nibble) {
+        return ENCODE[nibble & 0xF];
+    }
+
+    /**
+     * @param codeword a received 8 bit codeword
+     * @return the 4 bit value, corrected if one bit was wrong, or UNCORRECTABLE
+     */
+    public static int decode(int codeword) {
+        return DECODE[codeword & 0xFF];
+    }
+
+    /**
+     * Encode and interleave a block
+     *
+     * @param data   the bytes to encode
+     * @param offset where the block starts in data
+     * @return the BLOCK_BITS bits of the block, to be sent most significant first
+     */
+    public static long encodeBlock(byte[] data, int offset) {
+        long bits = 0;
+        for (int bit = 7; bit >= 0; bit--) {
+            for (int c = 0; c < CODEWORDS_PER_BLOCK; c++) {
+                // even codewords hold the high 4 bits of a byte, odd ones the low 4
+                int b = data[offset + c / 2];
+                bits = bits << 1 | (encode(c % 2 == 0 ? b >> 4 : b) >> bit & 1);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Deinterleave and decode a block
+     *
+     * @param bits   the BLOCK_BITS bits received, the first one most significant
+     * @param data   where the decoded bytes are written
+     * @param offset where in data to write them
+     * @return a mask with bit i set if byte i of the block had more errors than could be corrected
+     */
+    public static int decodeBlock(long bits, byte[] data, int offset) {
+        int uncorrectable = 0;
+        for (int i = 0; i < BLOCK_BYTES; i++) {
+            int high = decode(codewordAt(bits, 2 * i));
+            int low = decode(codewordAt(bits, 2 * i + 1));
+            if (high == UNCORRECTABLE || low == UNCORRECTABLE) {
+                uncorrectable |= 1 << i;
+            }
+            data[offset + i] = (byte) (high << 4 | low & 0xF);
+        }
+        return uncorrectable;
+    }
+
+    /**
+     * @param bits  an interleaved block
+     * @param index which codeword
+     * @return the codeword
+     */
+    private static int codewordAt(long bits, int index) {
+        int codeword = 0;
+        for (int bit = 7; bit >= 0; bit--) {
+            int position = (7 - bit) * CODEWORDS_PER_BLOCK + index;
+            codeword = codeword << 1 | (int) (bits >>> (BLOCK_BITS - 1 - position) & 1);
+        }
+        return codeword;
+    }
+}
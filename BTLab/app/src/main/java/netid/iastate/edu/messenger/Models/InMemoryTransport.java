@@ -0,0 +1,330 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import netid.iastate.edu.messenger.Interfaces.ChatConnection;
+import netid.iastate.edu.messenger.Interfaces.ChatServer;
+import netid.iastate.edu.messenger.Interfaces.ChatTransport;
+
+/**
+ * ChatTransport that connects ChatModels in the same process through in memory pipes. Every transport
+ * is created from a shared Network under a name, and other transports on that Network connect to it by that name.
+ */
+public class InMemoryTransport implements ChatTransport {
+    /** size of the buffer in each direction of a connection */
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    /** the network this transport belongs to */
+    private final Network network;
+    /** the name other transports use to connect to this one */
+    private final String address;
+
+    /**
+     * Constructor, use Network.newTransport()
+     *
+     * @param network the network this transport belongs to
+     * @param address the name other transports use to connect to this one
+     */
+    private InMemoryTransport(Network network, String address) {
+        this.network = network;
+        this.address = address;
+    }
+
+    @Override
+    public ChatServer listen() throws IOException {
+        InMemoryServer server = new InMemoryServer();
+        network.bind(address, server);
+        return server;
+    }
+
+    @Override
+    public ChatConnection createConnection(String remoteAddress) throws IOException {
+        return new InMemoryConnection(remoteAddress);
+    }
+
+    @Override
+    public String getLocalName() {
+        return address;
+    }
+
+    /**
+     * A set of named transports that can reach each other
+     */
+    public static class Network {
+        /** the servers currently listening, by address */
+        private final Map<String, InMemoryServer> servers = new HashMap<>();
+
+        /**
+         * Create a transport on this network
+         *
+         * @param address the name other transports use to connect to it
+         * @return the new transport
+         */
+        public InMemoryTransport newTransport(String address) {
+            return new InMemoryTransport(this, address);
+        }
+
+        /**
+         * Register a listening server under an address
+         *
+         * @param address the address to listen on
+         * @param server  the server accepting connections for it
+         * @throws IOException if another server is already listening on the address
+         */
+        synchronized void bind(String address, InMemoryServer server) throws IOException {
+            InMemoryServer current = servers.get(address);
+            if (current != null && !current.closed) {
+                throw new IOException("Address already in use: " + address);
+            }
+            servers.put(address, server);
+        }
+
+        /**
+         * @param address the address to look up
+         * @return the server listening on the address, or null if there is none
+         */
+        synchronized InMemoryServer lookup(String address) {
+            InMemoryServer server = servers.get(address);
+            return server != null && !server.closed ? server : null;
+        }
+    }
+
+    /**
+     * Accepts the server ends of connections made to this transport's address
+     */
+    private class InMemoryServer implements ChatServer {
+        /** the closed marker put on the queue to wake a blocked accept() */
+        private final InMemoryConnection closedMarker = new InMemoryConnection(null);
+        /** connections waiting to be accepted */
+        private final LinkedBlockingQueue<InMemoryConnection> pending = new LinkedBlockingQueue<>();
+        /** set once the server is closed */
+        private volatile boolean closed = false;
+
+        @Override
+        public ChatConnection accept() throws IOException {
+            try {
+                InMemoryConnection connection = pending.take();
+                if (connection == closedMarker) {
+                    throw new IOException("Server closed");
+                }
+                return connection;
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while accepting", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            pending.offer(closedMarker);
+        }
+    }
+
+    /**
+     * One end of a pair of pipes
+     */
+    private class InMemoryConnection implements ChatConnection {
+        /** the address of the other end */
+        private final String remoteAddress;
+        /** the pipe read from */
+        private Pipe in;
+        /** the pipe written to */
+        private Pipe out;
+
+        /**
+         * Constructor
+         *
+         * @param remoteAddress the address of the other end
+         */
+        InMemoryConnection(String remoteAddress) {
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public synchronized void connect() throws IOException {
+            if (in != null) {
+                return;
+            }
+            InMemoryServer server = network.lookup(remoteAddress);
+            if (server == null) {
+                throw new IOException("Connection refused: " + remoteAddress);
+            }
+            Pipe toServer = new Pipe(PIPE_SIZE);
+            Pipe toClient = new Pipe(PIPE_SIZE);
+            InMemoryConnection serverEnd = new InMemoryConnection(address);
+            serverEnd.in = toServer;
+            serverEnd.out = toClient;
+            in = toClient;
+            out = toServer;
+            server.pending.offer(serverEnd);
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                throw new IOException("Not connected");
+            }
+            return in.input;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                throw new IOException("Not connected");
+            }
+            return out.output;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public String getRemoteName() {
+            return remoteAddress;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (in != null) {
+                in.close();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * A bounded ring of bytes with a blocking reader and writer. Closing either end fails the
+     * writer and lets the reader drain what is left before seeing end of stream.
+     */
+    private static class Pipe {
+        /** the ring buffer */
+        private final byte[] ring;
+        /** index of the next byte to read */
+        private int readIndex = 0;
+        /** number of unread bytes in the ring */
+        private int count = 0;
+        /** set once either end is closed */
+        private boolean closed = false;
+
+        /** the reading end */
+        final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized (Pipe.this) {
+                    return count;
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        /** the writing end */
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        /**
+         * Constructor
+         *
+         * @param size the number of bytes the pipe can hold before the writer blocks
+         */
+        Pipe(int size) {
+            ring = new byte[size];
+        }
+
+        /**
+         * Block until at least one byte is available, then read as many as are available up to len
+         */
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (count == 0) {
+                    if (closed) {
+                        return -1;
+                    }
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while reading", e);
+            }
+            int n = Math.min(len, count);
+            int first = Math.min(n, ring.length - readIndex);
+            System.arraycopy(ring, readIndex, b, off, first);
+            System.arraycopy(ring, 0, b, off + first, n - first);
+            readIndex = (readIndex + n) % ring.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        /**
+         * Copy all of len bytes into the ring, blocking whenever it is full
+         */
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            try {
+                while (len > 0) {
+                    if (closed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    if (count == ring.length) {
+                        wait();
+                        continue;
+                    }
+                    int writeIndex = (readIndex + count) % ring.length;
+                    int n = Math.min(len, Math.min(ring.length - count, ring.length - writeIndex));
+                    System.arraycopy(b, off, ring, writeIndex, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notifyAll();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while writing", e);
+            }
+        }
+
+        /**
+         * Close the pipe and wake both ends
+         */
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * Finds the color changes in a stream of light sensor samples. Samples go into a LightSampleBuffer, a new
+ * color is only accepted once DEBOUNCE_SAMPLES samples in a row agree on it, and the change is then dated
+ * from the sensor timestamps in the buffer instead of from when the sample happened to be delivered.
+ * The edge is placed halfway between the last sample of the old color and the first sample of the new one,
+ * which halves the error from the sensor only sampling every so often.
+ */
+public class LightEdgeDetector {
+    /** returned by add() when the sample did not complete a color change */
+    public static final int NO_EDGE = 0;
+    /** how many samples in a row must agree before a color change is accepted */
+    public static final int DEBOUNCE_SAMPLES = 2;
+
+    /** the most recent samples */
+    private final LightSampleBuffer samples;
+    /** the color currently being seen, NO_EDGE until the first one has been accepted */
+    private int color = NO_EDGE;
+    /** the color the latest samples agree on */
+    private int candidate = NO_EDGE;
+    /** how many samples in a row have been the candidate color */
+    private int candidateSamples = 0;
+    /** when the last accepted color change happened, in ns */
+    private long edgeNanos;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of samples to keep, must be more than DEBOUNCE_SAMPLES
+     */
+    public LightEdgeDetector(int capacity) {
+        samples = new LightSampleBuffer(Math.max(capacity, DEBOUNCE_SAMPLES + 1));
+    }
+
+    /**
+     * Add a sample
+     *
+     * @param timestampNanos the SensorEvent.timestamp of the sample
+     * @param lux            the light level
+     * @param sampleColor    the color the light level was classified as, or NO_EDGE if it matched none
+     * @return the new color if this sample completed a color change, dated by getEdgeNanos(), otherwise NO_EDGE
+     */
+    public int add(long timestampNanos, float lux, int sampleColor) {
+        samples.add(timestampNanos, lux);
+        if (sampleColor == NO_EDGE) {
+            // a level between the colors, most likely the screen part way through changing
+            candidate = NO_EDGE;
+            candidateSamples = 0;
+            return NO_EDGE;
+        }
+        if (sampleColor != candidate) {
+            candidate = sampleColor;
+            candidateSamples = 0;
+        }
+        if (candidateSamples < DEBOUNCE_SAMPLES) {
+            candidateSamples++;
+        }
+        if (candidate == color || candidateSamples < DEBOUNCE_SAMPLES) {
+            return NO_EDGE;
+        }
+        color = candidate;
+        int firstAge = candidateSamples - 1;
+        long first = samples.getTimestamp(firstAge);
+        edgeNanos = firstAge + 1 < samples.size() ? (samples.getTimestamp(firstAge + 1) + first) / 2 : first;
+        return color;
+    }
+
+    /**
+     * @return when the last color change happened, in ns on the sensor's clock
+     */
+    public long getEdgeNanos() {
+        return edgeNanos;
+    }
+
+    /**
+     * @return the color currently being seen, or NO_EDGE if none has been accepted yet
+     */
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * @return the most recent samples
+     */
+    public LightSampleBuffer getSamples() {
+        return samples;
+    }
+
+    /**
+     * Forget the samples and the current color, called when the sensor is restarted
+     */
+    public void reset() {
+        samples.clear();
+        color = NO_EDGE;
+        candidate = NO_EDGE;
+        candidateSamples = 0;
+    }
+}
@@ -0,0 +1,89 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * A fixed size ring of light sensor samples, kept as two primitive arrays so storing a sample never allocates.
+ * Samples are looked up by age, 0 being the newest, and the oldest are overwritten once the ring is full.
+ */
+public class LightSampleBuffer {
+    /** the sensor timestamps of the samples, in ns */
+    private final long[] timestamps;
+    /** the lux values of the samples */
+    private final float[] values;
+    /** capacity - 1, the capacity is a power of two so an index wraps with a mask */
+    private final int mask;
+    /** total number of samples ever added, the newest is at (count - 1) & mask */
+    private long count = 0;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of samples kept, rounded up to a power of two
+     */
+    public LightSampleBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        timestamps = new long[size];
+        values = new float[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Store a sample, overwriting the oldest one if the ring is full
+     *
+     * @param timestampNanos the SensorEvent.timestamp of the sample
+     * @param lux            the light level
+     */
+    public void add(long timestampNanos, float lux) {
+        int index = (int) count & mask;
+        timestamps[index] = timestampNanos;
+        values[index] = lux;
+        count++;
+    }
+
+    /**
+     * @return the number of samples that can be looked up
+     */
+    public int size() {
+        return (int) Math.min(count, mask + 1);
+    }
+
+    /**
+     * @return the number of samples the ring holds before overwriting
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @param age 0 for the newest sample, up to size() - 1 for the oldest
+     * @return the timestamp of the sample in ns
+     */
+    public long getTimestamp(int age) {
+        return timestamps[indexOf(age)];
+    }
+
+    /**
+     * @param age 0 for the newest sample, up to size() - 1 for the oldest
+     * @return the lux value of the sample
+     */
+    public float getLux(int age) {
+        return values[indexOf(age)];
+    }
+
+    /**
+     * Forget all samples
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @param age 0 for the newest sample
+     * @return the array index of the sample
+     */
+    private int indexOf(int age) {
+        if (age < 0 || age >= size()) {
+            throw new IndexOutOfBoundsException("age " + age + ", size " + size());
+        }
+        return (int) (count - 1 - age) & mask;
+    }
+}
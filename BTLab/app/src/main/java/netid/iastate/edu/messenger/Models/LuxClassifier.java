@@ -0,0 +1,221 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.util.Arrays;
+
+/**
+ * Learns the light level of each screen color from the recent samples and classifies every sample as the
+ * color with the nearest level, so no sample is dropped for falling outside a fixed range. The samples of a
+ * sliding window are kept as a histogram on a log scale, since moving the phones or changing the room light
+ * scales all the levels by roughly the same factor. Every so often the levels are fitted to the histogram
+ * with a few rounds of k-means, started from the darkest and brightest part of the window with the colors
+ * in between spaced like the starting guesses. The colors keep the order of the starting guesses, so once
+ * the RED preamble and the first BLACK and WHITE pulses are in the window every level has been found.
+ */
+public class LuxClassifier {
+    /** width of a histogram bin on the log scale, about 5% in lux */
+    private static final float BIN_WIDTH = 0.05f;
+    /** number of histogram bins, enough for up to about 100000 lux, direct sunlight */
+    private static final int BIN_COUNT = 232;
+    /** the fraction of the window ignored at each end when looking for the darkest and brightest level */
+    private static final float OUTLIER_FRACTION = 0.02f;
+    /** the smallest spread between the darkest and brightest level of the window that is fitted, on the log scale */
+    private static final float MIN_SPREAD = 1f;
+    /** rounds of k-means per fit */
+    private static final int ITERATIONS = 4;
+
+    /** the colors, in order of their expected light level */
+    private final int[] colors;
+    /** the starting guess of each color's level on the log scale, in the same order as colors */
+    private final float[] initialCentres;
+    /** the current level of each color on the log scale, in the same order as colors */
+    private final float[] centres;
+    /** where each centre sits between the darkest and brightest, from the starting guesses */
+    private final float[] spacing;
+    /** number of samples of the window in each bin */
+    private final int[] histogram = new int[BIN_COUNT];
+    /** the bins of the samples in the window, oldest first from windowIndex */
+    private final short[] window;
+    /** where the next sample goes in window */
+    private int windowIndex = 0;
+    /** number of samples in the window */
+    private int windowCount = 0;
+    /** how many samples are added between fits */
+    private final int fitInterval;
+    /** samples added since the last fit */
+    private int sinceFit = 0;
+    /** the centres being fitted */
+    private final float[] fitted;
+    /** per cluster sums used while fitting */
+    private final float[] sums;
+    /** per cluster counts used while fitting */
+    private final int[] counts;
+
+    /**
+     * Constructor
+     *
+     * @param colors      the colors to tell apart
+     * @param levels      the starting guess of each color's light level in lux, must be in the same order as the real levels
+     * @param windowSize  how many of the most recent samples the levels are learned from
+     * @param fitInterval how many samples are added between fits of the levels
+     */
+    public LuxClassifier(int[] colors, float[] levels, int windowSize, int fitInterval) {
+        int n = colors.length;
+        this.colors = colors.clone();
+        this.centres = new float[n];
+        for (int i = 0; i < n; i++) {
+            centres[i] = scale(levels[i]);
+        }
+        // sort by level so neighbouring centres are neighbouring colors
+        for (int i = 1; i < n; i++) {
+            for (int j = i; j > 0 && centres[j - 1] > centres[j]; j--) {
+                float c = centres[j];
+                centres[j] = centres[j - 1];
+                centres[j - 1] = c;
+                int color = this.colors[j];
+                this.colors[j] = this.colors[j - 1];
+                this.colors[j - 1] = color;
+            }
+        }
+        initialCentres = centres.clone();
+        spacing = new float[n];
+        for (int i = 0; i < n; i++) {
+            spacing[i] = (centres[i] - centres[0]) / (centres[n - 1] - centres[0]);
+        }
+        window = new short[windowSize];
+        this.fitInterval = fitInterval;
+        fitted = new float[n];
+        sums = new float[n];
+        counts = new int[n];
+    }
+
+    /**
+     * Classify a sample and add it to the window the levels are learned from
+     *
+     * @param lux the sensed light value
+     * @return the color with the nearest level
+     */
+    public int classify(float lux) {
+        float x = scale(lux);
+        int bin = Math.min(BIN_COUNT - 1, (int) (x / BIN_WIDTH));
+        if (windowCount == window.length) {
+            histogram[window[windowIndex]]--;
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = (short) bin;
+        histogram[bin]++;
+        windowIndex = (windowIndex + 1) % window.length;
+        if (++sinceFit >= fitInterval) {
+            sinceFit = 0;
+            fit();
+        }
+        return colors[nearest(x, centres)];
+    }
+
+    /**
+     * @param color one of the colors
+     * @return the learned light level of the color in lux, or NaN if it is not one of the colors
+     */
+    public float getLevel(int color) {
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i] == color) {
+                return (float) Math.expm1(centres[i]);
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Forget the window and go back to the starting levels
+     */
+    public void reset() {
+        System.arraycopy(initialCentres, 0, centres, 0, centres.length);
+        Arrays.fill(histogram, 0);
+        windowIndex = 0;
+        windowCount = 0;
+        sinceFit = 0;
+    }
+
+    /**
+     * Fit the levels to the histogram of the window. The levels are left alone if the window holds only one
+     * level, such as the room light while nothing is being sent, or if one of the colors ends up with no
+     * samples, such as a window holding only the room light and the RED marker, where there would be no way
+     * to tell which color the brighter level is.
+     */
+    private void fit() {
+        int skip = (int) (windowCount * OUTLIER_FRACTION);
+        float low = binCentre(binAtRank(skip));
+        float high = binCentre(binAtRank(windowCount - 1 - skip));
+        if (high - low < MIN_SPREAD) {
+            return;
+        }
+        int n = centres.length;
+        for (int i = 0; i < n; i++) {
+            fitted[i] = low + spacing[i] * (high - low);
+        }
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            Arrays.fill(sums, 0f);
+            Arrays.fill(counts, 0);
+            for (int bin = 0; bin < BIN_COUNT; bin++) {
+                if (histogram[bin] != 0) {
+                    int i = nearest(binCentre(bin), fitted);
+                    sums[i] += histogram[bin] * binCentre(bin);
+                    counts[i] += histogram[bin];
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (counts[i] == 0) {
+                    return;
+                }
+                fitted[i] = sums[i] / counts[i];
+            }
+        }
+        System.arraycopy(fitted, 0, centres, 0, n);
+    }
+
+    /**
+     * @param rank 0 for the darkest sample of the window, up to windowCount - 1 for the brightest
+     * @return the bin the sample is in
+     */
+    private int binAtRank(int rank) {
+        int seen = 0;
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            seen += histogram[bin];
+            if (seen > rank) {
+                return bin;
+            }
+        }
+        return BIN_COUNT - 1;
+    }
+
+    /**
+     * @param x      a sample on the log scale
+     * @param levels the centres to choose from
+     * @return the index of the nearest centre
+     */
+    private static int nearest(float x, float[] levels) {
+        int best = 0;
+        for (int i = 1; i < levels.length; i++) {
+            if (Math.abs(x - levels[i]) < Math.abs(x - levels[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param bin a histogram bin
+     * @return the middle of the bin on the log scale
+     */
+    private static float binCentre(int bin) {
+        return (bin + 0.5f) * BIN_WIDTH;
+    }
+
+    /**
+     * @param lux a light value
+     * @return the value on the log scale the levels are kept on
+     */
+    private static float scale(float lux) {
+        return (float) Math.log1p(Math.max(0f, lux));
+    }
+}
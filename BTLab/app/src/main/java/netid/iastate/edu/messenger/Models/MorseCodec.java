@@ -0,0 +1,158 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.util.List;
+
+/**
+ * The morse style code used to send messages with screen flashes. This class has no Android dependencies
+ * so it can be run and benchmarked on a plain JVM, the FlashModel uses it for the actual sending and receiving.
+ *
+ * Every supported character has one entry in a single code table. Encoding looks the character up in an
+ * array indexed by char, and decoding walks a binary trie stored as an array where the children of node n
+ * are 2n+1 for a DOT and 2n+2 for a DASH, so neither direction allocates or searches.
+ */
+public final class MorseCodec {
+    /** Used for data encoding and decoding */
+    public static final String DOT = "DOT";
+    /** Used for data encoding and decoding */
+    public static final String DASH = "DASH";
+    /** Used for data encoding and decoding */
+    public static final String END_CHARACTER = "END_CHARACTER";
+
+    /** value of the screen color to be used for data transmission of start of message, same as Color.parseColor("#FA0404") */
+    public static final int RED = 0xFFFA0404;
+    /** value of the screen color to be used for data transmission of characters, same as Color.parseColor("#FFFFFF") */
+    public static final int WHITE = 0xFFFFFFFF;
+    /** value of the screen color to be used for data transmission of characters, same as Color.parseColor("#000000") */
+    public static final int BLACK = 0xFF000000;
+
+    /** int form of DOT, used by the streaming MorseDecoder */
+    public static final int SYMBOL_DOT = 0;
+    /** int form of DASH, used by the streaming MorseDecoder */
+    public static final int SYMBOL_DASH = 1;
+    /** int form of END_CHARACTER, used by the streaming MorseDecoder */
+    public static final int SYMBOL_END_CHARACTER = 2;
+
+    /** returned by the decoders for a pattern that is not in the table */
+    public static final char UNKNOWN_CHARACTER = '*';
+    /** the trie node every character pattern starts from */
+    public static final int ROOT = 0;
+    /** returned by step() when a pattern walks off the trie */
+    public static final int NO_NODE = -1;
+
+    /** the code table, each character followed by its pattern of '.' for DOT and '-' for DASH */
+    private static final String[] TABLE = {
+            "a.-", "b-...", "c-.-.", "d-..", "e.", "f..-.", "g--.", "h....", "i..", "j.---",
+            "k-.-", "l.-..", "m--", "n-.", "o---", "p.--.", "q--.-", "r.-.", "s...", "t-",
+            "u..-", "v...-", "w.--", "x-..-", "y-.--", "z--..",
+            "1.----", "2..---", "3...--", "4....-", "5.....", "6-....", "7--...", "8---..", "9----.", "0-----",
+    };
+    /** the longest pattern in the table */
+    private static final int MAX_PATTERN_LENGTH = 5;
+
+    /** indexed by char, the pattern length in the high 16 bits and the DASH bits in the low 16, first symbol highest. 0 if unsupported */
+    private static final int[] ENCODE = new int[128];
+    /** the decoding trie, indexed by node, the character a pattern ends on or 0 */
+    private static final char[] DECODE = new char[(2 << MAX_PATTERN_LENGTH) - 1];
+
+    static {
+        for (String entry : TABLE) {
+            char c = entry.charAt(0);
+            int length = entry.length() - 1;
+            int bits = 0;
+            int node = ROOT;
+            for (int i = 1; i <= length; i++) {
+                boolean dash = entry.charAt(i) == '-';
+                bits = (bits << 1) | (dash ? 1 : 0);
+                node = 2 * node + (dash ? 2 : 1);
+            }
+            int code = (length << 16) | bits;
+            ENCODE[c] = code;
+            ENCODE[Character.toUpperCase(c)] = code;
+            DECODE[node] = c;
+        }
+    }
+
+    private MorseCodec() {
+    }
+
+    /**
+     * Look up the pattern of a character
+     *
+     * @param c the character to encode, either case
+     * @return the packed pattern, read it with patternLength() and isDash(), or 0 if the character is not supported
+     */
+    public static int codeOf(char c) {
+        return c < ENCODE.length ? ENCODE[c] : 0;
+    }
+
+    /**
+     * @param code a packed pattern from codeOf()
+     * @return the number of DOTs and DASHes in the pattern, not counting the END_CHARACTER
+     */
+    public static int patternLength(int code) {
+        return code >>> 16;
+    }
+
+    /**
+     * @param code  a packed pattern from codeOf()
+     * @param index the position within the pattern, starting at 0
+     * @return true if that symbol is a DASH, false for a DOT
+     */
+    public static boolean isDash(int code, int index) {
+        return ((code >>> (patternLength(code) - 1 - index)) & 1) != 0;
+    }
+
+    /**
+     * Move one symbol down the decoding trie
+     *
+     * @param node the current node, ROOT at the start of a character
+     * @param dash true for a DASH, false for a DOT
+     * @return the next node, or NO_NODE if no character has this pattern
+     */
+    public static int step(int node, boolean dash) {
+        if (node == NO_NODE) {
+            return NO_NODE;
+        }
+        int next = 2 * node + (dash ? 2 : 1);
+        return next < DECODE.length ? next : NO_NODE;
+    }
+
+    /**
+     * @param node the node a pattern ended on
+     * @return the character for that pattern, or UNKNOWN_CHARACTER
+     */
+    public static char characterAt(int node) {
+        if (node <= ROOT || node >= DECODE.length || DECODE[node] == 0) {
+            return UNKNOWN_CHARACTER;
+        }
+        return DECODE[node];
+    }
+
+    /**
+     * This method is used for encoding a given string into morris code
+     *
+     * @param message String to be encoded, unsupported characters are skipped
+     * @return the runs of background colors that send the message, produced lazily as they are read
+     */
+    public static MorseSchedule encodeMessage(CharSequence message) {
+        return new MorseSchedule(message);
+    }
+
+    /**
+     * Used to decode an arrayList of patterns seen and output the corresponding character that the pattern represents
+     *
+     * @param patternList of DOTS and DASHES, optionally ending with an END_CHARACTER
+     * @return the character that corresponds to the input patternList, or UNKNOWN_CHARACTER
+     */
+    public static char decodeCharacterPattern(List<String> patternList) {
+        int node = ROOT;
+        for (int i = 0; i < patternList.size(); i++) {
+            String symbol = patternList.get(i);
+            if (END_CHARACTER.equals(symbol)) {
+                return i == patternList.size() - 1 ? characterAt(node) : UNKNOWN_CHARACTER;
+            }
+            node = step(node, DASH.equals(symbol));
+        }
+        return characterAt(node);
+    }
+}
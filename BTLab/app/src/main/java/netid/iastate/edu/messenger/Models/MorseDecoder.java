@@ -0,0 +1,37 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * Decodes a morse transmission one symbol at a time. The only state is the current position in the
+ * MorseCodec trie, so memory and time per symbol stay constant however long the transmission runs.
+ */
+public class MorseDecoder {
+    /** returned by push() when the symbol did not finish a character */
+    public static final char NO_CHARACTER = 0;
+
+    /** the trie node reached by the symbols of the current character so far */
+    private int node = MorseCodec.ROOT;
+
+    /**
+     * Feed the next received symbol
+     *
+     * @param symbol one of MorseCodec.SYMBOL_DOT, SYMBOL_DASH or SYMBOL_END_CHARACTER
+     * @return the decoded character when the symbol is an END_CHARACTER (MorseCodec.UNKNOWN_CHARACTER if the
+     * pattern is not in the table), otherwise NO_CHARACTER
+     */
+    public char push(int symbol) {
+        if (symbol == MorseCodec.SYMBOL_END_CHARACTER) {
+            char decoded = MorseCodec.characterAt(node);
+            node = MorseCodec.ROOT;
+            return decoded;
+        }
+        node = MorseCodec.step(node, symbol == MorseCodec.SYMBOL_DASH);
+        return NO_CHARACTER;
+    }
+
+    /**
+     * Drop any partially received character, used when a new message starts
+     */
+    public void reset() {
+        node = MorseCodec.ROOT;
+    }
+}
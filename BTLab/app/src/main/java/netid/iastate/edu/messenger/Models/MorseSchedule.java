@@ -0,0 +1,61 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * The FlashSchedule for a message in MorseCodec. For every supported character there is a BLACK run per
+ * DOT (1 unit) or DASH (2 units) and a final BLACK run for the END_CHARACTER (3 units), each followed by
+ * 1 unit of WHITE.
+ */
+public class MorseSchedule extends FlashSchedule {
+    /** length of the BLACK run for a DOT */
+    public static final int DOT_UNITS = 1;
+    /** length of the BLACK run for a DASH */
+    public static final int DASH_UNITS = 2;
+    /** length of the BLACK run for an END_CHARACTER */
+    public static final int END_CHARACTER_UNITS = 3;
+    /** length of the WHITE run separating symbols */
+    public static final int SEPARATOR_UNITS = 1;
+
+    /** the most runs one character can produce, a BLACK and a WHITE for every symbol plus the END_CHARACTER */
+    private static final int MAX_RUNS_PER_CHARACTER = 2 * (5 + 1);
+
+    /** the message being sent */
+    private final CharSequence message;
+    /** index of the next character of message to expand */
+    private int messageIndex = 0;
+
+    /**
+     * Constructor
+     *
+     * @param message the message to send, unsupported characters are skipped
+     */
+    public MorseSchedule(CharSequence message) {
+        super(MODE_MORSE, MAX_RUNS_PER_CHARACTER);
+        this.message = message;
+    }
+
+    @Override
+    protected boolean expand() {
+        if (messageIndex >= message.length()) {
+            return false;
+        }
+        expandCharacter(MorseCodec.codeOf(message.charAt(messageIndex++)));
+        return true;
+    }
+
+    /**
+     * Fill the run arrays with the runs of one character
+     *
+     * @param code the packed pattern from MorseCodec.codeOf(), 0 to produce nothing
+     */
+    private void expandCharacter(int code) {
+        if (code == 0) {
+            return;
+        }
+        for (int s = 0; s < MorseCodec.patternLength(code); s++) {
+            add(MorseCodec.BLACK, MorseCodec.isDash(code, s) ? DASH_UNITS : DOT_UNITS);
+            add(MorseCodec.WHITE, SEPARATOR_UNITS);
+        }
+        add(MorseCodec.BLACK, END_CHARACTER_UNITS);
+        add(MorseCodec.WHITE, SEPARATOR_UNITS);
+    }
+}
@@ -0,0 +1,285 @@
+package netid.iastate.edu.messenger.Models;
+
+import netid.iastate.edu.messenger.Interfaces.SensorUpdateCallback;
+
+/**
+ * Receives the part of a MultiLevelSchedule after the mode pulse. It learns the light level of each shade from
+ * the training sequence, averaging the middle half of each slot, then classifies every sample as the nearest
+ * level and decodes two bits from every change of level. Slots are timed from the edges, so a slot lost to a
+ * misclassified level shows up as a run that lasted two slots; the bytes it touched are reported as
+ * MorseCodec.UNKNOWN_CHARACTER but the ones after it still line up. With error correction the slots are
+ * collected into HammingCode blocks, which repair a misread or lost slot, and only bytes with more errors
+ * than that are reported as MorseCodec.UNKNOWN_CHARACTER.
+ */
+public class MultiLevelDemodulator {
+    /** the smallest gap between two neighbouring trained levels, as a fraction of the darkest to brightest range */
+    private static final float MIN_LEVEL_GAP = 0.05f;
+    /** a run this many slots long without an edge means the transmission has been lost, a misread slot can merge
+     * with both neighbours when they are the same level, which makes a run of 3 */
+    private static final int MAX_RUN_SLOTS = 4;
+
+    /** where decoded characters are sent */
+    private final SensorUpdateCallback callback;
+    /** finds the level changes */
+    private final LightEdgeDetector edgeDetector = new LightEdgeDetector(LightEdgeDetector.DEBOUNCE_SAMPLES + 1);
+    /** the trained light level of each shade, in lux */
+    private final float[] levels = new float[MultiLevelSchedule.LEVELS];
+    /** number of samples averaged into each level while training */
+    private final int[] levelSamples = new int[MultiLevelSchedule.LEVELS];
+    /** true if the message is sent as HammingCode blocks */
+    private boolean errorCorrection;
+    /** the bits of the HammingCode block being received */
+    private long blockBits;
+    /** number of slots in blockBits */
+    private int blockSlots;
+    /** the decoded bytes of the last HammingCode block */
+    private final byte[] blockBytes = new byte[HammingCode.BLOCK_BYTES];
+    /** index of the next byte within the two length bytes followed by the message */
+    private int streamIndex;
+    /** true from start() until the message has been received or lost */
+    private boolean active = false;
+    /** true once the training sequence is over */
+    private boolean training;
+    /** when the first training slot starts, in ns */
+    private long startNanos;
+    /** the sender's unit time, in ns */
+    private long unitNanos;
+    /** when the current slot started, in ns */
+    private long slotStartNanos;
+    /** the level of the current slot */
+    private int level;
+    /** the bits received since the last complete value */
+    private int bits;
+    /** number of slots in bits */
+    private int slots;
+    /** true if a slot of the value being received was lost */
+    private boolean corrupt;
+    /** the length of the message in bytes, -1 until it has been received */
+    private int length;
+    /** number of bytes received */
+    private int received;
+    /** ratio of the brightest to the darkest trained level */
+    private volatile float contrast = 0;
+
+    /**
+     * Constructor
+     *
+     * @param callback where decoded characters are sent
+     */
+    public MultiLevelDemodulator(SensorUpdateCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Start receiving
+     *
+     * @param startNanos      when the first training slot starts
+     * @param unitNanos       the sender's unit time
+     * @param errorCorrection true if the message is sent as HammingCode blocks
+     */
+    public void start(long startNanos, long unitNanos, boolean errorCorrection) {
+        this.startNanos = startNanos;
+        this.unitNanos = unitNanos;
+        this.errorCorrection = errorCorrection;
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = 0;
+            levelSamples[i] = 0;
+        }
+        edgeDetector.reset();
+        training = true;
+        active = true;
+    }
+
+    /**
+     * @return true from start() until the message has been received or lost
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return the ratio of the brightest to the darkest level of the last training sequence, 0 if none has been seen
+     */
+    public float getContrast() {
+        return contrast;
+    }
+
+    /**
+     * Feed a light sensor sample
+     *
+     * @param timestampNanos the SensorEvent.timestamp of the sample
+     * @param lux            the light level
+     */
+    public void onSample(long timestampNanos, float lux) {
+        if (!active) {
+            return;
+        }
+        if (training) {
+            train(timestampNanos, lux);
+            return;
+        }
+        int edge = edgeDetector.add(timestampNanos, lux, nearest(lux) + 1);
+        if (edge != LightEdgeDetector.NO_EDGE && edge - 1 != level) {
+            long edgeNanos = edgeDetector.getEdgeNanos();
+            // a run of more than one slot means a slot was seen as the level before it and lost
+            long lost = (edgeNanos - slotStartNanos + unitNanos / 2) / unitNanos - 1;
+            for (long i = 0; i < lost && active; i++) {
+                corrupt = true;
+                push(0);
+            }
+            if (active) {
+                corrupt |= lost > 0;//the bits of this slot are relative to the lost one
+                push(MultiLevelSchedule.bitsOf(level, edge - 1));
+            }
+            level = edge - 1;
+            slotStartNanos = edgeNanos;
+        } else if (timestampNanos - slotStartNanos > MAX_RUN_SLOTS * unitNanos) {
+            callback.onCharacterDecoded(MorseCodec.UNKNOWN_CHARACTER);//the rest of the message is lost
+            active = false;
+        }
+    }
+
+    /**
+     * Average the middle half of each training slot into its level
+     *
+     * @param timestampNanos the SensorEvent.timestamp of the sample
+     * @param lux            the light level
+     */
+    private void train(long timestampNanos, float lux) {
+        long offset = timestampNanos - startNanos;
+        int slot = offset < 0 ? -1 : (int) (offset / unitNanos);
+        if (slot >= MultiLevelSchedule.LEVELS) {
+            finishTraining();
+            if (active) {
+                onSample(timestampNanos, lux);
+            }
+            return;
+        }
+        long inSlot = offset - (long) slot * unitNanos;
+        if (slot >= 0 && inSlot >= unitNanos / 4 && inSlot < unitNanos - unitNanos / 4) {
+            levels[slot] += lux;
+            levelSamples[slot]++;
+        }
+    }
+
+    /**
+     * Work out the trained levels, giving up if they can't be told apart
+     */
+    private void finishTraining() {
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < levels.length; i++) {
+            if (levelSamples[i] == 0) {
+                fail();//the sensor is too slow for this unit time
+                return;
+            }
+            levels[i] /= levelSamples[i];
+            min = Math.min(min, levels[i]);
+            max = Math.max(max, levels[i]);
+        }
+        contrast = (max + 1) / (min + 1);
+        for (int i = 0; i < levels.length; i++) {
+            for (int j = i + 1; j < levels.length; j++) {
+                if (Math.abs(levels[i] - levels[j]) < MIN_LEVEL_GAP * (max - min) || max == min) {
+                    fail();//not enough contrast to tell the shades apart
+                    return;
+                }
+            }
+        }
+        training = false;
+        level = MultiLevelSchedule.LEVELS - 1;
+        slotStartNanos = startNanos + MultiLevelSchedule.LEVELS * unitNanos;
+        bits = 0;
+        slots = 0;
+        corrupt = false;
+        length = -1;
+        received = 0;
+        blockBits = 0;
+        blockSlots = 0;
+        streamIndex = 0;
+    }
+
+    /**
+     * Add the bits of one slot, passing on every complete byte
+     *
+     * @param value the bits of the slot
+     */
+    private void push(int value) {
+        if (errorCorrection) {
+            pushBlock(value);
+            return;
+        }
+        bits = (bits << MultiLevelSchedule.BITS_PER_SLOT) | value;
+        slots++;
+        if (length < 0) {
+            if (slots == MultiLevelSchedule.LENGTH_SLOTS) {
+                if (corrupt) {
+                    fail();//without the length the end of the message can't be found
+                    return;
+                }
+                length = bits;
+                bits = 0;
+                slots = 0;
+                active = length > 0;
+            }
+        } else if (slots == MultiLevelSchedule.SLOTS_PER_BYTE) {
+            callback.onCharacterDecoded(corrupt ? MorseCodec.UNKNOWN_CHARACTER : (char) bits);
+            bits = 0;
+            slots = 0;
+            corrupt = false;
+            active = ++received < length;
+        }
+    }
+
+    /**
+     * Add the bits of one slot to the HammingCode block being received, passing on its bytes once it is complete
+     *
+     * @param value the bits of the slot, a lost slot is sent as 0 and left for the code to repair
+     */
+    private void pushBlock(int value) {
+        blockBits = (blockBits << MultiLevelSchedule.BITS_PER_SLOT) | value;
+        if (++blockSlots < HammingCode.BLOCK_BITS / MultiLevelSchedule.BITS_PER_SLOT) {
+            return;
+        }
+        int uncorrectable = HammingCode.decodeBlock(blockBits, blockBytes, 0);
+        blockBits = 0;
+        blockSlots = 0;
+        for (int i = 0; i < blockBytes.length && active; i++, streamIndex++) {
+            boolean repaired = (uncorrectable & (1 << i)) == 0;
+            int b = blockBytes[i] & 0xFF;
+            if (streamIndex < 2) {
+                if (!repaired) {
+                    fail();//without the length the end of the message can't be found
+                    return;
+                }
+                length = streamIndex == 0 ? b << 8 : length | b;
+                active = streamIndex == 0 || length > 0;
+            } else {
+                callback.onCharacterDecoded(repaired ? (char) b : MorseCodec.UNKNOWN_CHARACTER);
+                active = ++received < length;
+            }
+        }
+    }
+
+    /**
+     * Give up on the message, reported as a single MorseCodec.UNKNOWN_CHARACTER
+     */
+    private void fail() {
+        callback.onCharacterDecoded(MorseCodec.UNKNOWN_CHARACTER);
+        active = false;
+    }
+
+    /**
+     * @param lux a light level
+     * @return the trained level nearest to it
+     */
+    private int nearest(float lux) {
+        int best = 0;
+        for (int i = 1; i < levels.length; i++) {
+            if (Math.abs(lux - levels[i]) < Math.abs(lux - levels[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,188 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * The FlashSchedule for a message sent with LEVELS shades of grey, two bits per one unit slot instead of the
+ * binary BLACK and WHITE of Morse. After the mode pulse comes a training sequence showing every level once,
+ * darkest first, which the receiver learns the light level of each shade from. Then come the 16 bit length of
+ * the message in bytes and the bytes themselves, most significant bits first, every character sent as one
+ * ISO-8859-1 byte. Each slot always shows a different level from the one before, the next level being
+ * (previous + 1 + bits) % LEVELS, so every slot starts with an edge the receiver can time it from and a run
+ * of equal slots can never blur together. The message ends on WHITE, as a Morse message does.
+ *
+ * With error correction the two length bytes and the message bytes are sent as HammingCode blocks instead,
+ * padded with zeros to a whole block. A misread level spoils the bits of its own slot and the next one, which
+ * are 4 neighbouring bits and so land in 4 different codewords of the interleaved block, each of which can
+ * correct one wrong bit.
+ */
+public class MultiLevelSchedule extends FlashSchedule {
+    /** number of shades of grey, one more than the number of two bit values so every slot can change level */
+    public static final int LEVELS = 5;
+    /** number of bits sent in each slot */
+    public static final int BITS_PER_SLOT = 2;
+    /** slots needed for the 16 bit length */
+    public static final int LENGTH_SLOTS = 16 / BITS_PER_SLOT;
+    /** slots needed for one byte */
+    public static final int SLOTS_PER_BYTE = 8 / BITS_PER_SLOT;
+    /** the longest message that can be sent, in bytes */
+    public static final int MAX_LENGTH = 0xFFFF;
+    /** the screen color of each level, darkest first */
+    private static final int[] LEVEL_COLORS = new int[LEVELS];
+
+    static {
+        for (int i = 0; i < LEVELS; i++) {
+            // even steps of emitted light, so the sRGB value follows the display's 2.2 gamma curve
+            int v = Math.round(255 * (float) Math.pow((double) i / (LEVELS - 1), 1 / 2.2));
+            LEVEL_COLORS[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+    }
+
+    /** true to send the message as HammingCode blocks */
+    private final boolean errorCorrection;
+    /** the bytes of the block being sent, with error correction */
+    private final byte[] block = new byte[HammingCode.BLOCK_BYTES];
+    /** the message being sent */
+    private final CharSequence message;
+    /** number of characters of message sent */
+    private final int length;
+    /** the next thing to produce, -2 for the training sequence, -1 for the length, otherwise the index of the next character.
+     * With error correction the index of the next byte of the length and message, which starts at 0 after the training sequence */
+    private int position = -2;
+    /** the level of the last slot produced */
+    private int level;
+
+    /**
+     * Constructor
+     *
+     * @param message the message to send, only the first MAX_LENGTH characters are sent
+     */
+    public MultiLevelSchedule(CharSequence message) {
+        this(message, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param message         the message to send, only the first MAX_LENGTH characters are sent
+     * @param errorCorrection true to send the message as HammingCode blocks
+     */
+    public MultiLevelSchedule(CharSequence message, boolean errorCorrection) {
+        super(errorCorrection ? MODE_MULTI_LEVEL_FEC : MODE_MULTI_LEVEL, HammingCode.BLOCK_BITS / BITS_PER_SLOT + 1);
+        this.message = message;
+        this.length = Math.min(message.length(), MAX_LENGTH);
+        this.errorCorrection = errorCorrection;
+    }
+
+    @Override
+    protected boolean expand() {
+        if (position == -2) {
+            for (int i = 0; i < LEVELS; i++) {
+                add(LEVEL_COLORS[i], 1);
+            }
+            level = LEVELS - 1;
+            position = errorCorrection ? 0 : -1;
+            return true;
+        } else if (errorCorrection) {
+            return expandBlock();
+        } else if (position == -1) {
+            addBits(length, LENGTH_SLOTS);
+        } else if (position < length) {
+            char c = message.charAt(position);
+            addBits(c <= 0xFF ? c : MorseCodec.UNKNOWN_CHARACTER, SLOTS_PER_BYTE);
+        } else if (position == length) {
+            add(MorseCodec.WHITE, 1);//leave the screen WHITE, as a Morse message does
+        } else {
+            return false;
+        }
+        position++;
+        return true;
+    }
+
+    /**
+     * Produce the next HammingCode block of the length and message bytes, or the final WHITE run
+     *
+     * @return false once there is nothing left to produce
+     */
+    private boolean expandBlock() {
+        if (position > length + 2) {
+            return false;
+        }
+        if (position == length + 2) {
+            add(MorseCodec.WHITE, 1);//leave the screen WHITE, as a Morse message does
+            position++;
+            return true;
+        }
+        for (int i = 0; i < block.length; i++, position++) {
+            block[i] = (byte) byteAt(position);
+        }
+        position = Math.min(position, length + 2);
+        long bits = HammingCode.encodeBlock(block, 0);
+        for (int s = HammingCode.BLOCK_BITS / BITS_PER_SLOT - 1; s >= 0; s--) {
+            addSlot((int) (bits >>> (s * BITS_PER_SLOT)) & ((1 << BITS_PER_SLOT) - 1));
+        }
+        return true;
+    }
+
+    /**
+     * @param index the index within the two length bytes followed by the message
+     * @return the byte, 0 past the end of the message
+     */
+    private int byteAt(int index) {
+        if (index == 0) {
+            return length >> 8;
+        } else if (index == 1) {
+            return length & 0xFF;
+        } else if (index - 2 < length) {
+            char c = message.charAt(index - 2);
+            return c <= 0xFF ? c : MorseCodec.UNKNOWN_CHARACTER;
+        }
+        return 0;
+    }
+
+    /**
+     * @param level a level from 0 to LEVELS - 1
+     * @return the screen color the level is shown as
+     */
+    public static int colorOf(int level) {
+        return LEVEL_COLORS[level];
+    }
+
+    /**
+     * @param previous the level of the previous slot
+     * @param bits     the value sent in the slot, 0 to 3
+     * @return the level of the slot
+     */
+    public static int nextLevel(int previous, int bits) {
+        return (previous + 1 + bits) % LEVELS;
+    }
+
+    /**
+     * @param previous the level of the previous slot
+     * @param level    the level of the slot, different from previous
+     * @return the value sent in the slot, 0 to 3
+     */
+    public static int bitsOf(int previous, int level) {
+        return (level - previous - 1 + 2 * LEVELS) % LEVELS;
+    }
+
+    /**
+     * Append one slot per BITS_PER_SLOT bits of a value, most significant first
+     *
+     * @param value the value
+     * @param slots how many slots it takes
+     */
+    private void addBits(int value, int slots) {
+        for (int s = slots - 1; s >= 0; s--) {
+            addSlot((value >>> (s * BITS_PER_SLOT)) & ((1 << BITS_PER_SLOT) - 1));
+        }
+    }
+
+    /**
+     * Append one slot
+     *
+     * @param bits the value sent in the slot, 0 to 3
+     */
+    private void addSlot(int bits) {
+        level = nextLevel(level, bits);
+        add(LEVEL_COLORS[level], 1);
+    }
+}
@@ -0,0 +1,73 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.nio.charset.Charset;
+
+/**
+ * Remembers the names of the devices that wrote relayed broadcasts, so the name carried by every broadcast
+ * from the same device is decoded into a String once rather than for each message. Slots are picked by
+ * the device's random origin id, and a device whose slot is taken by another just has its name decoded
+ * again. Only used by the thread reading one connection.
+ */
+public class NameCache {
+    /** how names are encoded in broadcast headers */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** the origin id of the device each slot holds the name of */
+    private final int[] origins;
+    /** the encoded name in each slot, compared with the received bytes so a renamed device is noticed */
+    private final byte[][] encoded;
+    /** the decoded name in each slot, null for an empty slot */
+    private final String[] names;
+
+    /**
+     * Constructor
+     *
+     * @param slots the number of names to remember, a power of two
+     */
+    public NameCache(int slots) {
+        origins = new int[slots];
+        encoded = new byte[slots][];
+        names = new String[slots];
+    }
+
+    /**
+     * Get the name a device sent, decoding it only if it is not the one remembered for the device
+     *
+     * @param origin the origin id of the device that wrote the message
+     * @param src    the array holding the encoded name
+     * @param offset the index of the first byte of the name
+     * @param length the number of bytes in the name
+     * @return the decoded name
+     */
+    public String get(int origin, byte[] src, int offset, int length) {
+        int slot = origin & (names.length - 1);
+        if (names[slot] != null && origins[slot] == origin && matches(encoded[slot], src, offset, length)) {
+            return names[slot];
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(src, offset, bytes, 0, length);
+        origins[slot] = origin;
+        encoded[slot] = bytes;
+        names[slot] = new String(bytes, UTF_8);
+        return names[slot];
+    }
+
+    /**
+     * @param bytes  the remembered name
+     * @param src    the array holding the received name
+     * @param offset the index of the first byte of the received name
+     * @param length the number of bytes in the received name
+     * @return true if the two names are the same bytes
+     */
+    private static boolean matches(byte[] bytes, byte[] src, int offset, int length) {
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != src[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * One peer's copy of a WriteRequest, numbered for that peer. It sits in the peer's ReliableLink until
+ * it is acknowledged, and is handed to a FrameWriter every time it has to be sent, including again on
+ * the next connection if the one it was first sent on drops.
+ */
+public class OutgoingFrame {
+    /** the message being sent */
+    private final WriteRequest request;
+    /** the sequence number of the frame on this peer's link, or ChatFrame.NO_SEQ for a control frame */
+    private final int seq;
+    /** number of times the frame has been flushed to a socket */
+    private volatile int transmissions = 0;
+    /** when the frame was last flushed to a socket, in ns on the System.nanoTime() clock */
+    private volatile long sentNanos;
+    /** set once the peer has reported holding the frame ahead of a gap, guarded by the link */
+    private boolean sacked = false;
+
+    /**
+     * Constructor
+     *
+     * @param request the message being sent
+     * @param seq     the sequence number of the frame on this peer's link, or ChatFrame.NO_SEQ
+     */
+    public OutgoingFrame(WriteRequest request, int seq) {
+        this.request = request;
+        this.seq = seq;
+    }
+
+    /**
+     * @return the message being sent
+     */
+    public WriteRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the sequence number of the frame, or ChatFrame.NO_SEQ
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    /**
+     * @return true for a numbered chat message, which is owned by a ReliableLink rather than the writer
+     */
+    public boolean isSequenced() {
+        return seq != ChatFrame.NO_SEQ;
+    }
+
+    /**
+     * @return the number of times the frame has been flushed to a socket
+     */
+    public int getTransmissions() {
+        return transmissions;
+    }
+
+    /**
+     * @return when the frame was last flushed to a socket, in ns on the System.nanoTime() clock
+     */
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    /**
+     * @return true if the peer has reported holding the frame, so it does not need to be sent again
+     */
+    public boolean isSacked() {
+        return sacked;
+    }
+
+    /**
+     * Record that the peer holds the frame ahead of a gap
+     */
+    void setSacked() {
+        sacked = true;
+    }
+
+    /**
+     * Record that the frame was flushed to a socket, called by the FrameWriter
+     *
+     * @param nowNanos the current System.nanoTime()
+     */
+    void onSent(long nowNanos) {
+        sentNanos = nowNanos;
+        transmissions++;
+    }
+}
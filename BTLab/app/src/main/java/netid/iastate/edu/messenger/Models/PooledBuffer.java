@@ -0,0 +1,103 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted byte array handed out by a BufferPool. Whoever receives one owns a single
+ * reference and must call release() once they are done reading it, after which the array goes back
+ * to the pool and will be overwritten by a later read.
+ */
+public final class PooledBuffer {
+    /** the pool this buffer goes back to, null when the buffer was allocated outside the pool */
+    private final BufferPool pool;
+    /** the backing array, its size never changes */
+    private final byte[] data;
+    /** the number of valid bytes at the start of data */
+    private int length;
+    /** number of outstanding references, the buffer is free while this is 0 */
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param pool     the owning pool, or null for a one off buffer
+     * @param capacity the size of the backing array
+     */
+    PooledBuffer(BufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Try to take this buffer for a new owner
+     *
+     * @return true if the buffer was free and now has a single reference
+     */
+    boolean tryClaim() {
+        if (refCount.compareAndSet(0, 1)) {
+            length = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copy bytes into the start of the buffer, replacing its contents
+     *
+     * @param src    the array to copy from
+     * @param offset the index of the first byte to copy
+     * @param length the number of bytes to copy, must fit within capacity()
+     */
+    public void put(byte[] src, int offset, int length) {
+        System.arraycopy(src, offset, data, 0, length);
+        this.length = length;
+    }
+
+    /**
+     * @return the backing array, only the first getLength() bytes are valid
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the number of valid bytes in getData()
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the size of the backing array
+     */
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * Add a reference, for when the buffer is handed to more than one consumer
+     *
+     * @return this buffer
+     */
+    public PooledBuffer retain() {
+        refCount.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Drop a reference. When the last one is dropped the buffer becomes free for the pool to hand out again.
+     */
+    public void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining < 0) {
+            throw new IllegalStateException("PooledBuffer released more times than it was retained");
+        }
+    }
+
+    /**
+     * @return true if this buffer belongs to a pool rather than being a one off allocation
+     */
+    public boolean isPooled() {
+        return pool != null;
+    }
+}
@@ -0,0 +1,54 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A CharBuffer handed out by a CharBufferPool. Whoever receives one owns it and must call release() once
+ * they are done reading it, after which the buffer goes back to the pool and will be overwritten by a
+ * later message.
+ */
+public final class PooledCharBuffer {
+    /** the backing buffer, its capacity never changes */
+    private final CharBuffer buffer;
+    /** set while the buffer is owned, the pool only hands out buffers that are not */
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of chars the buffer holds
+     */
+    PooledCharBuffer(int capacity) {
+        buffer = CharBuffer.allocate(capacity);
+    }
+
+    /**
+     * Try to take this buffer for a new owner
+     *
+     * @return true if the buffer was free and is now empty and owned by the caller
+     */
+    boolean tryClaim() {
+        if (claimed.compareAndSet(false, true)) {
+            buffer.clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the backing buffer, once filled its remaining chars are the text
+     */
+    public CharBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Hand the buffer back to the pool, it must not be read afterwards
+     */
+    public void release() {
+        if (!claimed.compareAndSet(true, false)) {
+            throw new IllegalStateException("PooledCharBuffer released more than once");
+        }
+    }
+}
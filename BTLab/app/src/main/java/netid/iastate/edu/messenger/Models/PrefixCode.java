@@ -0,0 +1,155 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A prefix code of DOTs and DASHes built from how often each character turns up in chat. Because no pattern
+ * is the start of another one the receiver knows where a character ends without an END_CHARACTER, the most
+ * expensive symbol Morse has, and PrefixSchedule sends every symbol as a single run, 1 unit for a DOT and
+ * 2 for a DASH.
+ *
+ * The tree is built with Huffman's algorithm from CHAT_WEIGHTS. Huffman assumes both symbols cost the same,
+ * but a DASH takes twice as long as a DOT, so at every node the more frequent side is put on the DOT. That is
+ * not always the exact optimum for unequal symbol costs but it comes close, and it is built once when the
+ * class loads. Patterns are packed the same way as MorseCodec.codeOf(), so they are read with
+ * MorseCodec.patternLength() and MorseCodec.isDash().
+ */
+public final class PrefixCode {
+    /** the characters the chat code can send, upper case letters are sent as lower case */
+    private static final String CHAT_ALPHABET = "etaoinshrdlcumwfgypbvkjxqz 0123456789.,?!'";
+    /**
+     * how often each character of CHAT_ALPHABET turns up, per 10000 letters. The letters are the usual English
+     * letter frequencies, the space follows from an average word of about 4.7 letters, and digits and
+     * punctuation are rough counts from chat messages
+     */
+    private static final int[] CHAT_WEIGHTS = {
+            1270, 906, 817, 751, 697, 675, 633, 609, 599, 425, 403, 278, 276, 241, 236, 223, 202, 197, 193, 149,
+            98, 77, 15, 15, 10, 7,
+            2100,
+            25, 25, 20, 20, 15, 15, 15, 15, 15, 15,
+            65, 60, 30, 30, 25,
+    };
+    /** the code used for the flash prefix code mode */
+    public static final PrefixCode CHAT = new PrefixCode(CHAT_ALPHABET, CHAT_WEIGHTS);
+
+    /** the node every pattern starts from */
+    public static final int ROOT = 0;
+    /** the longest pattern that can be packed into a code */
+    public static final int MAX_PATTERN_LENGTH = 16;
+
+    /** indexed by char, the packed pattern, 0 if the character is not supported */
+    private final int[] encode = new int[128];
+    /** for each node, the node a DOT leads to, or -1 for a leaf */
+    private final int[] dotChild;
+    /** for each node, the node a DASH leads to, or -1 for a leaf */
+    private final int[] dashChild;
+    /** for each node, the character of a leaf, or 0 */
+    private final char[] leaf;
+
+    /**
+     * Build a code
+     *
+     * @param alphabet the characters to encode, lower case letters also encode their upper case
+     * @param weights  how often each character is sent, in any unit
+     */
+    public PrefixCode(String alphabet, int[] weights) {
+        int nodeCount = 2 * alphabet.length() - 1;
+        final long[] weight = new long[nodeCount];
+        int[] first = new int[nodeCount];
+        int[] second = new int[nodeCount];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(alphabet.length(), new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                // break ties by creation order so every device builds the same tree
+                int c = Long.compare(weight[a], weight[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            }
+        });
+        for (int i = 0; i < alphabet.length(); i++) {
+            weight[i] = weights[i];
+            first[i] = -1;
+            second[i] = -1;
+            queue.add(i);
+        }
+        int next = alphabet.length();
+        while (queue.size() > 1) {
+            int a = queue.poll();
+            int b = queue.poll();
+            weight[next] = weight[a] + weight[b];
+            // the heavier side goes on the cheaper DOT
+            first[next] = weight[a] >= weight[b] ? a : b;
+            second[next] = weight[a] >= weight[b] ? b : a;
+            queue.add(next++);
+        }
+
+        // number the nodes from the root so ROOT is 0
+        dotChild = new int[nodeCount];
+        dashChild = new int[nodeCount];
+        leaf = new char[nodeCount];
+        int[] built = new int[nodeCount];
+        int[] codes = new int[nodeCount];
+        built[0] = nodeCount - 1;
+        int size = 1;
+        for (int n = 0; n < size; n++) {
+            int original = built[n];
+            int length = codes[n] >>> 16;
+            if (original < alphabet.length()) {
+                char c = alphabet.charAt(original);
+                leaf[n] = c;
+                dotChild[n] = -1;
+                dashChild[n] = -1;
+                encode[c] = codes[n];
+                encode[Character.toUpperCase(c)] = codes[n];
+                continue;
+            }
+            if (length == MAX_PATTERN_LENGTH) {
+                throw new IllegalArgumentException("Weights give patterns longer than " + MAX_PATTERN_LENGTH);
+            }
+            int bits = codes[n] & 0xFFFF;
+            dotChild[n] = size;
+            codes[size] = ((length + 1) << 16) | (bits << 1);
+            built[size++] = first[original];
+            dashChild[n] = size;
+            codes[size] = ((length + 1) << 16) | (bits << 1) | 1;
+            built[size++] = second[original];
+        }
+    }
+
+    /**
+     * Look up the pattern of a character
+     *
+     * @param c the character to encode
+     * @return the packed pattern, read it with MorseCodec.patternLength() and MorseCodec.isDash(), or 0 if the character is not supported
+     */
+    public int codeOf(char c) {
+        return c < encode.length ? encode[c] : 0;
+    }
+
+    /**
+     * Move one symbol down the tree
+     *
+     * @param node the current node, ROOT at the start of a character
+     * @param dash true for a DASH, false for a DOT
+     * @return the next node, check it with isLeaf()
+     */
+    public int step(int node, boolean dash) {
+        return dash ? dashChild[node] : dotChild[node];
+    }
+
+    /**
+     * @param node a node
+     * @return true if a pattern ends on the node
+     */
+    public boolean isLeaf(int node) {
+        return leaf[node] != 0;
+    }
+
+    /**
+     * @param node a leaf
+     * @return the character the pattern ending on it stands for
+     */
+    public char characterAt(int node) {
+        return leaf[node];
+    }
+}
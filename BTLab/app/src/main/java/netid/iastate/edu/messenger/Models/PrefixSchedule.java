@@ -0,0 +1,63 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * The FlashSchedule for a message in a PrefixCode. Every symbol is a single run, 1 unit for a DOT and 2 for a
+ * DASH, and the runs alternate between BLACK and WHITE, so the WHITE runs carry symbols too instead of only
+ * separating them as in Morse. There is no END_CHARACTER since the code itself shows where each character
+ * ends. The message finishes with a run of at least END_CHARACTER_UNITS, which marks the end of the last
+ * symbol and leaves the screen WHITE.
+ */
+public class PrefixSchedule extends FlashSchedule {
+    /** the code the message is sent in */
+    private final PrefixCode code;
+    /** the message being sent */
+    private final CharSequence message;
+    /** index of the next character of message to expand */
+    private int messageIndex = 0;
+    /** the color of the next run */
+    private int nextColor = MorseCodec.BLACK;
+    /** true once the final run has been produced */
+    private boolean finished = false;
+
+    /**
+     * Constructor
+     *
+     * @param code    the code to send the message in
+     * @param message the message to send, unsupported characters are skipped
+     */
+    public PrefixSchedule(PrefixCode code, CharSequence message) {
+        super(MODE_PREFIX, Math.max(PrefixCode.MAX_PATTERN_LENGTH, 2));
+        this.code = code;
+        this.message = message;
+    }
+
+    @Override
+    protected boolean expand() {
+        if (messageIndex < message.length()) {
+            int pattern = code.codeOf(message.charAt(messageIndex++));
+            for (int s = 0; s < MorseCodec.patternLength(pattern); s++) {
+                addRun(MorseCodec.isDash(pattern, s) ? MorseSchedule.DASH_UNITS : MorseSchedule.DOT_UNITS);
+            }
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        if (nextColor == MorseCodec.BLACK) {
+            add(MorseCodec.BLACK, MorseSchedule.END_CHARACTER_UNITS);//the last symbol was WHITE, end it with a long BLACK
+        }
+        add(MorseCodec.WHITE, MorseSchedule.END_CHARACTER_UNITS);
+        finished = true;
+        return true;
+    }
+
+    /**
+     * Append a symbol's run in the next color
+     *
+     * @param length the number of units
+     */
+    private void addRun(int length) {
+        add(nextColor, length);
+        nextColor = nextColor == MorseCodec.BLACK ? MorseCodec.WHITE : MorseCodec.BLACK;
+    }
+}
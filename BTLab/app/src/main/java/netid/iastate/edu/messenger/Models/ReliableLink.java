@@ -0,0 +1,390 @@
+package netid.iastate.edu.messenger.Models;
+
+/**
+ * The numbered traffic between this device and one peer. It outlives the connection it is carried
+ * on: frames the peer has not acknowledged stay here, so when the peer reconnects only they are sent
+ * again, and the highest number received in order tells the peer which of its frames to drop.
+ * Up to a window of frames are in flight at once, frames that arrive ahead of a gap are held back and
+ * reported to the peer in selective acknowledgements so it only resends what is missing, and the
+ * retransmission timeout follows the measured round trip time. Sequence numbers skip NO_SEQ and are
+ * compared by their distance so they keep working after wrapping round. Not thread safe.
+ */
+public class ReliableLink {
+    /** returned by onReceived() for the next frame in order, which should be delivered */
+    public static final int RECEIVED_NEXT = 0;
+    /** returned by onReceived() for a frame ahead of a gap, which should be held until the gap is filled */
+    public static final int RECEIVED_EARLY = 1;
+    /** returned by onReceived() for a frame already received or held, or too far ahead to hold */
+    public static final int RECEIVED_DUPLICATE = 2;
+
+    /** the retransmission timeout before the first round trip has been measured, in ns */
+    public static final long INITIAL_RTO_NANOS = 1_000_000_000L;
+    /** the shortest retransmission timeout, so a few fast round trips don't make it fire on a brief stall */
+    public static final long MIN_RTO_NANOS = 200_000_000L;
+    /** the longest retransmission timeout, however often it has been backed off */
+    public static final long MAX_RTO_NANOS = 60_000_000_000L;
+
+    /** frames sent or waiting to be sent and not acknowledged yet, oldest first, a power of two long */
+    private final OutgoingFrame[] unacked;
+    /** index of the oldest unacknowledged frame */
+    private int head = 0;
+    /** number of unacknowledged frames */
+    private int size = 0;
+    /** number of the oldest unacknowledged frames that have been handed to a writer */
+    private int inFlight = 0;
+    /** the most frames handed to a writer and not acknowledged at once */
+    private int window;
+    /** the sequence number given to the next frame */
+    private int nextSeq = 1;
+    /** the highest sequence number received from the peer with nothing missing before it */
+    private int receivedSeq = ChatFrame.NO_SEQ;
+    /** payloads that arrived ahead of a gap, slot i from heldHead holds the frame i + 1 after receivedSeq */
+    private final PooledBuffer[] held;
+    /** the frame types of the held payloads */
+    private final byte[] heldTypes;
+    /** index in held of the next frame expected, which is only ever held once frames after it have been delivered */
+    private int heldHead = 0;
+    /** number of held payloads */
+    private int heldCount = 0;
+    /** smoothed round trip time, in ns, 0 until the first sample */
+    private long srttNanos = 0;
+    /** smoothed mean deviation of the round trip time, in ns */
+    private long rttvarNanos = 0;
+    /** the current retransmission timeout, in ns */
+    private long rtoNanos = INITIAL_RTO_NANOS;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the most frames that may be waiting for acknowledgement, rounded up to a power of two
+     * @param window   the most frames that may be in flight at once
+     */
+    public ReliableLink(int capacity, int window) {
+        this(capacity, window, 1);
+    }
+
+    /**
+     * Constructor for a link whose numbering starts somewhere other than 1, so tests can run it across the wrap
+     *
+     * @param capacity the most frames that may be waiting for acknowledgement, rounded up to a power of two
+     * @param window   the most frames that may be in flight at once
+     * @param firstSeq the sequence number of the first frame each side sends, not NO_SEQ
+     */
+    ReliableLink(int capacity, int window, int firstSeq) {
+        unacked = new OutgoingFrame[Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1];
+        held = new PooledBuffer[unacked.length];
+        heldTypes = new byte[unacked.length];
+        setWindow(window);
+        nextSeq = firstSeq;
+        receivedSeq = firstSeq - 1;
+    }
+
+    /**
+     * @param window the most frames that may be in flight at once, at least 1 and at most the capacity
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, Math.min(window, unacked.length));
+    }
+
+    /**
+     * Number a request for this peer and keep it until it is acknowledged
+     *
+     * @param request the message to send
+     * @return the numbered frame, or null if too many frames are unacknowledged
+     */
+    public OutgoingFrame add(WriteRequest request) {
+        if (size == unacked.length) {
+            return null;
+        }
+        OutgoingFrame frame = new OutgoingFrame(request, nextSeq);
+        nextSeq = next(nextSeq);
+        unacked[(head + size) & (unacked.length - 1)] = frame;
+        size++;
+        return frame;
+    }
+
+    /**
+     * Take the next frame to hand to the writer, if the window has room for it. Frames the peer has
+     * selectively acknowledged are skipped, they only have to wait for the gap before them to be filled.
+     *
+     * @return the frame, or null if every frame is in flight or the window is full
+     */
+    public OutgoingFrame pollSendable() {
+        while (inFlight < size && inFlight < window) {
+            OutgoingFrame frame = get(inFlight++);
+            if (!frame.isSacked()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count every frame as not sent yet, so pollSendable() goes back to the oldest. Used when the frames in
+     * flight were lost with a connection or have timed out.
+     */
+    public void rewind() {
+        inFlight = 0;
+    }
+
+    /**
+     * @return the number of the oldest frames that have been handed to a writer and not acknowledged
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Take out the oldest frame if the peer has acknowledged it. Call until it returns null to apply a whole acknowledgement.
+     *
+     * @param ackSeq the highest sequence number the peer has received in order
+     * @return the acknowledged frame, or null if the oldest frame has not been acknowledged
+     */
+    public OutgoingFrame pollAcked(int ackSeq) {
+        if (size == 0 || distance(unacked[head].getSeq(), ackSeq) < 0) {
+            return null;
+        }
+        return poll();
+    }
+
+    /**
+     * Mark the frames the peer has received ahead of a gap, so they are not sent again
+     *
+     * @param start the first sequence number of a block the peer holds
+     * @param end   the last sequence number of the block
+     */
+    public void onSack(int start, int end) {
+        for (int i = 0; i < size; i++) {
+            OutgoingFrame frame = get(i);
+            if (distance(start, frame.getSeq()) >= 0 && distance(frame.getSeq(), end) >= 0) {
+                frame.setSacked();
+            }
+        }
+    }
+
+    /**
+     * Take out the oldest frame whether or not it has been acknowledged, used when giving up on the peer
+     *
+     * @return the oldest frame, or null if there is none
+     */
+    public OutgoingFrame poll() {
+        if (size == 0) {
+            return null;
+        }
+        OutgoingFrame frame = unacked[head];
+        unacked[head] = null;
+        head = (head + 1) & (unacked.length - 1);
+        size--;
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        return frame;
+    }
+
+    /**
+     * @return the number of frames that have not been acknowledged
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 0 for the oldest
+     * @return an unacknowledged frame
+     */
+    public OutgoingFrame get(int index) {
+        return unacked[(head + index) & (unacked.length - 1)];
+    }
+
+    /**
+     * Start the link over, used when the peer no longer has its side of it. The unacknowledged frames are
+     * kept and numbered again from the start so they are sent again, and nothing counts as received yet.
+     */
+    public void reset() {
+        nextSeq = 1;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (unacked.length - 1);
+            unacked[index] = new OutgoingFrame(unacked[index].getRequest(), nextSeq);
+            nextSeq = next(nextSeq);
+        }
+        inFlight = 0;
+        receivedSeq = ChatFrame.NO_SEQ;
+        releaseHeld();
+    }
+
+    /**
+     * Check a numbered frame from the peer
+     *
+     * @param seq the sequence number of the frame
+     * @return RECEIVED_NEXT if it should be delivered, RECEIVED_EARLY if it should be held, or RECEIVED_DUPLICATE
+     */
+    public int onReceived(int seq) {
+        int slot = distance(receivedSeq, seq) - 1;
+        if (slot == 0) {
+            receivedSeq = seq;
+            heldHead = (heldHead + 1) & (held.length - 1);
+            return RECEIVED_NEXT;
+        }
+        if (slot < 0 || slot >= held.length || held[(heldHead + slot) & (held.length - 1)] != null) {
+            return RECEIVED_DUPLICATE;
+        }
+        return RECEIVED_EARLY;
+    }
+
+    /**
+     * Keep a frame that onReceived() said was early
+     *
+     * @param seq     the sequence number of the frame
+     * @param type    the frame type
+     * @param payload a copy of the payload, released by the link if it is reset before the frame is delivered
+     */
+    public void hold(int seq, byte type, PooledBuffer payload) {
+        int slot = (heldHead + distance(receivedSeq, seq) - 1) & (held.length - 1);
+        held[slot] = payload;
+        heldTypes[slot] = type;
+        heldCount++;
+    }
+
+    /**
+     * @return the type of the held frame that is next in order, or 0 if the next frame has not arrived
+     */
+    public byte peekHeldType() {
+        return held[heldHead] != null ? heldTypes[heldHead] : 0;
+    }
+
+    /**
+     * Take out the held frame that is next in order, it counts as received
+     *
+     * @return its payload, which the caller now owns, or null if the next frame has not arrived
+     */
+    public PooledBuffer pollHeld() {
+        PooledBuffer payload = held[heldHead];
+        if (payload == null) {
+            return null;
+        }
+        held[heldHead] = null;
+        heldCount--;
+        heldHead = (heldHead + 1) & (held.length - 1);
+        receivedSeq = next(receivedSeq);
+        return payload;
+    }
+
+    /**
+     * Release every held payload, used when giving up on the peer
+     */
+    public void releaseHeld() {
+        for (int i = 0; i < held.length; i++) {
+            if (held[i] != null) {
+                held[i].release();
+                held[i] = null;
+            }
+        }
+        heldHead = 0;
+        heldCount = 0;
+    }
+
+    /**
+     * Write the runs of held frames into an acknowledgement
+     *
+     * @param dst       the array to write into
+     * @param offset    where the first block should start within dst
+     * @param maxBlocks the most blocks to write, the ones closest to the gap are written first
+     * @return the number of blocks written, each one the first and last sequence number of a run of held frames
+     */
+    public int writeSackBlocks(byte[] dst, int offset, int maxBlocks) {
+        int blocks = 0;
+        int seen = 0;
+        int seq = next(receivedSeq);
+        for (int i = 1; i < held.length && seen < heldCount && blocks < maxBlocks; i++) {
+            seq = next(seq);
+            if (held[(heldHead + i) & (held.length - 1)] == null) {
+                continue;
+            }
+            int start = seq;
+            seen++;
+            while (i + 1 < held.length && held[(heldHead + i + 1) & (held.length - 1)] != null) {
+                i++;
+                seen++;
+                seq = next(seq);
+            }
+            ChatFrame.writeInt(dst, offset, start);
+            ChatFrame.writeInt(dst, offset + ChatFrame.SACK_BLOCK_LENGTH / 2, seq);
+            offset += ChatFrame.SACK_BLOCK_LENGTH;
+            blocks++;
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the highest sequence number received from the peer with nothing missing before it, sent back in acknowledgements
+     */
+    public int getReceivedSeq() {
+        return receivedSeq;
+    }
+
+    /**
+     * Update the round trip estimate and the retransmission timeout from a measured round trip, as in RFC 6298.
+     * Only frames that were sent once give a sample, the acknowledgement of a resent frame could be for either copy.
+     *
+     * @param rttNanos the time from flushing a frame to receiving its acknowledgement, in ns
+     */
+    public void onRttSample(long rttNanos) {
+        if (srttNanos == 0) {
+            srttNanos = Math.max(rttNanos, 1);
+            rttvarNanos = rttNanos / 2;
+        } else {
+            rttvarNanos = (3 * rttvarNanos + Math.abs(srttNanos - rttNanos)) / 4;
+            srttNanos = (7 * srttNanos + rttNanos) / 8;
+        }
+        rtoNanos = Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, srttNanos + 4 * rttvarNanos));
+    }
+
+    /**
+     * Double the retransmission timeout after it has fired, it stays backed off until a new round trip is measured
+     */
+    public void backOff() {
+        rtoNanos = Math.min(MAX_RTO_NANOS, 2 * rtoNanos);
+    }
+
+    /**
+     * @return the current retransmission timeout, in ns
+     */
+    public long getRtoNanos() {
+        return rtoNanos;
+    }
+
+    /**
+     * @return the smoothed round trip time, in ns, or 0 if none has been measured
+     */
+    public long getSrttNanos() {
+        return srttNanos;
+    }
+
+    /**
+     * @param seq a sequence number
+     * @return the sequence number after it, skipping NO_SEQ
+     */
+    private static int next(int seq) {
+        return seq + 1 == ChatFrame.NO_SEQ ? seq + 2 : seq + 1;
+    }
+
+    /**
+     * Count how many steps of next() lead from one sequence number to another, only meaningful for numbers
+     * within a few windows of each other
+     *
+     * @param from a sequence number
+     * @param to   another sequence number
+     * @return the number of steps, negative if to comes before from
+     */
+    static int distance(int from, int to) {
+        int d = to - from;
+        if (d > 0 && from < ChatFrame.NO_SEQ && to > ChatFrame.NO_SEQ) {
+            // stepped over NO_SEQ going forwards
+            d--;
+        } else if (d < 0 && from > ChatFrame.NO_SEQ && to < ChatFrame.NO_SEQ) {
+            // stepped over NO_SEQ going backwards
+            d++;
+        }
+        return d;
+    }
+}
@@ -0,0 +1,162 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the ids of recently seen broadcast messages so that a message reaching a device over several
+ * paths is delivered and relayed only once. Ids are forgotten after a fixed time, or oldest first once the
+ * cache is full, so memory stays bounded however long the chat runs. The ids are kept in a ring in the order
+ * they were added, which is also the order they expire in, and indexed by an open addressed hash table so
+ * lookups don't allocate. Not thread safe.
+ */
+public class SeenCache {
+    /** marks an empty slot in the hash table, so 0 is never a valid id */
+    public static final long NO_ID = 0;
+
+    /** the ids in the order they were added */
+    private final long[] ids;
+    /** when each id in ids was added */
+    private final long[] addedNanos;
+    /** ids by hash, linear probing, twice the size of the ring so probes stay short */
+    private final long[] table;
+    /** how long an id is remembered, in ns */
+    private final long ttlNanos;
+    /** ring index of the oldest id */
+    private int head = 0;
+    /** number of ids in the ring */
+    private int size = 0;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the most ids remembered at once, rounded up to a power of two
+     * @param ttlNanos how long an id is remembered, in ns
+     */
+    public SeenCache(int capacity, long ttlNanos) {
+        int ring = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        ids = new long[ring];
+        addedNanos = new long[ring];
+        table = new long[2 * ring];
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * Record an id unless it has been seen within the time to live
+     *
+     * @param id        the message id, must not be NO_ID
+     * @param nowNanos  the current time on any monotonic clock, in ns
+     * @return true if the id is new, false if it is a duplicate
+     */
+    public boolean add(long id, long nowNanos) {
+        expire(nowNanos);
+        int slot = find(id);
+        if (table[slot] == id) {
+            return false;
+        }
+        if (size == ids.length) {
+            removeOldest();
+            // removing may have shifted entries into the probe sequence
+            slot = find(id);
+        }
+        table[slot] = id;
+        int tail = (head + size) & (ids.length - 1);
+        ids[tail] = id;
+        addedNanos[tail] = nowNanos;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param id the message id
+     * @return true if the id is remembered, expired ids still count until the next add()
+     */
+    public boolean contains(long id) {
+        return table[find(id)] == id;
+    }
+
+    /**
+     * @return the number of ids remembered
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forget every id
+     */
+    public void clear() {
+        Arrays.fill(table, NO_ID);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Forget the ids older than the time to live
+     *
+     * @param nowNanos the current time, in ns
+     */
+    private void expire(long nowNanos) {
+        while (size > 0 && nowNanos - addedNanos[head] > ttlNanos) {
+            removeOldest();
+        }
+    }
+
+    /**
+     * Forget the oldest id
+     */
+    private void removeOldest() {
+        remove(ids[head]);
+        head = (head + 1) & (ids.length - 1);
+        size--;
+    }
+
+    /**
+     * Find the slot holding an id, or the empty slot where it would go
+     *
+     * @param id the message id
+     * @return an index into table
+     */
+    private int find(long id) {
+        int mask = table.length - 1;
+        int slot = hash(id) & mask;
+        while (table[slot] != NO_ID && table[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Take an id out of the hash table, shifting later entries of its probe sequence back so that none of them
+     * end up behind an empty slot
+     *
+     * @param id the message id, must be in the table
+     */
+    private void remove(long id) {
+        int mask = table.length - 1;
+        int hole = find(id);
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long moved = table[slot];
+            if (moved == NO_ID) {
+                break;
+            }
+            // an entry can fill the hole only if the hole lies between its home slot and where it is now
+            int home = hash(moved) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = moved;
+                hole = slot;
+            }
+        }
+        table[hole] = NO_ID;
+    }
+
+    /**
+     * @param id the message id
+     * @return a well mixed hash of the id, ids made of a random origin and a counter are not
+     */
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+}
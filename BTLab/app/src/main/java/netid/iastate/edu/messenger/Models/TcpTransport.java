@@ -0,0 +1,140 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import netid.iastate.edu.messenger.Interfaces.ChatConnection;
+import netid.iastate.edu.messenger.Interfaces.ChatServer;
+import netid.iastate.edu.messenger.Interfaces.ChatTransport;
+
+/**
+ * ChatTransport over TCP sockets on the loopback interface, used to load test the ChatModel on one
+ * machine. Addresses are "host:port" strings, or just a port number for localhost.
+ */
+public class TcpTransport implements ChatTransport {
+    /** the port listen() binds to, 0 picks any free port */
+    private final int listenPort;
+
+    /**
+     * Constructor
+     *
+     * @param listenPort the loopback port to accept connections on, 0 for any free port
+     */
+    public TcpTransport(int listenPort) {
+        this.listenPort = listenPort;
+    }
+
+    @Override
+    public ChatServer listen() throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), listenPort));
+        return new TcpServer(serverSocket);
+    }
+
+    @Override
+    public ChatConnection createConnection(String address) throws IOException {
+        int split = address.lastIndexOf(':');
+        try {
+            if (split < 0) {
+                return new TcpConnection(new Socket(), new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address)));
+            }
+            return new TcpConnection(new Socket(), new InetSocketAddress(address.substring(0, split), Integer.parseInt(address.substring(split + 1))));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid TCP address " + address, e);
+        }
+    }
+
+    @Override
+    public String getLocalName() {
+        return "localhost:" + listenPort;
+    }
+
+    /**
+     * Wraps a listening server socket
+     */
+    private static class TcpServer implements ChatServer {
+        /** the listening socket */
+        private final ServerSocket serverSocket;
+
+        /**
+         * Constructor
+         *
+         * @param serverSocket the bound listening socket
+         */
+        TcpServer(ServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public ChatConnection accept() throws IOException {
+            Socket socket = serverSocket.accept();
+            return new TcpConnection(socket, (InetSocketAddress) socket.getRemoteSocketAddress());
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Wraps a connected or connecting TCP socket
+     */
+    private static class TcpConnection implements ChatConnection {
+        /** the socket to the remote end */
+        private final Socket socket;
+        /** the address of the remote end */
+        private final InetSocketAddress remote;
+
+        /**
+         * Constructor
+         *
+         * @param socket the socket, connected if it came from accept()
+         * @param remote the address of the remote end
+         */
+        TcpConnection(Socket socket, InetSocketAddress remote) {
+            this.socket = socket;
+            this.remote = remote;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (!socket.isConnected()) {
+                socket.connect(remote);
+            }
+            // chat frames are already batched by the FrameWriter, so don't let Nagle delay them further
+            socket.setTcpNoDelay(true);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remote.getHostString() + ":" + remote.getPort();
+        }
+
+        @Override
+        public String getRemoteName() {
+            return getRemoteAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the UTF-8 text of received messages into pooled CharBuffers. Each connection has its own, so the
+ * decoder and the ByteBuffer wrapping the read buffer are made once rather than for every message. Bytes
+ * that are not valid UTF-8 come out as U+FFFD rather than failing the message. Only used by the thread
+ * reading the connection.
+ */
+public class TextDecoder {
+    /** the UTF-8 decoder, reset before every message */
+    private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** where the decoded text goes */
+    private final CharBufferPool pool;
+    /** wraps the array the last message was decoded from, rewrapped only when the array changes */
+    private ByteBuffer input;
+
+    /**
+     * Constructor
+     *
+     * @param pool where the decoded text goes
+     */
+    public TextDecoder(CharBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Decode one whole message
+     *
+     * @param src    the array holding the message
+     * @param offset the index of the first byte of the message
+     * @param length the number of bytes in the message
+     * @return the text, ready to be read from its buffer, which the caller must release
+     */
+    public PooledCharBuffer decode(byte[] src, int offset, int length) {
+        if (input == null || input.array() != src) {
+            input = ByteBuffer.wrap(src);
+        }
+        input.clear();
+        input.position(offset);
+        input.limit(offset + length);
+
+        // UTF-8 never decodes to more chars than it has bytes, so the text always fits
+        PooledCharBuffer text = pool.acquire(length);
+        CharBuffer out = text.getBuffer();
+        decoder.reset();
+        decoder.decode(input, out, true);
+        decoder.flush(out);
+        out.flip();
+        return text;
+    }
+}
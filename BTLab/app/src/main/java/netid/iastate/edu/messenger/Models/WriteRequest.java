@@ -0,0 +1,189 @@
+package netid.iastate.edu.messenger.Models;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A message waiting to be sent. It doubles as the Future handed back to the caller of offer(), which
+ * completes with true once the message has been delivered or false if it could not be. A numbered chat
+ * message is delivered once the peer acknowledges it, which may be on a later connection, and a control
+ * frame once it has been flushed to the socket. A message sent to several peers is a single request
+ * shared by each of their links, and only completes once every copy has been delivered or has failed. The payload can be a
+ * PooledBuffer, which is released once the request completes, so a received frame can be passed on
+ * without being copied.
+ */
+public class WriteRequest implements Future<Boolean> {
+    /** the frame type to send the payload as */
+    private final byte type;
+    /** the array holding the bytes to send */
+    private final byte[] payload;
+    /** the number of bytes to send */
+    private final int length;
+    /** the buffer payload belongs to, released when the request completes, null if payload is a plain array */
+    private final PooledBuffer buffer;
+    /** the number of peers this request is sent to */
+    private final int copies;
+    /** the number of copies that have not been delivered or failed yet */
+    private final AtomicInteger remaining;
+    /** the number of copies delivered so far */
+    private final AtomicInteger copiesSent = new AtomicInteger();
+    /** set once any copy has been flushed to a socket */
+    private final AtomicBoolean sent = new AtomicBoolean(false);
+    /** released once the request has been completed */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Constructor, for a request sent to a single peer
+     *
+     * @param type    one of the ChatFrame.TYPE_ values
+     * @param payload the bytes to send, must not be modified after being queued
+     */
+    public WriteRequest(byte type, byte[] payload) {
+        this(type, payload, 1);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param type    one of the ChatFrame.TYPE_ values
+     * @param payload the bytes to send, must not be modified after being queued
+     * @param copies  the number of peers the request will be sent to
+     */
+    public WriteRequest(byte type, byte[] payload, int copies) {
+        this(type, payload, payload.length, null, copies);
+    }
+
+    /**
+     * Constructor, for bytes in a pooled buffer
+     *
+     * @param type   one of the ChatFrame.TYPE_ values
+     * @param buffer the bytes to send, the request takes over one reference and releases it once every copy has finished
+     * @param copies the number of peers the request will be sent to
+     */
+    public WriteRequest(byte type, PooledBuffer buffer, int copies) {
+        this(type, buffer.getData(), buffer.getLength(), buffer, copies);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param type    one of the ChatFrame.TYPE_ values
+     * @param payload the array holding the bytes to send
+     * @param length  the number of bytes to send from the start of payload
+     * @param buffer  the buffer payload belongs to, or null
+     * @param copies  the number of peers the request will be sent to
+     */
+    private WriteRequest(byte type, byte[] payload, int length, PooledBuffer buffer, int copies) {
+        this.type = type;
+        this.payload = payload;
+        this.length = length;
+        this.buffer = buffer;
+        this.copies = copies;
+        remaining = new AtomicInteger(copies);
+    }
+
+    /**
+     * @return the frame type to send the payload as
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return the array holding the bytes to send, only the first getLength() bytes are valid
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return the number of bytes to send
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the number of peers the request is sent to
+     */
+    public int getCopies() {
+        return copies;
+    }
+
+    /**
+     * @return the number of copies delivered so far
+     */
+    public int getCopiesSent() {
+        return copiesSent.get();
+    }
+
+    /**
+     * Record that a copy has been flushed to a socket
+     *
+     * @return true the first time, when the request first counts as sent
+     */
+    boolean markSent() {
+        return sent.compareAndSet(false, true);
+    }
+
+    /**
+     * Mark one copy of the request as finished, the last one wakes anyone waiting on it
+     *
+     * @param sent true if the copy was delivered
+     * @return true if this was the last copy to finish
+     */
+    boolean complete(boolean sent) {
+        if (sent) {
+            copiesSent.incrementAndGet();
+        }
+        if (remaining.decrementAndGet() != 0) {
+            return false;
+        }
+        if (buffer != null) {
+            buffer.release();
+        }
+        done.countDown();
+        return true;
+    }
+
+    /**
+     * @return true if every copy was delivered, only valid once done has been released
+     */
+    private boolean allSent() {
+        return copiesSent.get() == copies;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        // once queued a request can be coalesced with others at any moment, so it cannot be pulled back out
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException {
+        done.await();
+        return allSent();
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return allSent();
+    }
+}
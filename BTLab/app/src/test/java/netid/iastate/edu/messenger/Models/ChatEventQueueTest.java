@@ -0,0 +1,154 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ChatEventQueue, including events from several threads that must come out in the order they
+ * were reported and rings that spill over between drains.
+ */
+public class ChatEventQueueTest {
+    @Test
+    public void events_drainInOrderWithAllArguments() {
+        ChatEventQueue queue = new ChatEventQueue();
+        Object obj = new Object();
+        assertTrue(queue.report(1, 10, 20, obj, "one"));
+        // the consumer has already been asked to drain
+        assertFalse(queue.report(2, 11, 21, null, "two"));
+
+        Recorder recorder = new Recorder();
+        assertTrue(queue.drain(recorder));
+        assertEquals(2, recorder.types.size());
+        assertEquals(1, (int) recorder.types.get(0));
+        assertEquals(10, (int) recorder.arg1s.get(0));
+        assertEquals(20, (int) recorder.arg2s.get(0));
+        assertSame(obj, recorder.objs.get(0));
+        assertEquals("one", recorder.texts.get(0));
+        assertEquals("two", recorder.texts.get(1));
+
+        assertFalse(queue.drain(new Recorder()));
+        // the next event after a drain asks for another
+        assertTrue(queue.report(3, 0, 0, null, null));
+    }
+
+    @Test
+    public void fullRing_spillsInOrder() {
+        ChatEventQueue queue = new ChatEventQueue();
+        int count = 3 * ChatEventQueue.RING_CAPACITY + 7;
+        for (int i = 0; i < count; i++) {
+            queue.report(1, i, 0, null, null);
+        }
+        Recorder recorder = new Recorder();
+        queue.drain(recorder);
+        assertSequence(recorder.arg1s, 0, count);
+
+        // the ring is used again once the spilled events have been drained
+        for (int i = 0; i < ChatEventQueue.RING_CAPACITY + 1; i++) {
+            queue.report(1, count + i, 0, null, null);
+        }
+        recorder = new Recorder();
+        queue.drain(recorder);
+        assertSequence(recorder.arg1s, count, ChatEventQueue.RING_CAPACITY + 1);
+    }
+
+    @Test
+    public void eventsFromSeveralThreads_keepReportOrder() throws InterruptedException {
+        final ChatEventQueue queue = new ChatEventQueue();
+        final int threads = 4;
+        final int perThread = 20000;
+        final Object lock = new Object();
+        final int[] next = {0};
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        // the lock puts every report in one order, which the queue must keep across the rings
+                        synchronized (lock) {
+                            queue.report(1, next[0]++, 0, null, null);
+                        }
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        Recorder recorder = new Recorder();
+        while (recorder.arg1s.size() < threads * perThread) {
+            // drained while the producers are still reporting, some of them into spilled rings
+            queue.drain(recorder);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        queue.drain(recorder);
+        assertSequence(recorder.arg1s, 0, threads * perThread);
+    }
+
+    @Test
+    public void ringOfExitedThread_isDrainedThenPruned() throws InterruptedException {
+        final ChatEventQueue queue = new ChatEventQueue();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    queue.report(1, i, 0, null, null);
+                }
+            }
+        });
+        producer.start();
+        producer.join();
+        assertEquals(1, queue.getRingCount());
+
+        Recorder recorder = new Recorder();
+        queue.drain(recorder);
+        assertSequence(recorder.arg1s, 0, 10);
+        assertEquals(0, queue.getRingCount());
+
+        // a thread that is still running keeps its ring
+        queue.report(1, 0, 0, null, null);
+        queue.drain(new Recorder());
+        assertEquals(1, queue.getRingCount());
+    }
+
+    /**
+     * @param values the first int argument of every event drained
+     * @param first  the value the events start from
+     * @param count  how many events there should be
+     */
+    private static void assertSequence(List<Integer> values, int first, int count) {
+        assertEquals(count, values.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(first + i, (int) values.get(i));
+        }
+    }
+
+    /**
+     * Keeps every event it is handed
+     */
+    private static class Recorder implements ChatEventQueue.EventHandler {
+        /** the type of each event */
+        final List<Integer> types = new ArrayList<>();
+        /** the first int argument of each event */
+        final List<Integer> arg1s = new ArrayList<>();
+        /** the second int argument of each event */
+        final List<Integer> arg2s = new ArrayList<>();
+        /** the object argument of each event */
+        final List<Object> objs = new ArrayList<>();
+        /** the string argument of each event */
+        final List<String> texts = new ArrayList<>();
+
+        @Override
+        public void onEvent(int type, int arg1, int arg2, Object obj, String text) {
+            types.add(type);
+            arg1s.add(arg1);
+            arg2s.add(arg2);
+            objs.add(obj);
+            texts.add(text);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ChatHistory, including reopening it over the files a crash part way through a write leaves behind.
+ */
+public class ChatHistoryTest {
+    /** a fresh directory for every test */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void messages_roundTrip() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        assertEquals(0, history.append(true, null, "hello there", 3));
+        assertEquals(1, history.append(false, "Pixel 3", "caf\u00e9 \u65e5\u672c \ud83c\udf89", ChatHistory.STATUS_NONE));
+
+        List<ChatRecord> records = history.read(0, 10);
+        assertEquals(2, records.size());
+        assertRecord(records.get(0), 0, true, "", "hello there", 3);
+        assertRecord(records.get(1), 1, false, "Pixel 3", "caf\u00e9 \u65e5\u672c \ud83c\udf89", ChatHistory.STATUS_NONE);
+        assertTrue(records.get(0).getTimeMillis() > 0);
+        history.close();
+    }
+
+    @Test
+    public void charBufferText_isReadInPlace() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        CharBuffer text = CharBuffer.wrap("xxsee you soonxx");
+        text.position(2).limit(14);
+        history.append(false, CharBuffer.wrap("Nexus"), text, ChatHistory.STATUS_NONE);
+        assertEquals(2, text.position());
+        assertEquals(14, text.limit());
+        assertRecord(history.read(0, 1).get(0), 0, false, "Nexus", "see you soon", ChatHistory.STATUS_NONE);
+        history.close();
+    }
+
+    @Test
+    public void longMessage_growsRecordBuffer() throws IOException {
+        char[] chars = new char[6000];
+        Arrays.fill(chars, '\u00e9');
+        String text = new String(chars);
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        history.append(true, null, text, ChatHistory.STATUS_NONE);
+        history.append(true, null, "short", ChatHistory.STATUS_NONE);
+        assertEquals(text, history.read(0, 1).get(0).getText());
+        assertEquals("short", history.read(1, 1).get(0).getText());
+        history.close();
+    }
+
+    @Test
+    public void pages_areReadByIndex() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        for (int i = 0; i < 100; i++) {
+            history.append(i % 2 == 0, null, "message " + i, ChatHistory.STATUS_NONE);
+        }
+        List<ChatRecord> page = history.read(40, 25);
+        assertEquals(25, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(40 + i, page.get(i).getIndex());
+            assertEquals("message " + (40 + i), page.get(i).getText());
+        }
+        assertEquals(3, history.read(97, 25).size());
+        assertTrue(history.read(100, 25).isEmpty());
+        history.close();
+    }
+
+    @Test
+    public void statusAndMessages_surviveReopening() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        for (int i = 0; i < 5; i++) {
+            history.append(true, null, "message " + i, 1);
+        }
+        history.setStatus(2, 7);
+        history.close();
+
+        history = new ChatHistory(folder.getRoot());
+        assertEquals(5, history.size());
+        assertEquals(7, history.read(2, 1).get(0).getStatus());
+        assertEquals(1, history.read(3, 1).get(0).getStatus());
+        assertEquals(5, history.append(true, null, "message 5", 1));
+        assertEquals("message 5", history.read(5, 1).get(0).getText());
+        history.close();
+    }
+
+    @Test
+    public void truncatedTailRecord_isDropped() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        for (int i = 0; i < 3; i++) {
+            history.append(true, null, "message " + i, ChatHistory.STATUS_NONE);
+        }
+        history.close();
+        // the app was killed part way through writing the last record
+        File segment = lastSegment();
+        setLength(segment, segment.length() - 5);
+
+        history = new ChatHistory(folder.getRoot());
+        assertEquals(2, history.size());
+        assertEquals("message 1", history.read(1, 1).get(0).getText());
+        // the torn bytes are cut off, so the next record goes where the torn one started
+        assertEquals(2, history.append(true, null, "after the crash", ChatHistory.STATUS_NONE));
+        history.close();
+
+        history = new ChatHistory(folder.getRoot());
+        assertEquals(3, history.size());
+        assertEquals("after the crash", history.read(2, 1).get(0).getText());
+        history.close();
+    }
+
+    @Test
+    public void corruptTailRecord_isDropped() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        history.append(true, null, "message 0", ChatHistory.STATUS_NONE);
+        history.append(true, null, "message 1", ChatHistory.STATUS_NONE);
+        history.close();
+        File segment = lastSegment();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(segment.length() - 1);
+        file.write('X');
+        file.close();
+
+        history = new ChatHistory(folder.getRoot());
+        assertEquals(1, history.size());
+        assertEquals("message 0", history.read(0, 10).get(0).getText());
+        history.close();
+    }
+
+    @Test
+    public void indexAheadOfLog_isCutBack() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        history.append(true, null, "message 0", ChatHistory.STATUS_NONE);
+        history.append(true, null, "message 1", ChatHistory.STATUS_NONE);
+        long logLength = lastSegment().length();
+        history.append(true, null, "message 2", ChatHistory.STATUS_NONE);
+        history.append(true, null, "message 3", ChatHistory.STATUS_NONE);
+        history.close();
+        // the index reached the disk but the last two records did not
+        setLength(lastSegment(), logLength);
+
+        history = new ChatHistory(folder.getRoot());
+        assertEquals(2, history.size());
+        List<ChatRecord> records = history.read(0, 10);
+        assertEquals(2, records.size());
+        assertEquals("message 1", records.get(1).getText());
+        assertEquals(2, history.append(true, null, "message 2 again", ChatHistory.STATUS_NONE));
+        assertEquals("message 2 again", history.read(2, 1).get(0).getText());
+        history.close();
+    }
+
+    @Test
+    public void logAheadOfIndex_isIndexed() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        for (int i = 0; i < 4; i++) {
+            history.append(false, "Pixel", "message " + i, ChatHistory.STATUS_NONE);
+        }
+        history.close();
+        // the log reached the disk but the index only counted the first message
+        RandomAccessFile index = new RandomAccessFile(new File(folder.getRoot(), "index"), "rw");
+        index.writeLong(1);
+        index.close();
+
+        history = new ChatHistory(folder.getRoot());
+        assertEquals(4, history.size());
+        assertRecord(history.read(3, 1).get(0), 3, false, "Pixel", "message 3", ChatHistory.STATUS_NONE);
+        history.close();
+    }
+
+    @Test
+    public void segments_rollOverAndRecover() throws IOException {
+        char[] chars = new char[2000];
+        Arrays.fill(chars, 'm');
+        String text = new String(chars);
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        // a little over two 1 MB segments
+        int messages = 1100;
+        for (int i = 0; i < messages; i++) {
+            history.append(true, null, i + text, ChatHistory.STATUS_NONE);
+        }
+        assertEquals(3, segments().length);
+        // a page straddling the first segment boundary
+        List<ChatRecord> page = history.read(500, 50);
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals((500 + i) + text, page.get(i).getText());
+        }
+        history.close();
+
+        setLength(lastSegment(), lastSegment().length() - 1);
+        history = new ChatHistory(folder.getRoot());
+        assertEquals(messages - 1, history.size());
+        assertEquals((messages - 2) + text, history.read(messages - 2, 1).get(0).getText());
+        assertEquals(0 + text, history.read(0, 1).get(0).getText());
+        history.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void closedHistory_rejectsAppends() throws IOException {
+        ChatHistory history = new ChatHistory(folder.getRoot());
+        history.close();
+        history.append(true, null, "too late", ChatHistory.STATUS_NONE);
+    }
+
+    /**
+     * @param record   the record read back
+     * @param index    the expected index
+     * @param outgoing the expected direction
+     * @param author   the expected author
+     * @param text     the expected text
+     * @param status   the expected status
+     */
+    private static void assertRecord(ChatRecord record, long index, boolean outgoing, String author, String text,
+                                     int status) {
+        assertEquals(index, record.getIndex());
+        assertEquals(outgoing, record.isOutgoing());
+        assertEquals(author, record.getAuthor());
+        assertEquals(text, record.getText());
+        assertEquals(status, record.getStatus());
+    }
+
+    /**
+     * @return the segment files, oldest first
+     */
+    private File[] segments() {
+        File[] files = folder.getRoot().listFiles();
+        assertNotNull(files);
+        int n = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".log")) {
+                files[n++] = file;
+            }
+        }
+        File[] segments = Arrays.copyOf(files, n);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * @return the segment being appended to
+     */
+    private File lastSegment() {
+        File[] segments = segments();
+        return segments[segments.length - 1];
+    }
+
+    /**
+     * @param file   the file to cut short
+     * @param length its new length
+     * @throws IOException if the file could not be changed
+     */
+    private static void setLength(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import netid.iastate.edu.messenger.Interfaces.FrameCallback;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for FrameDecoder, feeding it streams split up and merged together at every point a socket could.
+ */
+public class FrameDecoderTest {
+    /** the payload limit used by the decoders under test */
+    private static final int MAX_PAYLOAD = 4096;
+
+    @Test
+    public void mergedFrames_decodedFromOneRead() throws IOException {
+        byte[] first = payload(10, 1);
+        byte[] second = payload(0, 2);
+        byte[] third = payload(300, 3);
+        byte[] stream = concat(frame(ChatFrame.TYPE_TEXT, 7, first), frame(ChatFrame.TYPE_ACK, ChatFrame.NO_SEQ, second),
+                frame(ChatFrame.TYPE_BROADCAST, -2, third));
+
+        Frames frames = new Frames();
+        new FrameDecoder(MAX_PAYLOAD).feed(stream, 0, stream.length, frames);
+
+        assertEquals(3, frames.types.size());
+        frames.assertFrame(0, ChatFrame.TYPE_TEXT, 7, first);
+        frames.assertFrame(1, ChatFrame.TYPE_ACK, ChatFrame.NO_SEQ, second);
+        frames.assertFrame(2, ChatFrame.TYPE_BROADCAST, -2, third);
+    }
+
+    @Test
+    public void splitFrames_decodedAtEverySplitPoint() throws IOException {
+        byte[] first = payload(25, 4);
+        byte[] second = payload(3, 5);
+        byte[] stream = concat(frame(ChatFrame.TYPE_TEXT, 1, first), frame(ChatFrame.TYPE_TEXT, 2, second));
+
+        for (int split = 0; split <= stream.length; split++) {
+            Frames frames = new Frames();
+            FrameDecoder decoder = new FrameDecoder(MAX_PAYLOAD);
+            decoder.feed(stream, 0, split, frames);
+            decoder.feed(stream, split, stream.length - split, frames);
+
+            assertEquals("split at " + split, 2, frames.types.size());
+            frames.assertFrame(0, ChatFrame.TYPE_TEXT, 1, first);
+            frames.assertFrame(1, ChatFrame.TYPE_TEXT, 2, second);
+        }
+    }
+
+    @Test
+    public void byteAtATime_decodesEveryFrame() throws IOException {
+        byte[] first = payload(40, 6);
+        byte[] second = payload(1, 7);
+        byte[] stream = concat(frame(ChatFrame.TYPE_HELLO, 9, first), frame(ChatFrame.TYPE_TEXT, 10, second));
+
+        Frames frames = new Frames();
+        FrameDecoder decoder = new FrameDecoder(MAX_PAYLOAD);
+        for (int i = 0; i < stream.length; i++) {
+            decoder.feed(stream, i, 1, frames);
+        }
+
+        assertEquals(2, frames.types.size());
+        frames.assertFrame(0, ChatFrame.TYPE_HELLO, 9, first);
+        frames.assertFrame(1, ChatFrame.TYPE_TEXT, 10, second);
+    }
+
+    @Test
+    public void frameBiggerThanPendingBuffer_decodedAcrossReads() throws IOException {
+        byte[] big = payload(MAX_PAYLOAD, 8);
+        byte[] stream = frame(ChatFrame.TYPE_TEXT, 11, big);
+
+        Frames frames = new Frames();
+        FrameDecoder decoder = new FrameDecoder(MAX_PAYLOAD);
+        for (int offset = 0; offset < stream.length; offset += 700) {
+            decoder.feed(stream, offset, Math.min(700, stream.length - offset), frames);
+        }
+
+        assertEquals(1, frames.types.size());
+        frames.assertFrame(0, ChatFrame.TYPE_TEXT, 11, big);
+    }
+
+    @Test
+    public void offsetIntoReadBuffer_isRespected() throws IOException {
+        byte[] body = payload(12, 9);
+        byte[] encoded = frame(ChatFrame.TYPE_TEXT, 3, body);
+        byte[] stream = new byte[encoded.length + 10];
+        Arrays.fill(stream, (byte) 0x7F);
+        System.arraycopy(encoded, 0, stream, 5, encoded.length);
+
+        Frames frames = new Frames();
+        new FrameDecoder(MAX_PAYLOAD).feed(stream, 5, encoded.length, frames);
+
+        assertEquals(1, frames.types.size());
+        frames.assertFrame(0, ChatFrame.TYPE_TEXT, 3, body);
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizeLength_isRejected() throws IOException {
+        byte[] header = new byte[ChatFrame.HEADER_LENGTH];
+        ChatFrame.writeHeader(header, 0, ChatFrame.TYPE_TEXT, 1, MAX_PAYLOAD + 1);
+        new FrameDecoder(MAX_PAYLOAD).feed(header, 0, header.length, new Frames());
+    }
+
+    @Test(expected = IOException.class)
+    public void negativeLength_isRejected() throws IOException {
+        byte[] header = new byte[ChatFrame.HEADER_LENGTH];
+        ChatFrame.writeHeader(header, 0, ChatFrame.TYPE_TEXT, 1, -1);
+        new FrameDecoder(MAX_PAYLOAD).feed(header, 0, header.length, new Frames());
+    }
+
+    @Test
+    public void invalidLengthInSplitHeader_isRejected() throws IOException {
+        byte[] header = new byte[ChatFrame.HEADER_LENGTH];
+        ChatFrame.writeHeader(header, 0, ChatFrame.TYPE_TEXT, 1, Integer.MIN_VALUE);
+        FrameDecoder decoder = new FrameDecoder(MAX_PAYLOAD);
+        Frames frames = new Frames();
+        decoder.feed(header, 0, 3, frames);
+        try {
+            decoder.feed(header, 3, header.length - 3, frames);
+            fail("a negative length split across reads was accepted");
+        } catch (IOException expected) {
+            assertTrue(frames.types.isEmpty());
+        }
+    }
+
+    @Test
+    public void reset_dropsPartialFrame() throws IOException {
+        byte[] stale = frame(ChatFrame.TYPE_TEXT, 1, payload(20, 10));
+        byte[] body = payload(5, 11);
+        byte[] fresh = frame(ChatFrame.TYPE_TEXT, 2, body);
+
+        Frames frames = new Frames();
+        FrameDecoder decoder = new FrameDecoder(MAX_PAYLOAD);
+        decoder.feed(stale, 0, stale.length - 1, frames);
+        decoder.reset();
+        decoder.feed(fresh, 0, fresh.length, frames);
+
+        assertEquals(1, frames.types.size());
+        frames.assertFrame(0, ChatFrame.TYPE_TEXT, 2, body);
+    }
+
+    /**
+     * @param length the number of bytes
+     * @param seed   makes payloads of different frames differ
+     * @return a payload of recognisable bytes
+     */
+    private static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed * 31 + i);
+        }
+        return payload;
+    }
+
+    /**
+     * @param type    the frame type
+     * @param seq     the sequence number
+     * @param payload the payload
+     * @return the encoded frame
+     */
+    private static byte[] frame(byte type, int seq, byte[] payload) {
+        byte[] frame = new byte[ChatFrame.encodedLength(payload.length)];
+        int offset = ChatFrame.writeHeader(frame, 0, type, seq, payload.length);
+        System.arraycopy(payload, 0, frame, offset, payload.length);
+        return frame;
+    }
+
+    /**
+     * @param parts the arrays to join
+     * @return the arrays one after the other
+     */
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] joined = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, offset, part.length);
+            offset += part.length;
+        }
+        return joined;
+    }
+
+    /**
+     * Records every decoded frame, copying the payload since the decoder reuses its buffers
+     */
+    private static class Frames implements FrameCallback {
+        /** the type of every frame, in the order decoded */
+        final List<Byte> types = new ArrayList<>();
+        /** the sequence number of every frame */
+        final List<Integer> seqs = new ArrayList<>();
+        /** a copy of the payload of every frame */
+        final List<byte[]> payloads = new ArrayList<>();
+
+        @Override
+        public void onFrame(byte type, int seq, byte[] buffer, int offset, int length) {
+            types.add(type);
+            seqs.add(seq);
+            payloads.add(Arrays.copyOfRange(buffer, offset, offset + length));
+        }
+
+        /**
+         * @param index   which decoded frame to check
+         * @param type    the expected type
+         * @param seq     the expected sequence number
+         * @param payload the expected payload
+         */
+        void assertFrame(int index, byte type, int seq, byte[] payload) {
+            assertEquals(type, (byte) types.get(index));
+            assertEquals(seq, (int) seqs.get(index));
+            assertArrayEquals(payload, payloads.get(index));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for FrameDeflater and FrameInflater, running a stream of messages through a pair of them the way
+ * the two ends of a connection do.
+ */
+public class FrameDeflaterTest {
+    /** the longest message the inflater under test accepts */
+    private static final int MAX_LENGTH = 8 * 1024;
+    /** how the tests turn text into bytes */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** the sending end */
+    private final FrameDeflater deflater = new FrameDeflater();
+    /** the receiving end */
+    private final FrameInflater inflater = new FrameInflater(MAX_LENGTH);
+
+    @After
+    public void end() {
+        deflater.end();
+        inflater.end();
+    }
+
+    @Test
+    public void messages_roundTripInOrder() throws IOException {
+        String[] messages = {
+                "hey, are you coming to lab tonight?",
+                "I'm on my way, be there in 10 minutes.",
+                "did you finish the homework for tomorrow?",
+                "hey, are you coming to lab tonight?",
+                "caf\u00e9 at 3? \u65e5\u672c\u8a9e works too \ud83c\udf89",
+                "ok",
+        };
+        for (String message : messages) {
+            assertEquals(message, roundTrip(message.getBytes(UTF_8)));
+        }
+    }
+
+    @Test
+    public void dictionaryPhrase_compressesOnFirstMessage() throws IOException {
+        byte[] message = "what's up? how are you doing? I'm good, thanks!".getBytes(UTF_8);
+        int compressed = deflater.deflate(message, 0, message.length);
+        assertTrue("compressed to " + compressed + " of " + message.length, compressed < message.length / 2);
+        assertArrayEquals(message, inflate(deflater.getOutput(), compressed));
+    }
+
+    @Test
+    public void repeatedMessage_compressesAgainstEarlierOne() throws IOException {
+        byte[] message = "the quiz got moved to room 1126 on thursday, bring a calculator".getBytes(UTF_8);
+        int first = deflater.deflate(message, 0, message.length);
+        assertArrayEquals(message, inflate(deflater.getOutput(), first));
+        int second = deflater.deflate(message, 0, message.length);
+        assertArrayEquals(message, inflate(deflater.getOutput(), second));
+        assertTrue(second < first / 2);
+    }
+
+    @Test
+    public void syncTail_isLeftOffTheWire() throws IOException {
+        byte[] message = "let me know when you get here".getBytes(UTF_8);
+        int compressed = deflater.deflate(message, 0, message.length);
+        byte[] tail = Arrays.copyOfRange(deflater.getOutput(), compressed, compressed + FrameDeflater.SYNC_TAIL.length);
+        assertArrayEquals(FrameDeflater.SYNC_TAIL, tail);
+        assertArrayEquals(message, inflate(deflater.getOutput(), compressed));
+    }
+
+    @Test
+    public void offsetIntoSource_isRespected() throws IOException {
+        byte[] message = "xxxxsee you later, sounds goodxxxx".getBytes(UTF_8);
+        int compressed = deflater.deflate(message, 4, message.length - 8);
+        byte[] wire = new byte[compressed + 6];
+        System.arraycopy(deflater.getOutput(), 0, wire, 3, compressed);
+        int n = inflater.inflate(wire, 3, compressed);
+        assertEquals("see you later, sounds good", new String(inflater.getOutput(), 0, n, UTF_8));
+    }
+
+    @Test
+    public void largeIncompressibleMessage_growsBuffers() throws IOException {
+        byte[] message = new byte[MAX_LENGTH];
+        new Random(21).nextBytes(message);
+        assertArrayEquals(message, inflate(deflate(message), -1));
+        // the stream keeps working after the buffers have grown
+        byte[] next = "still there?".getBytes(UTF_8);
+        assertArrayEquals(next, inflate(deflate(next), -1));
+    }
+
+    @Test(expected = IOException.class)
+    public void tooLongMessage_isRejected() throws IOException {
+        byte[] message = new byte[MAX_LENGTH + 1];
+        Arrays.fill(message, (byte) 'a');
+        inflate(deflate(message), -1);
+    }
+
+    @Test
+    public void limitBelowBufferSize_isEnforced() throws IOException {
+        FrameInflater small = new FrameInflater(16);
+        try {
+            byte[] message = "this message is longer than sixteen bytes".getBytes(UTF_8);
+            byte[] compressed = deflate(message);
+            small.inflate(compressed, 0, compressed.length);
+            fail("a message over the limit was inflated");
+        } catch (IOException expected) {
+            // the limit applies even though the first buffer would have held the message
+        } finally {
+            small.end();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptData_isRejected() throws IOException {
+        // a block type of 3 is reserved
+        byte[] corrupt = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        inflater.inflate(corrupt, 0, corrupt.length);
+    }
+
+    /**
+     * @param message the message to send
+     * @return the message as it comes out of the inflater
+     * @throws IOException if it does not inflate
+     */
+    private String roundTrip(byte[] message) throws IOException {
+        return new String(inflate(deflate(message), -1), UTF_8);
+    }
+
+    /**
+     * @param message the message to compress
+     * @return a copy of what the deflater sends for it
+     */
+    private byte[] deflate(byte[] message) {
+        int n = deflater.deflate(message, 0, message.length);
+        return Arrays.copyOf(deflater.getOutput(), n);
+    }
+
+    /**
+     * @param compressed what was sent
+     * @param length     the number of bytes of compressed to use, or -1 for all of them
+     * @return a copy of the inflated message
+     * @throws IOException if it does not inflate
+     */
+    private byte[] inflate(byte[] compressed, int length) throws IOException {
+        int n = inflater.inflate(compressed, 0, length < 0 ? compressed.length : length);
+        return Arrays.copyOf(inflater.getOutput(), n);
+    }
+}
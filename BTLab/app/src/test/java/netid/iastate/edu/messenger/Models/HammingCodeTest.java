@@ -0,0 +1,80 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for HammingCode, flipping bits in its codewords and interleaved blocks.
+ */
+public class HammingCodeTest {
+    @Test
+    public void everyNibble_roundTrips() {
+        for (int nibble = 0; nibble < 16; nibble++) {
+            assertEquals(nibble, HammingCode.decode(HammingCode.encode(nibble)));
+        }
+    }
+
+    @Test
+    public void singleBitError_isCorrected() {
+        for (int nibble = 0; nibble < 16; nibble++) {
+            for (int bit = 0; bit < 8; bit++) {
+                assertEquals(nibble, HammingCode.decode(HammingCode.encode(nibble) ^ 1 << bit));
+            }
+        }
+    }
+
+    @Test
+    public void doubleBitError_isDetected() {
+        for (int nibble = 0; nibble < 16; nibble++) {
+            for (int a = 0; a < 8; a++) {
+                for (int b = a + 1; b < 8; b++) {
+                    int received = HammingCode.encode(nibble) ^ 1 << a ^ 1 << b;
+                    assertEquals(HammingCode.UNCORRECTABLE, HammingCode.decode(received));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void block_roundTrips() {
+        Random random = new Random(16);
+        byte[] data = new byte[HammingCode.BLOCK_BYTES * 64];
+        random.nextBytes(data);
+        byte[] decoded = new byte[data.length];
+        for (int offset = 0; offset < data.length; offset += HammingCode.BLOCK_BYTES) {
+            long bits = HammingCode.encodeBlock(data, offset);
+            assertEquals(0, HammingCode.decodeBlock(bits, decoded, offset));
+        }
+        assertArrayEquals(data, decoded);
+    }
+
+    @Test
+    public void burstError_isCorrectedByInterleaving() {
+        byte[] data = {(byte) 0xA5, 0x3C, (byte) 0xFF, 0x00};
+        long bits = HammingCode.encodeBlock(data, 0);
+        for (int length = 1; length <= HammingCode.CODEWORDS_PER_BLOCK; length++) {
+            long burst = (1L << length) - 1;
+            for (int start = 0; start + length <= HammingCode.BLOCK_BITS; start++) {
+                byte[] decoded = new byte[HammingCode.BLOCK_BYTES];
+                int uncorrectable = HammingCode.decodeBlock(bits ^ burst << start, decoded, 0);
+                assertEquals("burst of " + length + " at " + start, 0, uncorrectable);
+                assertArrayEquals(data, decoded);
+            }
+        }
+    }
+
+    @Test
+    public void burstLongerThanInterleave_isReported() {
+        byte[] data = {0x12, 0x34, 0x56, 0x78};
+        long bits = HammingCode.encodeBlock(data, 0);
+        long burst = (1L << (HammingCode.CODEWORDS_PER_BLOCK + 1)) - 1;
+        for (int start = 0; start + HammingCode.CODEWORDS_PER_BLOCK + 1 <= HammingCode.BLOCK_BITS; start++) {
+            int uncorrectable = HammingCode.decodeBlock(bits ^ burst << start, new byte[HammingCode.BLOCK_BYTES], 0);
+            // one codeword takes two of the wrong bits, so exactly one byte is lost
+            assertEquals("burst at " + start, 1, Integer.bitCount(uncorrectable));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for LuxClassifier, feeding it the light levels of a transmission that differ from its starting
+ * guesses and checking that the levels it learns, and the colors it picks, follow them.
+ */
+public class LuxClassifierTest {
+    /** the colors to tell apart, darkest first */
+    private static final int[] COLORS = {MorseCodec.BLACK, MorseCodec.RED, MorseCodec.WHITE};
+    /** the starting guess of each color's level */
+    private static final float[] GUESSES = {1, 25, 300};
+    /** how many samples the levels are learned from */
+    private static final int WINDOW_SIZE = 256;
+    /** how many samples are added between fits */
+    private static final int FIT_INTERVAL = 16;
+    /** how far a learned level may be from the real one, a histogram bin is about 5% wide */
+    private static final float TOLERANCE = 0.1f;
+
+    @Test
+    public void levels_convergeOnRealLevels() {
+        LuxClassifier classifier = newClassifier();
+        float[] real = {10, 200, 1000};
+        feed(classifier, real, 2 * WINDOW_SIZE);
+        for (int i = 0; i < COLORS.length; i++) {
+            assertLevel(real[i], classifier.getLevel(COLORS[i]));
+            assertEquals(COLORS[i], classifier.classify(real[i]));
+        }
+    }
+
+    @Test
+    public void levels_followScaledLight() {
+        LuxClassifier classifier = newClassifier();
+        feed(classifier, new float[]{10, 200, 1000}, 2 * WINDOW_SIZE);
+        // the phones moved closer, every level is four times brighter
+        float[] brighter = {40, 800, 4000};
+        feed(classifier, brighter, 2 * WINDOW_SIZE);
+        for (int i = 0; i < COLORS.length; i++) {
+            assertLevel(brighter[i], classifier.getLevel(COLORS[i]));
+        }
+        // the old WHITE level now reads as RED
+        assertEquals(MorseCodec.RED, classifier.classify(1000));
+    }
+
+    @Test
+    public void emptyCluster_keepsLevels() {
+        LuxClassifier classifier = newClassifier();
+        // only the room light and one brighter color, the middle color gets no samples
+        feed(classifier, new float[]{5, 500}, 2 * WINDOW_SIZE);
+        for (int i = 0; i < COLORS.length; i++) {
+            assertEquals(GUESSES[i], classifier.getLevel(COLORS[i]), 0.001f * GUESSES[i]);
+        }
+    }
+
+    @Test
+    public void steadyLight_keepsLevels() {
+        LuxClassifier classifier = newClassifier();
+        feed(classifier, new float[]{40, 42, 44}, 2 * WINDOW_SIZE);
+        for (int i = 0; i < COLORS.length; i++) {
+            assertEquals(GUESSES[i], classifier.getLevel(COLORS[i]), 0.001f * GUESSES[i]);
+        }
+    }
+
+    @Test
+    public void guesses_areSortedByLevel() {
+        LuxClassifier classifier = new LuxClassifier(new int[]{MorseCodec.WHITE, MorseCodec.BLACK, MorseCodec.RED},
+                new float[]{300, 1, 25}, WINDOW_SIZE, FIT_INTERVAL);
+        assertEquals(MorseCodec.BLACK, classifier.classify(0));
+        assertEquals(MorseCodec.RED, classifier.classify(20));
+        assertEquals(MorseCodec.WHITE, classifier.classify(500));
+    }
+
+    @Test
+    public void reset_restoresGuesses() {
+        LuxClassifier classifier = newClassifier();
+        feed(classifier, new float[]{10, 200, 1000}, 2 * WINDOW_SIZE);
+        classifier.reset();
+        for (int i = 0; i < COLORS.length; i++) {
+            assertEquals(GUESSES[i], classifier.getLevel(COLORS[i]), 0.001f * GUESSES[i]);
+        }
+    }
+
+    @Test
+    public void unknownColor_hasNoLevel() {
+        assertTrue(Float.isNaN(newClassifier().getLevel(0xFF00FF00)));
+    }
+
+    /**
+     * @return a classifier with the starting guesses
+     */
+    private static LuxClassifier newClassifier() {
+        return new LuxClassifier(COLORS, GUESSES, WINDOW_SIZE, FIT_INTERVAL);
+    }
+
+    /**
+     * Feed runs of each light level in turn, a little noisy, the way a transmission lights the sensor
+     *
+     * @param classifier the classifier
+     * @param levels     the light levels to take turns with
+     * @param samples    how many samples to feed
+     */
+    private static void feed(LuxClassifier classifier, float[] levels, int samples) {
+        for (int i = 0; i < samples; i++) {
+            float level = levels[(i / 4) % levels.length];
+            classifier.classify(level * (1 + 0.02f * ((i % 3) - 1)));
+        }
+    }
+
+    /**
+     * @param expected the real light level
+     * @param learned  the level the classifier learned
+     */
+    private static void assertLevel(float expected, float learned) {
+        assertEquals("learned " + learned + " for " + expected, expected, learned, TOLERANCE * expected);
+    }
+}
@@ -0,0 +1,126 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MorseCodec, MorseSchedule and MorseDecoder, sending every character in the table through
+ * the encoder and back.
+ */
+public class MorseCodecTest {
+    /** every character in the code table */
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz1234567890";
+    /** the runs FlashSchedule puts in front of a Morse message, the RED marker and the sync pulses */
+    private static final int PREAMBLE_RUNS = 1 + 2 * FlashSchedule.SYNC_PULSES;
+
+    @Test
+    public void everyCharacter_roundTripsThroughSchedule() {
+        assertEquals(ALPHABET, decodeSchedule(MorseCodec.encodeMessage(ALPHABET)));
+    }
+
+    @Test
+    public void everyCharacter_roundTripsThroughPatternList() {
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            char c = ALPHABET.charAt(i);
+            int code = MorseCodec.codeOf(c);
+            List<String> pattern = new ArrayList<>();
+            for (int s = 0; s < MorseCodec.patternLength(code); s++) {
+                pattern.add(MorseCodec.isDash(code, s) ? MorseCodec.DASH : MorseCodec.DOT);
+            }
+            assertEquals(c, MorseCodec.decodeCharacterPattern(pattern));
+            pattern.add(MorseCodec.END_CHARACTER);
+            assertEquals(c, MorseCodec.decodeCharacterPattern(pattern));
+        }
+    }
+
+    @Test
+    public void everyPattern_isDistinct() {
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            int code = MorseCodec.codeOf(ALPHABET.charAt(i));
+            assertTrue(MorseCodec.patternLength(code) > 0);
+            for (int j = i + 1; j < ALPHABET.length(); j++) {
+                assertNotEquals(code, MorseCodec.codeOf(ALPHABET.charAt(j)));
+            }
+        }
+    }
+
+    @Test
+    public void upperCase_encodesLikeLowerCase() {
+        assertEquals(ALPHABET, decodeSchedule(MorseCodec.encodeMessage(ALPHABET.toUpperCase())));
+    }
+
+    @Test
+    public void unsupportedCharacters_areSkipped() {
+        assertEquals(0, MorseCodec.codeOf(' '));
+        assertEquals(0, MorseCodec.codeOf('\u00e9'));
+        assertEquals("sos", decodeSchedule(MorseCodec.encodeMessage("s o\u00e9s!")));
+    }
+
+    @Test
+    public void unknownPattern_decodesToUnknownCharacter() {
+        // six DOTs is longer than any pattern in the table
+        MorseDecoder decoder = new MorseDecoder();
+        for (int i = 0; i < 6; i++) {
+            assertEquals(MorseDecoder.NO_CHARACTER, decoder.push(MorseCodec.SYMBOL_DOT));
+        }
+        assertEquals(MorseCodec.UNKNOWN_CHARACTER, decoder.push(MorseCodec.SYMBOL_END_CHARACTER));
+        // ..-- is a gap in the trie
+        assertEquals(MorseCodec.UNKNOWN_CHARACTER, MorseCodec.decodeCharacterPattern(Arrays.asList(
+                MorseCodec.DOT, MorseCodec.DOT, MorseCodec.DASH, MorseCodec.DASH)));
+        assertEquals(MorseCodec.UNKNOWN_CHARACTER, MorseCodec.decodeCharacterPattern(Arrays.asList(
+                MorseCodec.END_CHARACTER, MorseCodec.DOT)));
+        assertEquals(MorseCodec.UNKNOWN_CHARACTER, MorseCodec.decodeCharacterPattern(new ArrayList<String>()));
+    }
+
+    @Test
+    public void decoder_recoversAfterUnknownPattern() {
+        MorseDecoder decoder = new MorseDecoder();
+        for (int i = 0; i < 7; i++) {
+            decoder.push(MorseCodec.SYMBOL_DASH);
+        }
+        decoder.push(MorseCodec.SYMBOL_END_CHARACTER);
+        decoder.push(MorseCodec.SYMBOL_DOT);
+        assertEquals('e', decoder.push(MorseCodec.SYMBOL_END_CHARACTER));
+    }
+
+    /**
+     * Turn a schedule back into text the way the receiver does, a BLACK run's length tells its symbol
+     *
+     * @param schedule the schedule of a Morse message
+     * @return the decoded text
+     */
+    private static String decodeSchedule(MorseSchedule schedule) {
+        StringBuilder text = new StringBuilder();
+        MorseDecoder decoder = new MorseDecoder();
+        int run = 0;
+        while (schedule.next()) {
+            if (run++ < PREAMBLE_RUNS || schedule.getColor() != MorseCodec.BLACK) {
+                continue;
+            }
+            int symbol;
+            switch (schedule.getDurationUnits()) {
+                case MorseSchedule.DOT_UNITS:
+                    symbol = MorseCodec.SYMBOL_DOT;
+                    break;
+                case MorseSchedule.DASH_UNITS:
+                    symbol = MorseCodec.SYMBOL_DASH;
+                    break;
+                case MorseSchedule.END_CHARACTER_UNITS:
+                    symbol = MorseCodec.SYMBOL_END_CHARACTER;
+                    break;
+                default:
+                    throw new AssertionError("unexpected run of " + schedule.getDurationUnits() + " units");
+            }
+            char c = decoder.push(symbol);
+            if (c != MorseDecoder.NO_CHARACTER) {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,238 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import netid.iastate.edu.messenger.Interfaces.SensorUpdateCallback;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MultiLevelDemodulator, playing a MultiLevelSchedule back into it as light sensor samples that
+ * arrive with some jitter, the way FlashReceiver hands it the part of a message after the mode pulse.
+ */
+public class MultiLevelDemodulatorTest {
+    /** one millisecond, in ns */
+    private static final long MS = 1_000_000L;
+    /** the sender's unit time */
+    private static final long UNIT_NANOS = 100 * MS;
+    /** the light sensor's sample interval */
+    private static final long SAMPLE_NANOS = 10 * MS;
+    /** how far either way a sample may arrive from its interval */
+    private static final int JITTER_NANOS = (int) (2 * MS);
+    /** when the first training slot starts */
+    private static final long START_NANOS = 1000 * MS;
+    /** the runs the FlashReceiver takes in before it starts the demodulator, the preamble and the mode pulse */
+    private static final int PREAMBLE_RUNS = 1 + 2 * FlashSchedule.SYNC_PULSES + 2;
+    /** the misreadSlot of receive() that plays every slot as it was sent */
+    private static final int NO_MISREAD = -1;
+
+    @Test
+    public void message_roundTrips() {
+        String message = "meet at the library, 3rd floor";
+        assertEquals(message, receive(message, false, NO_MISREAD, false).text.toString());
+    }
+
+    @Test
+    public void messageWithErrorCorrection_roundTrips() {
+        String message = "meet at the library, 3rd floor";
+        assertEquals(message, receive(message, true, NO_MISREAD, false).text.toString());
+    }
+
+    @Test
+    public void bothLengthBytes_areRead() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; message.length() < 300; i++) {
+            message.append("line ").append(i).append(". ");
+        }
+        for (boolean errorCorrection : new boolean[]{false, true}) {
+            Receiver receiver = receive(message.toString(), errorCorrection, NO_MISREAD, false);
+            assertEquals(message.toString(), receiver.text.toString());
+            assertFalse(receiver.demodulator.isActive());
+        }
+    }
+
+    @Test
+    public void emptyMessage_decodesNothing() {
+        for (boolean errorCorrection : new boolean[]{false, true}) {
+            Receiver receiver = receive("", errorCorrection, NO_MISREAD, false);
+            assertEquals("", receiver.text.toString());
+            assertFalse(receiver.demodulator.isActive());
+        }
+    }
+
+    @Test
+    public void misreadSlot_isRepairedWithErrorCorrection() {
+        String message = "no errors here";
+        // a slot of the first block's message bytes
+        int slot = MultiLevelSchedule.LEVELS + 12;
+        assertEquals(message, receive(message, true, slot, false).text.toString());
+        assertEquals(message, receive(message, true, slot, true).text.toString());
+    }
+
+    @Test
+    public void misreadSlot_spoilsOnlyItsByteWithoutErrorCorrection() {
+        String message = "abcdefgh";
+        // the second slot of the third byte, its bits and the next slot's are wrong but the bytes after line up
+        int slot = MultiLevelSchedule.LEVELS + MultiLevelSchedule.LENGTH_SLOTS + 2 * MultiLevelSchedule.SLOTS_PER_BYTE + 1;
+        String received = receive(message, false, slot, false).text.toString();
+        assertEquals(message.length(), received.length());
+        assertNotEquals('c', received.charAt(2));
+        assertEquals("ab", received.substring(0, 2));
+        assertEquals("defgh", received.substring(3));
+    }
+
+    @Test
+    public void lostSlot_isReportedWithoutErrorCorrection() {
+        String message = "abcdefgh";
+        int slot = MultiLevelSchedule.LEVELS + MultiLevelSchedule.LENGTH_SLOTS + 2 * MultiLevelSchedule.SLOTS_PER_BYTE + 1;
+        String received = receive(message, false, slot, true).text.toString();
+        assertEquals("ab" + MorseCodec.UNKNOWN_CHARACTER + "defgh", received);
+    }
+
+    @Test
+    public void contrast_isMeasuredFromTraining() {
+        Receiver receiver = receive("hi", false, NO_MISREAD, false);
+        float darkest = luxOf(0);
+        float brightest = luxOf(MultiLevelSchedule.LEVELS - 1);
+        assertEquals((brightest + 1) / (darkest + 1), receiver.demodulator.getContrast(), 0.01f);
+    }
+
+    @Test
+    public void levelsTooClose_failTraining() {
+        // two of the shades light the sensor almost the same
+        float[] trained = {5, 105, 106, 305, 405};
+        Receiver receiver = new Receiver(false);
+        for (long t = START_NANOS; t < START_NANOS + (trained.length + 1) * UNIT_NANOS; t += SAMPLE_NANOS) {
+            int slot = (int) ((t - START_NANOS) / UNIT_NANOS);
+            receiver.demodulator.onSample(t, trained[Math.min(slot, trained.length - 1)]);
+        }
+        assertEquals(String.valueOf(MorseCodec.UNKNOWN_CHARACTER), receiver.text.toString());
+        assertFalse(receiver.demodulator.isActive());
+    }
+
+    @Test
+    public void lostLight_endsMessage() {
+        Receiver receiver = new Receiver(false);
+        long t = START_NANOS;
+        for (int level = 0; level < MultiLevelSchedule.LEVELS; level++) {
+            for (; t < START_NANOS + (level + 1) * UNIT_NANOS; t += SAMPLE_NANOS) {
+                receiver.demodulator.onSample(t, luxOf(level));
+            }
+        }
+        // the screen stops changing part way through the length
+        for (int i = 0; i < 10 * UNIT_NANOS / SAMPLE_NANOS; i++, t += SAMPLE_NANOS) {
+            receiver.demodulator.onSample(t, luxOf(MultiLevelSchedule.LEVELS - 1));
+        }
+        assertEquals(String.valueOf(MorseCodec.UNKNOWN_CHARACTER), receiver.text.toString());
+        assertFalse(receiver.demodulator.isActive());
+    }
+
+    /**
+     * Send a message through a MultiLevelSchedule and play it to a demodulator
+     *
+     * @param message         the message to send
+     * @param errorCorrection true to send it as HammingCode blocks
+     * @param misreadSlot     the slot after the mode pulse to play as a level it is not, or NO_MISREAD
+     * @param lost            true to play the misread slot as the level before it, so it is lost in a run of two
+     *                        slots, false to play it as a level that differs from both neighbours
+     * @return the receiver, holding what the demodulator decoded
+     */
+    private static Receiver receive(String message, boolean errorCorrection, int misreadSlot, boolean lost) {
+        MultiLevelSchedule schedule = new MultiLevelSchedule(message, errorCorrection);
+        for (int run = 0; run < PREAMBLE_RUNS; run++) {
+            assertTrue(schedule.next());
+        }
+        List<Integer> levels = new ArrayList<>();
+        while (schedule.next()) {
+            assertEquals(1, schedule.getDurationUnits());
+            levels.add(levelOf(schedule.getColor()));
+        }
+        if (misreadSlot != NO_MISREAD && lost) {
+            levels.set(misreadSlot, levels.get(misreadSlot - 1));
+        } else if (misreadSlot != NO_MISREAD) {
+            // a level that differs from both neighbours, so the slot still starts and ends with an edge
+            int misread = 0;
+            while (misread == levels.get(misreadSlot - 1) || misread == levels.get(misreadSlot)
+                    || misread == levels.get(misreadSlot + 1)) {
+                misread++;
+            }
+            levels.set(misreadSlot, misread);
+        }
+
+        Receiver receiver = new Receiver(errorCorrection);
+        Random random = new Random(14);
+        long t = START_NANOS;
+        for (int slot = 0; slot < levels.size(); slot++) {
+            long end = START_NANOS + (slot + 1) * UNIT_NANOS;
+            for (; t < end; t += SAMPLE_NANOS + random.nextInt(2 * JITTER_NANOS + 1) - JITTER_NANOS) {
+                receiver.demodulator.onSample(t, luxOf(levels.get(slot)));
+            }
+        }
+        // the screen is left WHITE
+        for (int i = 0; i < 2 * UNIT_NANOS / SAMPLE_NANOS; i++, t += SAMPLE_NANOS) {
+            receiver.demodulator.onSample(t, luxOf(MultiLevelSchedule.LEVELS - 1));
+        }
+        return receiver;
+    }
+
+    /**
+     * @param color a screen color of a MultiLevelSchedule
+     * @return the level it is shown for
+     */
+    private static int levelOf(int color) {
+        for (int level = 0; level < MultiLevelSchedule.LEVELS; level++) {
+            if (MultiLevelSchedule.colorOf(level) == color) {
+                return level;
+            }
+        }
+        throw new AssertionError("not a level color " + Integer.toHexString(color));
+    }
+
+    /**
+     * @param level a level from 0 to MultiLevelSchedule.LEVELS - 1
+     * @return the light the sensor reads for it, the levels are even steps of emitted light
+     */
+    private static float luxOf(int level) {
+        return 5 + 100 * level;
+    }
+
+    /**
+     * A demodulator and the characters it decoded
+     */
+    private static class Receiver implements SensorUpdateCallback {
+        /** the demodulator under test, already started */
+        final MultiLevelDemodulator demodulator = new MultiLevelDemodulator(this);
+        /** the characters decoded so far */
+        final StringBuilder text = new StringBuilder();
+
+        /**
+         * Constructor
+         *
+         * @param errorCorrection true if the message is sent as HammingCode blocks
+         */
+        Receiver(boolean errorCorrection) {
+            demodulator.start(START_NANOS, UNIT_NANOS, errorCorrection);
+        }
+
+        @Override
+        public void onColorSensed(String color) {
+        }
+
+        @Override
+        public void onMessageStarted() {
+        }
+
+        @Override
+        public void onCharacterDecoded(char c) {
+            text.append(c);
+        }
+
+        @Override
+        public void testingValue(float value) {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PrefixCode, walking the patterns it hands out back down its tree.
+ */
+public class PrefixCodeTest {
+    /** every character PrefixCode.CHAT can send */
+    private static final String CHAT_ALPHABET = "etaoinshrdlcumwfgypbvkjxqz 0123456789.,?!'";
+
+    @Test
+    public void everyCharacter_roundTrips() {
+        for (int i = 0; i < CHAT_ALPHABET.length(); i++) {
+            char c = CHAT_ALPHABET.charAt(i);
+            int code = PrefixCode.CHAT.codeOf(c);
+            assertTrue("no pattern for " + c, MorseCodec.patternLength(code) > 0);
+            assertEquals(c, walk(PrefixCode.CHAT, code));
+        }
+    }
+
+    @Test
+    public void message_roundTripsWithoutSeparators() {
+        String message = "where are you? meet at 7, by the bridge! it's quiz day";
+        StringBuilder decoded = new StringBuilder();
+        int node = PrefixCode.ROOT;
+        for (int i = 0; i < message.length(); i++) {
+            int code = PrefixCode.CHAT.codeOf(message.charAt(i));
+            // the symbols of every character run straight into the next one's
+            for (int s = 0; s < MorseCodec.patternLength(code); s++) {
+                node = PrefixCode.CHAT.step(node, MorseCodec.isDash(code, s));
+                if (PrefixCode.CHAT.isLeaf(node)) {
+                    decoded.append(PrefixCode.CHAT.characterAt(node));
+                    node = PrefixCode.ROOT;
+                }
+            }
+        }
+        assertEquals(message, decoded.toString());
+        assertEquals(PrefixCode.ROOT, node);
+    }
+
+    @Test
+    public void noPattern_isPrefixOfAnother() {
+        for (int i = 0; i < CHAT_ALPHABET.length(); i++) {
+            int a = PrefixCode.CHAT.codeOf(CHAT_ALPHABET.charAt(i));
+            for (int j = 0; j < CHAT_ALPHABET.length(); j++) {
+                int b = PrefixCode.CHAT.codeOf(CHAT_ALPHABET.charAt(j));
+                if (i != j && MorseCodec.patternLength(a) <= MorseCodec.patternLength(b)) {
+                    int shift = MorseCodec.patternLength(b) - MorseCodec.patternLength(a);
+                    assertNotEquals(a & 0xFFFF, (b & 0xFFFF) >>> shift);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void frequentCharacters_getShorterPatterns() {
+        int space = MorseCodec.patternLength(PrefixCode.CHAT.codeOf(' '));
+        int e = MorseCodec.patternLength(PrefixCode.CHAT.codeOf('e'));
+        int z = MorseCodec.patternLength(PrefixCode.CHAT.codeOf('z'));
+        assertTrue(space <= e);
+        assertTrue(e < z);
+    }
+
+    @Test
+    public void upperCase_encodesLikeLowerCase() {
+        for (char c = 'a'; c <= 'z'; c++) {
+            assertEquals(PrefixCode.CHAT.codeOf(c), PrefixCode.CHAT.codeOf(Character.toUpperCase(c)));
+        }
+    }
+
+    @Test
+    public void unsupportedCharacters_haveNoPattern() {
+        assertEquals(0, PrefixCode.CHAT.codeOf('#'));
+        assertEquals(0, PrefixCode.CHAT.codeOf('\u00e9'));
+        assertEquals(0, PrefixCode.CHAT.codeOf('\u65e5'));
+    }
+
+    @Test
+    public void customCode_roundTrips() {
+        PrefixCode code = new PrefixCode("abc", new int[]{5, 3, 1});
+        assertEquals(1, MorseCodec.patternLength(code.codeOf('a')));
+        assertFalse(MorseCodec.isDash(code.codeOf('a'), 0));
+        assertEquals('a', walk(code, code.codeOf('a')));
+        assertEquals('b', walk(code, code.codeOf('b')));
+        assertEquals('c', walk(code, code.codeOf('c')));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weightsTooSkewed_areRejected() {
+        // Fibonacci weights give the deepest possible tree, 18 characters need a 17 symbol pattern
+        String alphabet = "abcdefghijklmnopqr";
+        int[] weights = new int[alphabet.length()];
+        weights[0] = 1;
+        weights[1] = 1;
+        for (int i = 2; i < weights.length; i++) {
+            weights[i] = weights[i - 1] + weights[i - 2];
+        }
+        new PrefixCode(alphabet, weights);
+    }
+
+    /**
+     * @param prefixCode the code
+     * @param code       a packed pattern from prefixCode
+     * @return the character the pattern leads to, checking no earlier node is a leaf
+     */
+    private static char walk(PrefixCode prefixCode, int code) {
+        int node = PrefixCode.ROOT;
+        for (int s = 0; s < MorseCodec.patternLength(code); s++) {
+            assertFalse(prefixCode.isLeaf(node));
+            node = prefixCode.step(node, MorseCodec.isDash(code, s));
+        }
+        assertTrue(prefixCode.isLeaf(node));
+        return prefixCode.characterAt(node);
+    }
+}
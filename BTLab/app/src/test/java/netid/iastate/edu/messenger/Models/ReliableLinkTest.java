@@ -0,0 +1,254 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ReliableLink, the sending side's window and selective acknowledgements, the receiving side's
+ * held frames, sequence numbers wrapping round, and the retransmission timeout.
+ */
+public class ReliableLinkTest {
+    /** one millisecond, in ns */
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void window_limitsFramesInFlight() {
+        ReliableLink link = new ReliableLink(8, 3);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(link.add(request()));
+        }
+        assertEquals(1, link.pollSendable().getSeq());
+        assertEquals(2, link.pollSendable().getSeq());
+        assertEquals(3, link.pollSendable().getSeq());
+        assertNull(link.pollSendable());
+        assertEquals(3, link.getInFlight());
+
+        // acknowledging the oldest frame makes room for one more
+        assertEquals(1, link.pollAcked(1).getSeq());
+        assertNull(link.pollAcked(1));
+        assertEquals(2, link.getInFlight());
+        assertEquals(4, link.pollSendable().getSeq());
+        assertNull(link.pollSendable());
+
+        // a cumulative acknowledgement takes out every frame up to it
+        assertEquals(2, link.pollAcked(3).getSeq());
+        assertEquals(3, link.pollAcked(3).getSeq());
+        assertNull(link.pollAcked(3));
+        assertEquals(2, link.size());
+        assertEquals(5, link.pollSendable().getSeq());
+    }
+
+    @Test
+    public void window_isClampedToCapacity() {
+        ReliableLink link = new ReliableLink(4, 100);
+        for (int i = 0; i < 4; i++) {
+            link.add(request());
+        }
+        assertNull(link.add(request()));
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(link.pollSendable());
+        }
+        assertNull(link.pollSendable());
+
+        link.setWindow(0);
+        link.rewind();
+        assertEquals(1, link.pollSendable().getSeq());
+        assertNull(link.pollSendable());
+    }
+
+    @Test
+    public void rewind_resendsFromOldest() {
+        ReliableLink link = new ReliableLink(8, 8);
+        for (int i = 0; i < 3; i++) {
+            link.add(request());
+            link.pollSendable();
+        }
+        link.rewind();
+        assertEquals(0, link.getInFlight());
+        assertEquals(1, link.pollSendable().getSeq());
+    }
+
+    @Test
+    public void sackedFrames_areNotSentAgain() {
+        ReliableLink link = new ReliableLink(8, 8);
+        for (int i = 0; i < 6; i++) {
+            link.add(request());
+            link.pollSendable();
+        }
+        link.onSack(3, 4);
+        link.onSack(6, 6);
+        link.rewind();
+        assertEquals(1, link.pollSendable().getSeq());
+        assertEquals(2, link.pollSendable().getSeq());
+        assertEquals(5, link.pollSendable().getSeq());
+        assertNull(link.pollSendable());
+    }
+
+    @Test
+    public void framesAheadOfGap_areHeldAndReported() {
+        BufferPool pool = new BufferPool(8, 16);
+        ReliableLink link = new ReliableLink(8, 8);
+        assertEquals(ReliableLink.RECEIVED_NEXT, link.onReceived(1));
+        receiveEarly(link, pool, 3);
+        receiveEarly(link, pool, 4);
+        receiveEarly(link, pool, 6);
+        assertEquals(ReliableLink.RECEIVED_DUPLICATE, link.onReceived(1));
+        assertEquals(ReliableLink.RECEIVED_DUPLICATE, link.onReceived(4));
+        // further ahead than the link can hold
+        assertEquals(ReliableLink.RECEIVED_DUPLICATE, link.onReceived(1 + 9));
+        assertEquals(1, link.getReceivedSeq());
+
+        byte[] sack = new byte[ChatFrame.MAX_SACK_BLOCKS * ChatFrame.SACK_BLOCK_LENGTH];
+        assertEquals(2, link.writeSackBlocks(sack, 0, ChatFrame.MAX_SACK_BLOCKS));
+        assertSackBlock(sack, 0, 3, 4);
+        assertSackBlock(sack, 1, 6, 6);
+        assertEquals(1, link.writeSackBlocks(sack, 0, 1));
+        assertSackBlock(sack, 0, 3, 4);
+
+        // filling the gap releases the held frames in order, up to the next gap
+        assertEquals(ReliableLink.RECEIVED_NEXT, link.onReceived(2));
+        assertEquals(ChatFrame.TYPE_TEXT, link.peekHeldType());
+        assertEquals(3, link.pollHeld().getData()[0]);
+        assertEquals(4, link.pollHeld().getData()[0]);
+        assertNull(link.pollHeld());
+        assertEquals(0, link.peekHeldType());
+        assertEquals(4, link.getReceivedSeq());
+        assertEquals(1, link.writeSackBlocks(sack, 0, ChatFrame.MAX_SACK_BLOCKS));
+        assertSackBlock(sack, 0, 6, 6);
+    }
+
+    @Test
+    public void sequenceNumbers_wrapRoundSkippingNoSeq() {
+        assertEquals(1, ReliableLink.distance(-1, 1));
+        assertEquals(-1, ReliableLink.distance(1, -1));
+        assertEquals(3, ReliableLink.distance(-2, 2));
+        assertEquals(1, ReliableLink.distance(Integer.MAX_VALUE, Integer.MIN_VALUE));
+        assertEquals(-1, ReliableLink.distance(Integer.MIN_VALUE, Integer.MAX_VALUE));
+
+        ReliableLink sender = new ReliableLink(8, 8, -3);
+        int[] expected = {-3, -2, -1, 1, 2, 3};
+        for (int seq : expected) {
+            assertEquals(seq, sender.add(request()).getSeq());
+            assertEquals(seq, sender.pollSendable().getSeq());
+        }
+
+        BufferPool pool = new BufferPool(8, 16);
+        ReliableLink receiver = new ReliableLink(8, 8, -3);
+        assertEquals(ReliableLink.RECEIVED_NEXT, receiver.onReceived(-3));
+        assertEquals(ReliableLink.RECEIVED_NEXT, receiver.onReceived(-2));
+        receiveEarly(receiver, pool, 1);
+        receiveEarly(receiver, pool, 2);
+        byte[] sack = new byte[ChatFrame.SACK_BLOCK_LENGTH];
+        assertEquals(1, receiver.writeSackBlocks(sack, 0, 1));
+        assertSackBlock(sack, 0, 1, 2);
+
+        assertEquals(ReliableLink.RECEIVED_NEXT, receiver.onReceived(-1));
+        assertEquals(1, receiver.pollHeld().getData()[0]);
+        assertEquals(2, receiver.pollHeld().getData()[0]);
+        assertEquals(2, receiver.getReceivedSeq());
+        assertEquals(ReliableLink.RECEIVED_NEXT, receiver.onReceived(3));
+
+        // the sender sees the wrapped acknowledgements in order
+        sender.onSack(1, 2);
+        assertEquals(-3, sender.pollAcked(-2).getSeq());
+        assertEquals(-2, sender.pollAcked(-2).getSeq());
+        assertNull(sender.pollAcked(-2));
+        for (int i = 2; i < expected.length; i++) {
+            assertEquals(expected[i], sender.pollAcked(receiver.getReceivedSeq()).getSeq());
+        }
+        assertEquals(0, sender.size());
+    }
+
+    @Test
+    public void reset_renumbersUnackedFrames() {
+        BufferPool pool = new BufferPool(8, 16);
+        ReliableLink link = new ReliableLink(8, 8);
+        for (int i = 0; i < 4; i++) {
+            link.add(request());
+            link.pollSendable();
+        }
+        while (link.pollAcked(2) != null) {
+            // frames 1 and 2 are acknowledged, 3 and 4 are renumbered
+        }
+        link.onReceived(1);
+        receiveEarly(link, pool, 3);
+
+        link.reset();
+        assertEquals(0, link.getInFlight());
+        assertEquals(1, link.get(0).getSeq());
+        assertEquals(2, link.get(1).getSeq());
+        assertEquals(3, link.add(request()).getSeq());
+        assertEquals(ChatFrame.NO_SEQ, link.getReceivedSeq());
+        assertNull(link.pollHeld());
+        assertEquals(ReliableLink.RECEIVED_NEXT, link.onReceived(1));
+    }
+
+    @Test
+    public void rto_followsRoundTripWithinBounds() {
+        ReliableLink link = new ReliableLink(8, 8);
+        assertEquals(ReliableLink.INITIAL_RTO_NANOS, link.getRtoNanos());
+        assertEquals(0, link.getSrttNanos());
+
+        // the first sample sets the deviation to half of it, so the timeout is three round trips
+        link.onRttSample(400 * MS);
+        assertEquals(400 * MS, link.getSrttNanos());
+        assertEquals(1200 * MS, link.getRtoNanos());
+
+        // a steady short round trip brings the timeout down, but never under the minimum
+        for (int i = 0; i < 100; i++) {
+            link.onRttSample(5 * MS);
+        }
+        assertEquals(ReliableLink.MIN_RTO_NANOS, link.getRtoNanos());
+
+        // backing off doubles it until it hits the maximum
+        long rto = link.getRtoNanos();
+        link.backOff();
+        assertEquals(2 * rto, link.getRtoNanos());
+        for (int i = 0; i < 20; i++) {
+            link.backOff();
+        }
+        assertEquals(ReliableLink.MAX_RTO_NANOS, link.getRtoNanos());
+
+        // a new sample ends the back off
+        link.onRttSample(5 * MS);
+        assertEquals(ReliableLink.MIN_RTO_NANOS, link.getRtoNanos());
+
+        // a huge round trip is capped too
+        link.onRttSample(10 * ReliableLink.MAX_RTO_NANOS);
+        assertEquals(ReliableLink.MAX_RTO_NANOS, link.getRtoNanos());
+    }
+
+    /**
+     * @return a request to number, its contents don't matter to the link
+     */
+    private static WriteRequest request() {
+        return new WriteRequest(ChatFrame.TYPE_TEXT, new byte[1]);
+    }
+
+    /**
+     * Receive a frame ahead of a gap and hold a payload whose first byte is its sequence number
+     *
+     * @param link the receiving link
+     * @param pool where the payload comes from
+     * @param seq  the sequence number of the frame
+     */
+    private static void receiveEarly(ReliableLink link, BufferPool pool, int seq) {
+        assertEquals(ReliableLink.RECEIVED_EARLY, link.onReceived(seq));
+        PooledBuffer payload = pool.acquire(1);
+        payload.put(new byte[]{(byte) seq}, 0, 1);
+        link.hold(seq, ChatFrame.TYPE_TEXT, payload);
+    }
+
+    /**
+     * @param sack  the blocks written by writeSackBlocks()
+     * @param block which block to check
+     * @param start the expected first sequence number
+     * @param end   the expected last sequence number
+     */
+    private static void assertSackBlock(byte[] sack, int block, int start, int end) {
+        int offset = block * ChatFrame.SACK_BLOCK_LENGTH;
+        assertEquals(start, ChatFrame.readInt(sack, offset));
+        assertEquals(end, ChatFrame.readInt(sack, offset + ChatFrame.SACK_BLOCK_LENGTH / 2));
+    }
+}
@@ -0,0 +1,148 @@
+package netid.iastate.edu.messenger.Models;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for SeenCache, including ids that collide in its hash table so removing one has to shift the
+ * others back.
+ */
+public class SeenCacheTest {
+    /** the time to live used by most tests, in ns */
+    private static final long TTL = 1000;
+
+    @Test
+    public void duplicate_isReportedOnce() {
+        SeenCache cache = new SeenCache(4, TTL);
+        assertTrue(cache.add(42, 0));
+        assertFalse(cache.add(42, 1));
+        assertTrue(cache.contains(42));
+        assertFalse(cache.contains(43));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void expiredId_isNewAgain() {
+        SeenCache cache = new SeenCache(4, TTL);
+        cache.add(1, 0);
+        cache.add(2, 600);
+        assertFalse(cache.add(1, TTL));
+        assertTrue(cache.add(1, TTL + 1));
+        // 2 is still within its time to live
+        assertFalse(cache.add(2, TTL + 1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void fullCache_evictsOldestFirst() {
+        SeenCache cache = new SeenCache(4, TTL);
+        for (long id = 1; id <= 4; id++) {
+            assertTrue(cache.add(id, id));
+        }
+        assertTrue(cache.add(5, 5));
+        assertEquals(4, cache.size());
+        assertFalse(cache.contains(1));
+        for (long id = 2; id <= 5; id++) {
+            assertTrue(cache.contains(id));
+        }
+    }
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        SeenCache cache = new SeenCache(5, TTL);
+        for (long id = 1; id <= 8; id++) {
+            cache.add(id, 0);
+        }
+        assertEquals(8, cache.size());
+        assertTrue(cache.contains(1));
+        cache.add(9, 0);
+        assertFalse(cache.contains(1));
+    }
+
+    @Test
+    public void removingFromCollisionChain_keepsLaterEntries() {
+        // capacity 4 gives a table of 8 slots
+        long[] colliding = collidingIds(8, 3);
+        SeenCache cache = new SeenCache(4, TTL);
+        for (int i = 0; i < colliding.length; i++) {
+            cache.add(colliding[i], i);
+        }
+        // expires the head of the chain, the other two have to move back over the hole
+        cache.add(colliding[0] + 1, TTL + 1);
+        assertFalse(cache.contains(colliding[0]));
+        assertTrue(cache.contains(colliding[1]));
+        assertTrue(cache.contains(colliding[2]));
+        assertFalse(cache.add(colliding[1], TTL + 1));
+        assertFalse(cache.add(colliding[2], TTL + 1));
+    }
+
+    @Test
+    public void randomTraffic_matchesSimpleModel() {
+        Random random = new Random(18);
+        SeenCache cache = new SeenCache(8, TTL);
+        ArrayDeque<long[]> model = new ArrayDeque<>();
+        long now = 0;
+        for (int i = 0; i < 100000; i++) {
+            now += random.nextInt(60);
+            long id = 1 + random.nextInt(40);
+
+            while (!model.isEmpty() && now - model.peekFirst()[1] > TTL) {
+                model.pollFirst();
+            }
+            boolean expected = true;
+            for (long[] entry : model) {
+                expected &= entry[0] != id;
+            }
+            if (expected) {
+                if (model.size() == 8) {
+                    model.pollFirst();
+                }
+                model.addLast(new long[]{id, now});
+            }
+
+            assertEquals("add " + i, expected, cache.add(id, now));
+            assertEquals(model.size(), cache.size());
+            for (long other = 1; other <= 40; other++) {
+                boolean remembered = false;
+                for (long[] entry : model) {
+                    remembered |= entry[0] == other;
+                }
+                assertEquals(remembered, cache.contains(other));
+            }
+        }
+    }
+
+    @Test
+    public void clear_forgetsEverything() {
+        SeenCache cache = new SeenCache(4, TTL);
+        cache.add(7, 0);
+        cache.add(8, 0);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.contains(7));
+        assertTrue(cache.add(7, 1));
+    }
+
+    /**
+     * Find ids that hash to the same slot, with the hash SeenCache uses
+     *
+     * @param tableSize the number of slots in the cache's hash table
+     * @param count     how many ids to find
+     * @return ids sharing a home slot
+     */
+    private static long[] collidingIds(int tableSize, int count) {
+        long[] ids = new long[count];
+        int found = 0;
+        for (long id = 1; found < count; id++) {
+            int home = (int) (id * 0x9E3779B97F4A7C15L >>> 32) & (tableSize - 1);
+            if (home == 0) {
+                ids[found++] = id;
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,185 @@
+package netid.iastate.edu.messenger.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import netid.iastate.edu.messenger.Interfaces.FrameCallback;
+import netid.iastate.edu.messenger.Models.BufferPool;
+import netid.iastate.edu.messenger.Models.CharBufferPool;
+import netid.iastate.edu.messenger.Models.ChatFrame;
+import netid.iastate.edu.messenger.Models.FrameDecoder;
+import netid.iastate.edu.messenger.Models.FrameDeflater;
+import netid.iastate.edu.messenger.Models.FrameInflater;
+import netid.iastate.edu.messenger.Models.PooledBuffer;
+import netid.iastate.edu.messenger.Models.PooledCharBuffer;
+import netid.iastate.edu.messenger.Models.TextDecoder;
+
+/**
+ * Measures the ChatModel receive path over a long stream of framed messages: rebuilding frames from
+ * socket sized reads, copying them into pooled buffers, and decoding them as UTF-8 text either into new Strings or into
+ * pooled CharBuffers with a connection's TextDecoder, and
+ * the compression both ends of a connection apply to the messages when the peers negotiate it.
+ * Every benchmark processes the whole stream once per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChatPipelineBenchmark {
+    /** number of messages in the stream */
+    private static final int MESSAGE_COUNT = 1000;
+    /** words the messages are made of, including some multi byte UTF-8 text */
+    private static final String[] WORDS = {"hey", "are", "you", "coming", "to", "lab", "tonight", "?", "ok", "caf\u00e9", "\u00fcber", "\ud83d\udc4d"};
+
+    /** how many bytes each simulated socket read returns */
+    @Param({"64", "1024"})
+    public int readSize;
+
+    /** the messages as the sender encodes them */
+    private byte[][] payloads;
+    /** the framed stream as it arrives at the receiver */
+    private byte[] stream;
+    /** decoder reused across operations, like the one owned by a connection */
+    private FrameDecoder decoder;
+    /** pool reused across operations, like the one owned by the ChatModel */
+    private BufferPool pool;
+    /** decoder reused across operations, like the one owned by a connection, with its own text pool */
+    private TextDecoder textDecoder;
+    /** the messages long enough to be compressed, as one connection's FrameDeflater compresses them */
+    private byte[][] deflated;
+    /** the number of compressed bytes at the start of each deflated message */
+    private int[] deflatedLengths;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(388);
+        payloads = new byte[MESSAGE_COUNT][];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            StringBuilder builder = new StringBuilder();
+            int words = 1 + random.nextInt(30);
+            for (int w = 0; w < words; w++) {
+                builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            payloads[i] = builder.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(ChatFrame.encode(ChatFrame.TYPE_TEXT, payloads[i], 0, payloads[i].length));
+        }
+        stream = out.toByteArray();
+        decoder = new FrameDecoder(ChatFrame.MAX_PAYLOAD_LENGTH);
+        pool = new BufferPool(32, 1024);
+        textDecoder = new TextDecoder(new CharBufferPool(32, 1024));
+
+        FrameDeflater deflater = new FrameDeflater();
+        deflated = new byte[MESSAGE_COUNT][];
+        deflatedLengths = new int[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            if (payloads[i].length >= FrameDeflater.MIN_LENGTH) {
+                deflatedLengths[i] = deflater.deflate(payloads[i], 0, payloads[i].length);
+                deflated[i] = Arrays.copyOf(deflater.getOutput(), deflatedLengths[i]);
+            }
+        }
+        deflater.end();
+    }
+
+    @Benchmark
+    public byte[] encodeFrames() {
+        byte[] last = null;
+        for (byte[] payload : payloads) {
+            last = ChatFrame.encode(ChatFrame.TYPE_TEXT, payload, 0, payload.length);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public void decodeFrames(final Blackhole blackhole) throws IOException {
+        feed(new FrameCallback() {
+            @Override
+            public void onFrame(byte type, int seq, byte[] buffer, int offset, int length) {
+                blackhole.consume(length);
+            }
+        });
+    }
+
+    @Benchmark
+    public void decodeFramesIntoPool(final Blackhole blackhole) throws IOException {
+        feed(new FrameCallback() {
+            @Override
+            public void onFrame(byte type, int seq, byte[] buffer, int offset, int length) {
+                PooledBuffer payload = pool.acquire(length);
+                payload.put(buffer, offset, length);
+                blackhole.consume(payload);
+                payload.release();
+            }
+        });
+    }
+
+    @Benchmark
+    public void decodeFramesToText(final Blackhole blackhole) throws IOException {
+        feed(new FrameCallback() {
+            @Override
+            public void onFrame(byte type, int seq, byte[] buffer, int offset, int length) {
+                blackhole.consume(new String(buffer, offset, length, StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    @Benchmark
+    public void decodeFramesToPooledText(final Blackhole blackhole) throws IOException {
+        feed(new FrameCallback() {
+            @Override
+            public void onFrame(byte type, int seq, byte[] buffer, int offset, int length) {
+                PooledCharBuffer text = textDecoder.decode(buffer, offset, length);
+                blackhole.consume(text.getBuffer().remaining());
+                text.release();
+            }
+        });
+    }
+
+    @Benchmark
+    public int deflateMessages() {
+        // a fresh stream each time, so every operation compresses the same bytes
+        FrameDeflater deflater = new FrameDeflater();
+        int total = 0;
+        for (byte[] payload : payloads) {
+            total += payload.length >= FrameDeflater.MIN_LENGTH ? deflater.deflate(payload, 0, payload.length) : payload.length;
+        }
+        deflater.end();
+        return total;
+    }
+
+    @Benchmark
+    public void inflateMessages(Blackhole blackhole) throws IOException {
+        FrameInflater inflater = new FrameInflater(ChatFrame.MAX_PAYLOAD_LENGTH);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            if (deflated[i] != null) {
+                blackhole.consume(inflater.inflate(deflated[i], 0, deflatedLengths[i]));
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * Push the whole stream through the decoder in readSize chunks
+     *
+     * @param callback where the decoded frames go
+     * @throws IOException if the stream is corrupt
+     */
+    private void feed(FrameCallback callback) throws IOException {
+        for (int offset = 0; offset < stream.length; offset += readSize) {
+            decoder.feed(stream, offset, Math.min(readSize, stream.length - offset), callback);
+        }
+    }
+}
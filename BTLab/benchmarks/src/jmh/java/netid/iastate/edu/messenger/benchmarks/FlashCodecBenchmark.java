@@ -0,0 +1,145 @@
+package netid.iastate.edu.messenger.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import netid.iastate.edu.messenger.Interfaces.ColorSchedule;
+import netid.iastate.edu.messenger.Models.MorseCodec;
+import netid.iastate.edu.messenger.Models.MorseDecoder;
+import netid.iastate.edu.messenger.Models.MultiLevelSchedule;
+import netid.iastate.edu.messenger.Models.PrefixCode;
+import netid.iastate.edu.messenger.Models.PrefixSchedule;
+import netid.iastate.edu.messenger.Models.FlashSchedule;
+
+/**
+ * Measures the flash channel codec: encoding a whole message into screen colors, and decoding the
+ * received DOT/DASH/END_CHARACTER pattern of every character in a message, both a character at a
+ * time and as one symbol stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FlashCodecBenchmark {
+    /** text the benchmark messages are cut from, every supported character appears in it */
+    private static final String TEXT = "the quick brown fox jumps over the lazy dog 0123456789 ";
+
+    /** number of characters in the message */
+    @Param({"16", "1024"})
+    public int messageLength;
+
+    /** the message being encoded */
+    private String message;
+    /** the received pattern of every character of the message, in order */
+    private List<ArrayList<String>> patterns;
+    /** the same patterns as one stream of MorseCodec.SYMBOL_ values */
+    private int[] symbols;
+    /** streaming decoder reused across operations, like the one owned by the FlashModel */
+    private final MorseDecoder decoder = new MorseDecoder();
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder(messageLength);
+        for (int i = 0; i < messageLength; i++) {
+            builder.append(TEXT.charAt(i % TEXT.length()));
+        }
+        message = builder.toString();
+
+        patterns = new ArrayList<>();
+        for (int i = 0; i < message.length(); i++) {
+            ArrayList<String> pattern = patternOf(message.charAt(i));
+            if (!pattern.isEmpty()) {
+                patterns.add(pattern);
+            }
+        }
+
+        ArrayList<Integer> stream = new ArrayList<>();
+        for (ArrayList<String> pattern : patterns) {
+            for (String symbol : pattern) {
+                stream.add(MorseCodec.DOT.equals(symbol) ? MorseCodec.SYMBOL_DOT
+                        : MorseCodec.DASH.equals(symbol) ? MorseCodec.SYMBOL_DASH : MorseCodec.SYMBOL_END_CHARACTER);
+            }
+        }
+        symbols = new int[stream.size()];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = stream.get(i);
+        }
+    }
+
+    @Benchmark
+    public void encodeMessage(Blackhole blackhole) {
+        ColorSchedule schedule = MorseCodec.encodeMessage(message);
+        while (schedule.next()) {
+            blackhole.consume(schedule.getColor());
+            blackhole.consume(schedule.getDurationUnits());
+        }
+    }
+
+    @Benchmark
+    public void encodeMultiLevel(Blackhole blackhole) {
+        ColorSchedule schedule = new MultiLevelSchedule(message);
+        while (schedule.next()) {
+            blackhole.consume(schedule.getColor());
+            blackhole.consume(schedule.getDurationUnits());
+        }
+    }
+
+    @Benchmark
+    public void encodePrefix(Blackhole blackhole) {
+        ColorSchedule schedule = new PrefixSchedule(PrefixCode.CHAT, message);
+        while (schedule.next()) {
+            blackhole.consume(schedule.getColor());
+            blackhole.consume(schedule.getDurationUnits());
+        }
+    }
+
+    @Benchmark
+    public void decodeCharacterPattern(Blackhole blackhole) {
+        for (int i = 0; i < patterns.size(); i++) {
+            blackhole.consume(MorseCodec.decodeCharacterPattern(patterns.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void decodeSymbolStream(Blackhole blackhole) {
+        decoder.reset();
+        for (int symbol : symbols) {
+            char decoded = decoder.push(symbol);
+            if (decoded != MorseDecoder.NO_CHARACTER) {
+                blackhole.consume(decoded);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the pattern a receiver would see for one character from the runs the encoder produces for it
+     *
+     * @param c the character
+     * @return the DOT, DASH and END_CHARACTER pattern, empty if the character is not supported
+     */
+    private static ArrayList<String> patternOf(char c) {
+        ArrayList<String> pattern = new ArrayList<>();
+        ColorSchedule schedule = MorseCodec.encodeMessage(String.valueOf(c));
+        // skip the RED marker and the sync pulses
+        for (int i = 0; i < 1 + 2 * FlashSchedule.SYNC_PULSES; i++) {
+            schedule.next();
+        }
+        while (schedule.next()) {
+            if (schedule.getColor() == MorseCodec.BLACK) {
+                int units = schedule.getDurationUnits();
+                pattern.add(units == 1 ? MorseCodec.DOT : units == 2 ? MorseCodec.DASH : MorseCodec.END_CHARACTER);
+            }
+        }
+        return pattern;
+    }
+}